@@ -0,0 +1,443 @@
+package com.readtracker.android.db
+
+import androidx.test.platform.app.InstrumentationRegistry
+import com.squareup.otto.Bus
+import com.squareup.otto.Subscribe
+import com.squareup.otto.ThreadEnforcer
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import src.buildBook
+import src.buildQuote
+import src.buildSession
+
+class DatabaseManagerTest : DatabaseTestBase() {
+
+    /**
+     * Save a mix of new and existing models in one batch and assert that the new ones
+     * are created, with the book getting its id before the sessions referencing it,
+     * and the existing ones are updated.
+     */
+    @Test
+    fun databaseManagerTest_SaveAll_CreatesAndUpdatesInOneBatch() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+
+        val existingBook = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        databaseManager.save(existingBook)
+        existingBook.pageCount = 300f
+
+        val newBook = buildBook("The Trial", "Franz Kafka", 100f)
+        val firstSession = buildSession(newBook, 0.1f, 0.2f, 123, 1)
+        val secondSession = buildSession(newBook, 0.2f, 0.3f, 456, 2)
+
+        databaseManager.saveAll<Model>(existingBook, newBook, firstSession, secondSession)
+
+        assertTrue(newBook.id > 0)
+        assertEquals(2, databaseManager.getAll(Book::class.java).size)
+        assertEquals(300f, databaseManager.get(Book::class.java, existingBook.id)!!.pageCount)
+
+        val sessions = databaseManager.getSessionsForBook(newBook)
+        assertEquals(2, sessions.size)
+        assertEquals(123, sessions[0].durationSeconds)
+        assertEquals(456, sessions[1].durationSeconds)
+    }
+
+    /**
+     * Save two books with sessions, and one without, and assert that loading the catalogue
+     * attaches each session to the book it belongs to.
+     */
+    @Test
+    fun databaseManagerTest_GetAllBooksWithSessions_GroupsSessionsByBook() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+
+        val metamorphosis = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        val trial = buildBook("The Trial", "Franz Kafka", 100f)
+        val castle = buildBook("The Castle", "Franz Kafka", 300f)
+        databaseManager.saveAll<Model>(
+                metamorphosis, trial, castle,
+                buildSession(metamorphosis, 0.1f, 0.2f, 1, 1),
+                buildSession(trial, 0.1f, 0.2f, 2, 2),
+                buildSession(metamorphosis, 0.2f, 0.3f, 3, 3)
+        )
+
+        val books = databaseManager.getAllBooksWithSessions().associateBy { it.title }
+
+        books.getValue("Metamorphosis").let { book ->
+            assertEquals(listOf(1L, 3L), book.sessions.map { it.durationSeconds })
+            assertTrue(book.sessions.all { it.book === book })
+        }
+        assertEquals(listOf(2L), books.getValue("The Trial").sessions.map { it.durationSeconds })
+        assertEquals(0, books.getValue("The Castle").sessions.size)
+    }
+
+    /**
+     * Visit all books with and without a batch size, where the batch size does not divide
+     * the number of books, and assert that each book is visited once, in id order.
+     */
+    @Test
+    fun databaseManagerTest_ForEach_VisitsAllModelsInIdOrder() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+        val books = (1..7).map { buildBook("Book $it", "Author", 100f) }
+        databaseManager.saveAll(books)
+        val expectedIds = books.map { it.id }
+
+        val visitedIds = ArrayList<Int>()
+        databaseManager.forEach(Book::class.java) { visitedIds.add(it.id) }
+        assertEquals(expectedIds, visitedIds)
+
+        val batchedIds = ArrayList<Int>()
+        databaseManager.forEach(Book::class.java, 3) { batchedIds.add(it.id) }
+        assertEquals(expectedIds, batchedIds)
+
+        val exactBatchIds = ArrayList<Int>()
+        databaseManager.forEach(Book::class.java, 7) { exactBatchIds.add(it.id) }
+        assertEquals(expectedIds, exactBatchIds)
+    }
+
+    /**
+     * Add, edit and delete sessions of a book and assert that the aggregated stats
+     * follow along.
+     */
+    @Test
+    fun databaseManagerTest_SessionWrites_MaintainBookStats() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        val firstSession = buildSession(book, 0.0f, 0.2f, 100, 2000)
+        val secondSession = buildSession(book, 0.2f, 0.5f, 200, 1000)
+        databaseManager.saveAll<Model>(book, firstSession, secondSession)
+
+        databaseManager.getStatsForBook(book).let { stats ->
+            assertEquals(300L, stats.secondsSpent)
+            assertEquals(2, stats.sessionCount)
+            assertEquals(1000L, stats.firstSessionTimestampMs)
+            assertEquals(2000L, stats.lastSessionTimestampMs)
+            assertArrayEquals(floatArrayOf(0.2f, 0.5f), stats.sessionStops, 0.00001f)
+        }
+
+        secondSession.durationSeconds = 50
+        databaseManager.save(secondSession)
+        assertEquals(150L, databaseManager.getStatsForBook(book).secondsSpent)
+
+        databaseManager.delete(firstSession)
+        databaseManager.getStatsForBook(book).let { stats ->
+            assertEquals(50L, stats.secondsSpent)
+            assertEquals(1, stats.sessionCount)
+            assertEquals(1000L, stats.firstSessionTimestampMs)
+            assertArrayEquals(floatArrayOf(0.5f), stats.sessionStops, 0.00001f)
+        }
+
+        val catalogue = databaseManager.getAllBooksWithStats()
+        assertEquals(1, catalogue[0].sessionCount)
+        assertEquals(0, catalogue[0].sessions.size)
+    }
+
+    /**
+     * Assert that repeated gets are served from the entity cache as separate instances, that
+     * unsaved changes to one do not reach the others, and that saving invalidates the cached entry.
+     */
+    @Test
+    fun databaseManagerTest_EntityCache_ServesRepeatedGetsUntilSaved() {
+        val databaseManager = DatabaseManager(getHelperOfTestDatabaseAtVersion(DatabaseHelper.DATABASE_VERSION), 10)
+
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        databaseManager.save(book)
+
+        val first = databaseManager.get(Book::class.java, book.id)
+        val second = databaseManager.get(Book::class.java, book.id)
+        assertNotSame(first, second)
+        assertEquals(1, databaseManager.entityCacheHitCount)
+        assertEquals(1, databaseManager.entityCacheMissCount)
+
+        first!!.pageCount = 300f
+        assertEquals(200f, databaseManager.get(Book::class.java, book.id)!!.pageCount)
+
+        databaseManager.save(first)
+
+        val afterSave = databaseManager.get(Book::class.java, book.id)
+        assertNotSame(first, afterSave)
+        assertEquals(300f, afterSave!!.pageCount)
+        assertEquals(2, databaseManager.entityCacheMissCount)
+    }
+
+    /**
+     * Assert that book summaries carry the list fields of the book and the session stops
+     * from the aggregated stats.
+     */
+    @Test
+    fun databaseManagerTest_GetAllBookSummaries_ReturnsListFields() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f).apply {
+            state = Book.State.Finished
+            closingRemark = "Dude, poor guy!"
+            currentPositionTimestampMs = 1400856553800L
+            setColor(0xff00ff)
+        }
+        val emptyBook = Book()
+        databaseManager.saveAll<Model>(
+                book, emptyBook,
+                buildSession(book, 0.0f, 0.5f, 10, 1),
+                buildSession(book, 0.5f, 1.0f, 10, 2)
+        )
+
+        val summaries = databaseManager.getAllBookSummaries().associateBy { it.id }
+
+        summaries.getValue(book.id).let { summary ->
+            assertEquals("Metamorphosis", summary.title)
+            assertEquals("Franz Kafka", summary.author)
+            assertEquals(Book.State.Finished, summary.state)
+            assertEquals("Dude, poor guy!", summary.closingRemark)
+            assertEquals(1400856553800L, summary.currentPositionTimestampMs)
+            assertEquals(0xff00ff, summary.color)
+            assertArrayEquals(floatArrayOf(0.5f, 1.0f), summary.sessionStops, 0.00001f)
+        }
+
+        summaries.getValue(emptyBook.id).let { summary ->
+            assertEquals("", summary.title)
+            assertNull(summary.color)
+            assertEquals(0, summary.sessionStops.size)
+        }
+    }
+
+    /**
+     * Page through sessions with shared timestamps and quotes, and assert that every row is
+     * returned exactly once, newest first.
+     */
+    @Test
+    fun databaseManagerTest_GetForBookPaged_ReturnsEveryRowOnceNewestFirst() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        val otherBook = buildBook("The Trial", "Franz Kafka", 100f)
+        databaseManager.saveAll<Model>(book, otherBook)
+
+        val sessions = (0 until 7).map { buildSession(book, 0f, 0.1f, it, (it / 2).toLong()) }
+        val quotes = (0 until 5).map { buildQuote(book, "Quote $it", 0.1f, it.toLong()) }
+        databaseManager.saveAll<Model>(sessions + quotes + buildSession(otherBook, 0f, 0.1f, 1, 1))
+
+        val pagedSessions = ArrayList<Session>()
+        var sessionPage = databaseManager.getSessionsForBook(book, null, 3)
+        while (sessionPage.isNotEmpty()) {
+            pagedSessions.addAll(sessionPage)
+            sessionPage = databaseManager.getSessionsForBook(book, sessionPage.last(), 3)
+        }
+
+        assertEquals(sessions.map { it.id }.sortedDescending(), pagedSessions.map { it.id })
+
+        val pagedQuotes = ArrayList<Quote>()
+        var quotePage = databaseManager.getQuotesForBook(book, null, 2)
+        while (quotePage.isNotEmpty()) {
+            pagedQuotes.addAll(quotePage)
+            quotePage = databaseManager.getQuotesForBook(book, quotePage.last(), 2)
+        }
+
+        assertEquals(listOf(4L, 3L, 2L, 1L, 0L), pagedQuotes.map { it.addTimestampMs })
+    }
+
+    /**
+     * Assert that the titles with a base include the base title and its numbered copies,
+     * but not unrelated titles.
+     */
+    @Test
+    fun databaseManagerTest_GetTitlesWithBase_ReturnsBaseAndNumberedTitles() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+
+        databaseManager.saveAll(
+                buildBook("Metamorphosis", "Franz Kafka", 200f),
+                buildBook("(1) Metamorphosis", "Franz Kafka", 200f),
+                buildBook("(12) Metamorphosis", "Franz Kafka", 200f),
+                buildBook("The Metamorphosis of Things", "Someone Else", 200f),
+                buildBook("The Trial", "Franz Kafka", 100f)
+        )
+
+        assertEquals(
+                setOf("Metamorphosis", "(1) Metamorphosis", "(12) Metamorphosis"),
+                databaseManager.getTitlesWithBase("Metamorphosis")
+        )
+    }
+
+    /**
+     * Write a book with sessions and quotes in one batch, then update and delete it, and
+     * assert that one event per kind of change is posted, after the writes.
+     */
+    @Test
+    fun databaseManagerTest_Writes_PostChangeEvents() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+        val events = ArrayList<DatabaseManager.BookChangeEvent>()
+        val bus = Bus(ThreadEnforcer.ANY)
+        bus.register(object {
+            @Subscribe fun onBookChangeEvent(event: DatabaseManager.BookChangeEvent) {
+                events.add(event)
+            }
+        })
+        databaseManager.setBus(bus)
+
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        databaseManager.saveAll<Model>(
+                book,
+                buildSession(book, 0.0f, 0.2f, 100, 1),
+                buildSession(book, 0.2f, 0.5f, 200, 2),
+                buildQuote(book, "Quote", 0.1f, 1)
+        )
+        book.pageCount = 300f
+        databaseManager.save(book)
+        databaseManager.delete(book)
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync()
+
+        assertEquals(listOf(
+                DatabaseManager.BookCreatedEvent::class.java,
+                DatabaseManager.SessionsChangedEvent::class.java,
+                DatabaseManager.QuotesChangedEvent::class.java,
+                DatabaseManager.BookUpdatedEvent::class.java,
+                DatabaseManager.BookDeletedEvent::class.java
+        ), events.map { it.javaClass })
+        assertTrue(events.all { it.bookId == book.id })
+    }
+
+    /**
+     * Update a book, delete one of its sessions and add another book after reading the
+     * watermark, and assert that only those changes are returned.
+     */
+    @Test
+    fun databaseManagerTest_GetChangedSince_ReturnsRowsChangedAfterWatermark() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        val untouchedBook = buildBook("The Castle", "Franz Kafka", 300f)
+        val session = buildSession(book, 0.0f, 0.2f, 100, 1)
+        databaseManager.saveAll<Model>(book, untouchedBook, session)
+
+        val watermark = databaseManager.changeWatermark
+        // Make sure the following writes get a later timestamp
+        Thread.sleep(5)
+
+        book.pageCount = 300f
+        databaseManager.save(book)
+        databaseManager.delete(session)
+        val newBook = buildBook("The Trial", "Franz Kafka", 100f)
+        databaseManager.save(newBook)
+
+        // Rows written at exactly the watermark are returned again by design, so skip past it
+        val changes = databaseManager.getChangedSince(watermark + 1)
+        assertEquals(setOf(book.id, newBook.id), changes.books.map { it.id }.toSet())
+        assertEquals(0, changes.sessions.size)
+        assertEquals(setOf(session.id), changes.deletedSessionIds)
+        assertEquals(setOf(book.id, newBook.id), changes.changedBookIds)
+        assertTrue(changes.watermark > watermark)
+    }
+
+    /**
+     * Delete two sessions, age the tombstone of one past the retention window, and assert that
+     * pruning removes only that one.
+     */
+    @Test
+    fun databaseManagerTest_PruneDeletedRows_KeepsRowsWithinRetention() {
+        val dbHelper = getHelperOfTestDatabaseAtVersion(DatabaseHelper.DATABASE_VERSION)
+        val databaseManager = DatabaseManager(dbHelper)
+
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        val oldSession = buildSession(book, 0.0f, 0.1f, 100, 1)
+        val recentSession = buildSession(book, 0.1f, 0.2f, 100, 2)
+        databaseManager.saveAll<Model>(book, oldSession, recentSession)
+        databaseManager.delete(oldSession)
+        databaseManager.delete(recentSession)
+
+        val db = dbHelper.writableDatabase
+        db.execSQL("UPDATE deleted_rows SET deleted_at = deleted_at - ${DatabaseHelper.DELETED_ROWS_RETENTION_MS + 1000} " +
+                "WHERE row_id = ${oldSession.id}")
+
+        assertEquals(1, DatabaseHelper.pruneDeletedRows(db))
+        assertEquals(setOf(recentSession.id), databaseManager.getChangedSince(0).deletedSessionIds)
+    }
+
+    /**
+     * Search for a word in a title, an author and quotes, and assert that each match is
+     * found with its match marked in the snippet, and that edits and deletes reach the index.
+     */
+    @Test
+    fun databaseManagerTest_Search_FindsBooksAndQuotes() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        val otherBook = buildBook("The Trial", "Franz Kafka", 100f)
+        val quote = buildQuote(book, "As Gregor Samsa awoke one morning", 0.1f, 1)
+        databaseManager.saveAll<Model>(book, otherBook, quote, buildQuote(otherBook, "Someone must have slandered", 0.1f, 2))
+
+        val hits = databaseManager.search("gregor", 10)
+        assertEquals(1, hits.size)
+        assertEquals(SearchHit.Kind.QUOTE, hits[0].kind)
+        assertEquals(quote.id, hits[0].quoteId)
+        assertEquals(book.id, hits[0].bookId)
+        assertEquals("Metamorphosis", hits[0].title)
+        assertTrue(hits[0].snippet.contains(SearchHit.MATCH_START + "Gregor" + SearchHit.MATCH_END))
+
+        // Prefix match on the author of both books
+        assertEquals(setOf(book.id, otherBook.id), databaseManager.search("kaf", 10).map { it.bookId }.toSet())
+        assertEquals(1, databaseManager.search("kaf", 1).size)
+
+        otherBook.title = "The Castle"
+        databaseManager.save(otherBook)
+        assertEquals(0, databaseManager.search("trial", 10).size)
+        assertEquals(otherBook.id, databaseManager.search("castle", 10).single().bookId)
+
+        databaseManager.delete(quote)
+        assertEquals(0, databaseManager.search("gregor", 10).size)
+        assertEquals(0, databaseManager.search("  ", 10).size)
+    }
+
+    /**
+     * Run a few operations and assert that the diagnostics count the rows and hold a
+     * timing histogram for each operation.
+     */
+    @Test
+    fun databaseManagerTest_GetDiagnostics_CountsRowsAndTimesOperations() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+        databaseManager.queryTimings.reset()
+
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        databaseManager.save(book)
+        databaseManager.saveAll(buildSession(book, 0.0f, 0.1f, 60, 1000), buildSession(book, 0.1f, 0.2f, 60, 2000))
+        databaseManager.getAll(Book::class.java)
+        databaseManager.getAll(Book::class.java)
+
+        val diagnostics = databaseManager.diagnostics
+        assertEquals(1L, diagnostics.rowCounts["books"])
+        assertEquals(2L, diagnostics.rowCounts["sessions"])
+        assertEquals(0L, diagnostics.rowCounts["quotes"])
+        assertTrue(diagnostics.databaseFileSize > 0)
+
+        val counts = diagnostics.histograms.associate { it.name to it.count }
+        assertEquals(1, counts["DatabaseManager.save(Book)"])
+        assertEquals(1, counts["DatabaseManager.saveAll"])
+        assertEquals(2, counts["DatabaseManager.getAll(Book)"])
+    }
+
+    /**
+     * Delete a book with sessions and quotes, and assert that they, and the aggregates of the
+     * book, are deleted with it while another book is left alone.
+     */
+    @Test
+    fun databaseManagerTest_DeleteBook_CascadesToSessionsAndQuotes() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        val otherBook = buildBook("The Trial", "Franz Kafka", 100f)
+        databaseManager.saveAll(book, otherBook)
+        val otherSession = buildSession(otherBook, 0.0f, 0.1f, 60, 3)
+        databaseManager.saveAll<Model>(
+                buildSession(book, 0.0f, 0.1f, 60, 1),
+                buildSession(book, 0.1f, 0.2f, 60, 2),
+                buildQuote(book, "As Gregor Samsa awoke", 0.1f, 1),
+                otherSession)
+
+        databaseManager.delete(book)
+
+        assertEquals(listOf(otherSession.id), databaseManager.getAll(Session::class.java).map { it.id })
+        assertTrue(databaseManager.getAll(Quote::class.java).isEmpty())
+        assertEquals(0, databaseManager.getStatsForBook(book).sessionCount)
+        assertEquals(1, databaseManager.getStatsForBook(otherBook).sessionCount)
+    }
+}
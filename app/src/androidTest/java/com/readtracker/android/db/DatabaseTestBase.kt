@@ -1,6 +1,10 @@
 package com.readtracker.android.db
 
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
 import androidx.test.core.app.ApplicationProvider
+import com.j256.ormlite.android.AndroidConnectionSource
+import com.j256.ormlite.table.TableUtils
 import com.readtracker.android.ReadTrackerApp
 import org.junit.After
 
@@ -13,14 +17,58 @@ abstract class DatabaseTestBase {
         appContext.deleteDatabase(TEST_DATABASE_NAME)
     }
 
-    fun getManagerOfTestDatabaseAtVersion(dbVersion: Int): DatabaseManager {
+    fun getHelperOfTestDatabaseAtVersion(dbVersion: Int): DatabaseHelper {
         val appContext = ApplicationProvider.getApplicationContext<ReadTrackerApp>()
         val dbHelper = DatabaseHelper(appContext, TEST_DATABASE_NAME, null, dbVersion)
         appContext.deleteDatabase(TEST_DATABASE_NAME)
-        return DatabaseManager(dbHelper)
+        return dbHelper
+    }
+
+    fun getManagerOfTestDatabaseAtVersion(dbVersion: Int): DatabaseManager {
+        return DatabaseManager(getHelperOfTestDatabaseAtVersion(dbVersion))
     }
 
     fun getManagerOfCleanTestDatabase(): DatabaseManager {
         return getManagerOfTestDatabaseAtVersion(DatabaseHelper.DATABASE_VERSION)
     }
+
+    /**
+     * Creates the test database at version 11 with the legacy tables, and fills it with populate.
+     *
+     * Version 11 is the oldest schema that can be recreated from the legacy model classes.
+     * Earlier versions of those tables are not known well enough to rebuild.
+     */
+    fun createLegacyDatabase(populate: (SQLiteDatabase) -> Unit) {
+        val appContext = ApplicationProvider.getApplicationContext<ReadTrackerApp>()
+        appContext.deleteDatabase(TEST_DATABASE_NAME)
+        val db = appContext.openOrCreateDatabase(TEST_DATABASE_NAME, Context.MODE_PRIVATE, null)
+        try {
+            val connectionSource = AndroidConnectionSource(db)
+            TableUtils.createTable(connectionSource, LocalReading::class.java)
+            TableUtils.createTable(connectionSource, LocalSession::class.java)
+            TableUtils.createTable(connectionSource, LocalHighlight::class.java)
+
+            db.beginTransaction()
+            try {
+                populate(db)
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+            db.version = 11
+        } finally {
+            db.close()
+        }
+    }
+
+    /** Returns the first column of every row of the query, as longs. */
+    fun queryIds(db: SQLiteDatabase, query: String): List<Long> {
+        val ids = ArrayList<Long>()
+        db.rawQuery(query, null).use { cursor ->
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0))
+            }
+        }
+        return ids
+    }
 }
@@ -0,0 +1,108 @@
+package com.readtracker.android.db
+
+import com.readtracker.android.db.export.IncrementalBackup
+import com.readtracker.android.integration_test_utils.getAppContext
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import src.buildBook
+import src.buildQuote
+import src.buildSession
+import src.randomString
+import java.io.File
+
+class IncrementalBackupTest : DatabaseTestBase() {
+
+    private lateinit var databaseManager: DatabaseManager
+    private lateinit var backupDir: File
+    private lateinit var backup: IncrementalBackup
+
+    @Before
+    fun initializeBackup() {
+        databaseManager = getManagerOfCleanTestDatabase()
+        backupDir = File(getAppContext().filesDir, randomString())
+        backup = IncrementalBackup(databaseManager, backupDir)
+    }
+
+    /**
+     * Take a base backup, change the book, take an incremental backup, and assert that restoring
+     * the chain after deleting the book brings back the book as it was after the changes.
+     */
+    @Test
+    fun incrementalBackupTest_RestoreChain_ReplaysChangesOnBase() {
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        val deletedQuote = buildQuote(book, "removed later", 0.2f, 1400000010000L)
+        databaseManager.saveAll<Model>(
+                book,
+                buildSession(book, 0.1f, 0.2f, 123, 1400000000000L),
+                buildQuote(book, "freedom", 0.5f, 1400000030000L),
+                deletedQuote
+        )
+        assertNotNull(backup.backup())
+
+        // Make sure the following writes get a later timestamp
+        Thread.sleep(5)
+        book.pageCount = 300f
+        databaseManager.save(book)
+        databaseManager.save(buildSession(book, 0.2f, 0.3f, 234, 1400000060000L))
+        databaseManager.delete(deletedQuote)
+
+        val incrementalFile = backup.backup()
+        assertNotNull(incrementalFile)
+        assertTrue(incrementalFile!!.name.contains("incremental"))
+
+        databaseManager.delete(book)
+        val report = backup.restore()
+
+        assertEquals(2, report.backupCount)
+        assertEquals(1, report.deletedRowCount)
+        val restored = databaseManager.getAll(Book::class.java).single().apply {
+            loadSessions(databaseManager)
+            loadQuotes(databaseManager)
+        }
+        assertEquals("Metamorphosis", restored.title)
+        assertEquals(300f, restored.pageCount)
+        assertEquals(setOf(123L, 234L), restored.sessions.map { it.durationSeconds }.toSet())
+        assertEquals(listOf("freedom"), restored.quotes.map { it.content })
+    }
+
+    /** Assert that no backup is written when nothing changed since the previous backup. */
+    @Test
+    fun incrementalBackupTest_BackupWithoutChanges_ReturnsNull() {
+        databaseManager.save(buildBook("Metamorphosis", "Franz Kafka", 200f))
+        assertNotNull(backup.backup())
+
+        assertNull(backup.backup())
+    }
+
+    /**
+     * Assert that a backup after a previous backup older than the retention of deleted rows starts
+     * a new base, as deletes since the previous backup may have been pruned.
+     */
+    @Test
+    fun incrementalBackupTest_PreviousBackupOlderThanRetention_StartsNewBase() {
+        databaseManager.save(buildBook("Metamorphosis", "Franz Kafka", 200f))
+        assertNotNull(backup.backup())
+
+        val manifest = File(backupDir, "manifest.json")
+        manifest.writeText(manifest.readText().replace(Regex("\"watermark\":\\d+"), "\"watermark\":1"))
+        databaseManager.save(buildBook("The Trial", "Franz Kafka", 250f))
+
+        val backupFile = backup.backup()
+        assertNotNull(backupFile)
+        assertTrue(backupFile!!.name.contains("base"))
+    }
+
+    /** Assert that restoring a chain into a database that has the books does not duplicate them. */
+    @Test
+    fun incrementalBackupTest_RestoreOverExistingBooks_MergesRows() {
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        databaseManager.saveAll<Model>(book, buildSession(book, 0.1f, 0.2f, 123, 1400000000000L))
+        assertNotNull(backup.backup())
+
+        backup.restore()
+
+        assertEquals(1, databaseManager.getAll(Book::class.java).size)
+        assertEquals(1, databaseManager.getSessionsForBook(book).size)
+    }
+}
@@ -5,6 +5,7 @@ import com.readtracker.android.integration_test_utils.getAppContext
 import com.readtracker.android.support.Utils
 import src.JSONFixtureAssertions.populateBooksForExpectedOutput
 import org.json.JSONObject
+import org.junit.Assert.assertTrue
 import org.junit.Test
 import org.skyscreamer.jsonassert.JSONAssert
 import org.skyscreamer.jsonassert.JSONCompareMode
@@ -54,4 +55,37 @@ class JSONExporterTest : DatabaseTestBase() {
         val expected = readFixtureFile("expected_output_of_populated_book_test.json")
         JSONAssert.assertEquals(expected, actual, JSONCompareMode.NON_EXTENSIBLE)
     }
+
+    /**
+     * Export the books by streaming them from the database and assert that the output
+     * matches the export of the same books passed as a list.
+     */
+    @Test
+    fun jsonExporterTest_ExportAllFromDatabase_MatchesExportOfList() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+        val books = populateBooksForExpectedOutput(databaseManager)
+        val exporter = JSONExporter.withDatabaseManager(databaseManager)
+
+        val expected = exporter.exportAll(books).toString()
+        val actual = exporter.exportAll().toString()
+
+        JSONAssert.assertEquals(expected, actual, JSONCompareMode.NON_EXTENSIBLE)
+    }
+
+    /**
+     * Export all books in the database straight to disk and assert against the expected output.
+     */
+    @Test
+    fun jsonExporterTest_ExportAllToFile_WritesExpectedJson() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+        populateBooksForExpectedOutput(databaseManager)
+        val exporter = JSONExporter.withDatabaseManager(databaseManager)
+        val exportFile = File(getAppContext().filesDir, randomString())
+
+        assertTrue(exporter.exportAllToFile(exportFile))
+
+        val actual = JSONObject(Utils.readInputStream(FileInputStream(exportFile)))
+        val expected = readFixtureFile("expected_output_of_populated_book_test.json")
+        JSONAssert.assertEquals(expected, actual, JSONCompareMode.NON_EXTENSIBLE)
+    }
 }
@@ -3,6 +3,7 @@ package com.readtracker.android.db
 import src.buildBook
 import src.buildQuote
 import src.buildSession
+import com.readtracker.android.db.export.BinaryExporter
 import com.readtracker.android.db.export.JSONExporter
 import com.readtracker.android.db.export.JSONImporter
 import com.readtracker.android.integration_test_utils.getAppContext
@@ -107,6 +108,23 @@ class JSONImporterTest : DatabaseTestBase() {
         assertEquals(300f, bookAfterImport.pageCount)
     }
 
+    /**
+     * Assert that imported books are matched to existing books regardless of the case and
+     * surrounding whitespace of their title and author.
+     */
+    @Test
+    fun jsonImporterTest_ImportBookWithDifferentCase_MergesWithExisting() {
+        val existing = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        databaseManager.save(existing)
+
+        val importBook = buildBook(" metamorphosis", "FRANZ KAFKA ", 300f)
+        val report = importer.importFile(createExportFileForBooks(Arrays.asList(importBook)))
+
+        assertEquals(1, report.mergedBookCount)
+        assertEquals(0, report.createdBookCount)
+        assertEquals(1, databaseManager.getAll(Book::class.java).size)
+    }
+
     /**
      * Create and save a [Book] in the database with [Session]s and [Quote]s,
      * then delete the book. Try to import the same book with clashing
@@ -170,6 +188,78 @@ class JSONImporterTest : DatabaseTestBase() {
         assertEquals(3L, book.quotes[2].addTimestampMs)
     }
 
+    /**
+     * Export a book with sessions and quotes in the binary format, delete it, and assert that
+     * importing the export restores it.
+     */
+    @Test
+    fun jsonImporterTest_ImportBinaryExport_RestoresBooks() {
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        databaseManager.saveAll<Model>(
+                book,
+                buildSession(book, 0.1f, 0.2f, 123, 1400000000000L),
+                buildSession(book, 0.2f, 0.3f, 234, 1400000060000L),
+                buildQuote(book, "freedom", 0.5f, 1400000030000L)
+        )
+        val exportFile = File(getAppContext().filesDir, randomString())
+        assertTrue(BinaryExporter.withDatabaseManager(databaseManager).exportAllToFile(exportFile))
+        databaseManager.delete(book)
+
+        val report = importer.importFile(exportFile)
+
+        assertEquals(1, report.createdBookCount)
+        assertEquals(2, report.createdSessionCount)
+        assertEquals(1, report.createdQuotesCount)
+        val restored = databaseManager.getAll(Book::class.java).single().apply {
+            loadSessions(databaseManager)
+            loadQuotes(databaseManager)
+        }
+        assertEquals("Metamorphosis", restored.title)
+        assertEquals(setOf(123L, 234L), restored.sessions.map { it.durationSeconds }.toSet())
+        assertEquals("freedom", restored.quotes.single().content)
+    }
+
+    /**
+     * Import more books than fit in one batch and assert that all of them are written, and that
+     * progress is reported with a throughput.
+     */
+    @Test
+    fun jsonImporterTest_ImportManyBooks_WritesAllBatchesAndReportsThroughput() {
+        val books = (1..100).map { buildBook("Book $it", "Author", 100f) }
+        val fileToImport = createExportFileForBooks(books)
+        val rates = ArrayList<Float>()
+        var lastProgress = 0
+        val progressImporter = JSONImporter(databaseManager, JSONImporter.ProgressListener { progress, _, booksPerSecond ->
+            lastProgress = progress
+            rates.add(booksPerSecond)
+        })
+
+        val report = progressImporter.importFile(fileToImport)
+
+        assertEquals(100, report.createdBookCount)
+        assertFalse(report.wasCancelled)
+        assertEquals(100, databaseManager.getAll(Book::class.java).size)
+        assertFalse(rates.isEmpty())
+        assertTrue(rates.all { it > 0 })
+        assertTrue(lastProgress in 1..1000)
+    }
+
+    /**
+     * Assert that an import cancelled before it starts returns a cancelled report without
+     * writing any books.
+     */
+    @Test
+    fun jsonImporterTest_CancelImport_StopsWithoutWriting() {
+        val fileToImport = createExportFileForBooks((1..10).map { buildBook("Book $it", "Author", 100f) })
+
+        importer.cancel()
+        val report = importer.importFile(fileToImport)
+
+        assertTrue(report.wasCancelled)
+        assertEquals(0, report.createdBookCount)
+        assertEquals(0, databaseManager.getAll(Book::class.java).size)
+    }
+
     /**
      * Helper method to create a [File] with JSON output from a list of [Book] entities.
      *
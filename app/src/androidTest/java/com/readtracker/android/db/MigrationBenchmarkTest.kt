@@ -0,0 +1,64 @@
+package com.readtracker.android.db
+
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.filters.LargeTest
+import com.readtracker.android.ReadTrackerApp
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Measures upgrading a large synthetic legacy database to the current version.
+ */
+class MigrationBenchmarkTest : DatabaseTestBase() {
+
+    /**
+     * Build a version 11 database with 100 readings of 1000 sessions each, upgrade it, and assert
+     * that the upgrade, including converting every session, stays within a budget. The budget is
+     * loose enough for slow emulators, but not for saving the sessions one at a time.
+     */
+    @Test
+    @LargeTest
+    fun migrationBenchmarkTest_UpgradeLargeDatabase_ConvertsAllSessions() {
+        createLegacyDatabase { db ->
+            val insertSession = db.compileStatement("INSERT INTO LocalSession " +
+                    "(readingId, progress, durationSeconds, occurredAt) VALUES (?, ?, ?, ?)")
+            for (readingId in 1..READING_COUNT) {
+                db.execSQL("INSERT INTO LocalReading (id, title, author, totalPages, currentPage, rm_state) " +
+                        "VALUES ($readingId, 'Book $readingId', 'Author', 1000, 1000, 2)")
+                for (session in 1..SESSIONS_PER_READING) {
+                    insertSession.bindLong(1, readingId.toLong())
+                    insertSession.bindDouble(2, session.toDouble() / SESSIONS_PER_READING)
+                    insertSession.bindLong(3, 60)
+                    insertSession.bindString(4, "2013-01-01 10:00:00.000000")
+                    insertSession.executeInsert()
+                }
+            }
+        }
+
+        val startMs = SystemClock.elapsedRealtime()
+        val dbHelper = openTestDatabase()
+        dbHelper.writableDatabase
+        val elapsedMs = SystemClock.elapsedRealtime() - startMs
+        Log.i("MigrationBenchmarkTest", "Upgraded ${READING_COUNT * SESSIONS_PER_READING} sessions in $elapsedMs ms")
+
+        val databaseManager = DatabaseManager(dbHelper)
+        assertEquals(READING_COUNT, databaseManager.getAll(Book::class.java).size)
+        val stats = databaseManager.getAllBooksWithStats()
+        assertEquals(READING_COUNT * SESSIONS_PER_READING, stats.sumBy { it.sessionCount })
+        assertTrue("Upgrade took $elapsedMs ms", elapsedMs < UPGRADE_BUDGET_MS)
+    }
+
+    private fun openTestDatabase(): DatabaseHelper {
+        val appContext = ApplicationProvider.getApplicationContext<ReadTrackerApp>()
+        return DatabaseHelper(appContext, TEST_DATABASE_NAME, null, DatabaseHelper.DATABASE_VERSION)
+    }
+
+    companion object {
+        private const val READING_COUNT = 100
+        private const val SESSIONS_PER_READING = 1000
+        private const val UPGRADE_BUDGET_MS = 30000L
+    }
+}
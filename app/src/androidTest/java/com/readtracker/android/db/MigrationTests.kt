@@ -1,5 +1,7 @@
 package com.readtracker.android.db
 
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
 import junit.framework.Assert.assertTrue
 import src.buildRandomBook
 import org.junit.Assert
@@ -19,7 +21,8 @@ class MigrationTest : DatabaseTestBase() {
      */
     @Test
     fun migrationTest_MigrateFrom11to12_BugFix() {
-        val dbManager = getManagerOfTestDatabaseAtVersion(11)
+        val dbHelper = getHelperOfTestDatabaseAtVersion(11)
+        val dbManager = DatabaseManager(dbHelper)
 
         val testBook = buildRandomBook()
         dbManager.save(testBook)
@@ -35,7 +38,7 @@ class MigrationTest : DatabaseTestBase() {
         saveSessionWithTimestamp(11158586000L)
         saveSessionWithTimestamp(894771386000L)
 
-        DatabaseHelper.migrateVersion31Sessions(dbManager)
+        DatabaseHelper.migrateVersion31Sessions(dbHelper.writableDatabase)
 
         val session = dbManager.getAll(Session::class.java)
         Assert.assertEquals(2, session.size)
@@ -43,5 +46,104 @@ class MigrationTest : DatabaseTestBase() {
         val thresholdDate = 31536000000L /* Fri, 01 Jan 1971 00:00:00 GMT */
         Assert.assertTrue(session[0].timestampMs >= thresholdDate)
         Assert.assertTrue(session[1].timestampMs >= thresholdDate)
+        Assert.assertEquals(11158586000L * 1000, session[0].timestampMs)
+        Assert.assertEquals(894771386000L, session[1].timestampMs)
+    }
+
+    /**
+     * Recreate the sessions and quotes tables of a version 18 database with their original foreign
+     * key on the non-existing books (_id), and leave rows of a deleted book behind in them. Assert
+     * that upgrading points the foreign keys at books (id), purges the orphans while keeping the
+     * rows of existing books and their ids, and makes deleting a book cascade.
+     */
+    @Test
+    fun migrationTest_MigrateFrom18to19_PurgesOrphans() {
+        val dbHelper = getHelperOfTestDatabaseAtVersion(18)
+        val book = buildRandomBook()
+        DatabaseManager(dbHelper).save(book)
+
+        val db = dbHelper.writableDatabase
+        db.setForeignKeyConstraintsEnabled(false)
+        db.execSQL("DROP TABLE sessions")
+        db.execSQL("CREATE TABLE sessions (id INTEGER PRIMARY KEY AUTOINCREMENT, start_position FLOAT, " +
+                "end_position FLOAT, duration_seconds BIGINT, timestamp BIGINT, " +
+                "book_id integer references books (_id) on delete cascade, " +
+                "updated_at INTEGER NOT NULL DEFAULT 0)")
+        db.execSQL("DROP TABLE quotes")
+        db.execSQL("CREATE TABLE quotes (id INTEGER PRIMARY KEY AUTOINCREMENT, content VARCHAR, " +
+                "add_timestamp BIGINT, position FLOAT, " +
+                "book_id integer references books (_id) on delete cascade, " +
+                "updated_at INTEGER NOT NULL DEFAULT 0)")
+        Assert.assertEquals("_id", queryBookForeignKeyTarget(db, "sessions"))
+        Assert.assertEquals("_id", queryBookForeignKeyTarget(db, "quotes"))
+
+        db.execSQL("INSERT INTO sessions (id, book_id, start_position, end_position, duration_seconds, timestamp) " +
+                "VALUES (1, ${book.id}, 0, 0.25, 30, 1000), (100, 999, 0, 0.5, 60, 2000)")
+        db.execSQL("INSERT INTO quotes (id, book_id, content) VALUES (1, ${book.id}, 'Kept'), (100, 999, 'Orphan')")
+        db.execSQL("INSERT INTO quotes_fts (docid, content) VALUES (1, 'Kept'), (100, 'Orphan')")
+        dbHelper.close()
+
+        val upgradedHelper = DatabaseHelper(ApplicationProvider.getApplicationContext(), TEST_DATABASE_NAME, null, 19)
+        val upgradedDb = upgradedHelper.writableDatabase
+        Assert.assertEquals("id", queryBookForeignKeyTarget(upgradedDb, "sessions"))
+        Assert.assertEquals("id", queryBookForeignKeyTarget(upgradedDb, "quotes"))
+
+        val upgradedManager = DatabaseManager(upgradedHelper)
+        Assert.assertEquals(listOf(1), upgradedManager.getAll(Session::class.java).map { it.id })
+        Assert.assertEquals(listOf(1), upgradedManager.getAll(Quote::class.java).map { it.id })
+        Assert.assertTrue(upgradedManager.search("orphan", 10).isEmpty())
+
+        // Deleting the book now cascades
+        upgradedManager.delete(book)
+        Assert.assertTrue(upgradedManager.getAll(Session::class.java).isEmpty())
+        Assert.assertTrue(upgradedManager.getAll(Quote::class.java).isEmpty())
+        upgradedHelper.close()
+    }
+
+    /**
+     * Assert that of two highlights created in the same second with the same content, the
+     * one that was never synced is removed, while other highlights are left alone.
+     */
+    @Test
+    fun migrationTest_MigrateFrom3to4_RemovesUnsyncedDuplicateHighlight() {
+        createLegacyDatabase { db ->
+            db.execSQL("INSERT INTO LocalHighlight (id, content, highlighted_at, rm_highlight_id) VALUES " +
+                    "(1, 'Dupe', '2013-01-01 10:00:00.100000', 10), " +
+                    "(2, 'Dupe', '2013-01-01 10:00:00.900000', -1), " +
+                    "(3, 'Same second', '2013-01-01 11:00:00.000000', -1), " +
+                    "(4, 'Other content', '2013-01-01 11:00:00.000000', -1), " +
+                    "(5, 'Alone', '2013-01-01 12:00:00.000000', -1)")
+            DatabaseHelper.removeDuplicateHighlights(db)
+            Assert.assertEquals(listOf(1L, 3L, 4L, 5L), queryIds(db, "SELECT id FROM LocalHighlight ORDER BY id"))
+        }
+    }
+
+    /**
+     * Assert that sessions and highlights without a Readmill reading id adopt the one of
+     * their connected reading.
+     */
+    @Test
+    fun migrationTest_MigrateFrom8to9_AdoptsReadmillReadingIdOfReading() {
+        createLegacyDatabase { db ->
+            db.execSQL("INSERT INTO LocalReading (id, rm_reading_id) VALUES (1, 100), (2, -1)")
+            db.execSQL("INSERT INTO LocalSession (id, readingId, readmillReadingId) VALUES (1, 1, -1), (2, 1, 99), (3, 2, -1)")
+            db.execSQL("INSERT INTO LocalHighlight (id, reading_id, rm_reading_id) VALUES (1, 1, -1), (2, 2, -1)")
+            DatabaseHelper.adoptReadmillReadingIds(db)
+            Assert.assertEquals(listOf(100L, 99L, -1L), queryIds(db, "SELECT readmillReadingId FROM LocalSession ORDER BY id"))
+            Assert.assertEquals(listOf(100L, -1L), queryIds(db, "SELECT rm_reading_id FROM LocalHighlight ORDER BY id"))
+        }
+    }
+
+    /** Returns the column of books that the book_id foreign key of the table references. */
+    private fun queryBookForeignKeyTarget(db: SQLiteDatabase, table: String): String? {
+        db.rawQuery("PRAGMA foreign_key_list($table)", null).use { cursor ->
+            while (cursor.moveToNext()) {
+                if (cursor.getString(cursor.getColumnIndexOrThrow("from")) == "book_id") {
+                    Assert.assertEquals("books", cursor.getString(cursor.getColumnIndexOrThrow("table")))
+                    return cursor.getString(cursor.getColumnIndexOrThrow("to"))
+                }
+            }
+        }
+        return null
     }
 }
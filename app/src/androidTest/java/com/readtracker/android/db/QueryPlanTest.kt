@@ -0,0 +1,117 @@
+package com.readtracker.android.db
+
+import com.j256.ormlite.stmt.QueryBuilder
+import org.junit.Assert.assertFalse
+import org.junit.Before
+import org.junit.Test
+import src.buildBook
+
+/**
+ * Asserts that the filtered queries of [DatabaseManager] and [ReadingStatistics] are backed by
+ * an index.
+ *
+ * Queries that intentionally read a whole table, such as the statistics that aggregate every
+ * session, name that table as the one table they may scan; every other table they read must be
+ * looked up through an index. Queries that only read whole tables, such as
+ * [DatabaseManager.getAll], and the full text search queries, which are planned by the FTS
+ * module, are not covered here.
+ */
+class QueryPlanTest : DatabaseTestBase() {
+
+    private lateinit var dbHelper: DatabaseHelper
+    private lateinit var databaseManager: DatabaseManager
+    private lateinit var book: Book
+
+    @Before
+    fun initializeDatabase() {
+        dbHelper = getHelperOfTestDatabaseAtVersion(DatabaseHelper.DATABASE_VERSION)
+        databaseManager = DatabaseManager(dbHelper)
+        book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        databaseManager.save(book)
+    }
+
+    @Test
+    fun queryPlanTest_SessionsForBook_UsesIndex() {
+        assertNoFullScan(databaseManager.sessionsForBookQuery(book))
+    }
+
+    @Test
+    fun queryPlanTest_QuotesForBook_UsesIndex() {
+        assertNoFullScan(databaseManager.quotesForBookQuery(book))
+    }
+
+    @Test
+    fun queryPlanTest_SessionsForBookPage_UsesIndex() {
+        val session = Session().apply { timestampMs = 1000L }
+        assertNoFullScan(databaseManager.sessionsForBookPageQuery(book, null, 10))
+        assertNoFullScan(databaseManager.sessionsForBookPageQuery(book, session, 10))
+    }
+
+    @Test
+    fun queryPlanTest_QuotesForBookPage_UsesIndex() {
+        val quote = Quote().apply { addTimestampMs = 1000L }
+        assertNoFullScan(databaseManager.quotesForBookPageQuery(book, null, 10))
+        assertNoFullScan(databaseManager.quotesForBookPageQuery(book, quote, 10))
+    }
+
+    @Test
+    fun queryPlanTest_TitlesWithBase_UsesIndex() {
+        assertNoFullScan(databaseManager.titlesWithBaseQuery("Metamorphosis"))
+    }
+
+    @Test
+    fun queryPlanTest_ChangedSince_UsesIndex() {
+        assertNoFullScan(databaseManager.changedSinceQuery(Book::class.java, 0, 1000))
+        assertNoFullScan(databaseManager.changedSinceQuery(Session::class.java, 0, 1000))
+        assertNoFullScan(databaseManager.changedSinceQuery(Quote::class.java, 0, 1000))
+    }
+
+    @Test
+    fun queryPlanTest_BookSummaries_UsesIndex() {
+        assertNoFullScan(DatabaseManager.bookSummariesQuery(listOf(1, 2, 3)))
+        // All books are listed, but their stats must be looked up by key
+        assertNoFullScan(BookSummary.QUERY, "books")
+    }
+
+    @Test
+    fun queryPlanTest_ChangeWatermarkAndDeletedRows_UsesIndex() {
+        assertNoFullScan(DatabaseManager.CHANGE_WATERMARK_QUERY)
+        assertNoFullScan(DatabaseManager.DELETED_ROWS_QUERY)
+    }
+
+    @Test
+    fun queryPlanTest_Statistics_OnlyScansAggregatedTable() {
+        for (period in ReadingStatistics.Period.values()) {
+            assertNoFullScan(ReadingStatistics.bucketsQuery(period), "sessions")
+        }
+        assertNoFullScan(ReadingStatistics.BOOK_TOTALS_QUERY, "book_stats")
+    }
+
+    private fun assertNoFullScan(queryBuilder: QueryBuilder<*, *>) {
+        assertNoFullScan(queryBuilder.prepareStatementString())
+    }
+
+    /**
+     * Runs EXPLAIN QUERY PLAN for the query and fails if any step scans a table without an index,
+     * other than the scannedTables the query is meant to read in full.
+     */
+    private fun assertNoFullScan(statement: String, vararg scannedTables: String) {
+        val placeholderCount = statement.count { it == '?' }
+        val args = Array(placeholderCount) { "" }
+
+        dbHelper.readableDatabase.rawQuery("EXPLAIN QUERY PLAN $statement", args).use { cursor ->
+            val detailColumn = cursor.getColumnIndexOrThrow("detail")
+            while (cursor.moveToNext()) {
+                val detail = cursor.getString(detailColumn)
+                // "SCAN TABLE sessions" before SQLite 3.36, "SCAN sessions" after
+                val scannedTable = SCAN_PATTERN.find(detail)?.groupValues?.get(1)
+                val isFullScan = scannedTable != null && !detail.contains("INDEX") && scannedTable !in scannedTables
+                assertFalse("Full table scan for: $statement ($detail)", isFullScan)
+            }
+        }
+    }
+
+    companion object {
+        private val SCAN_PATTERN = Regex("^SCAN (?:TABLE )?(\\w+)")
+    }
+}
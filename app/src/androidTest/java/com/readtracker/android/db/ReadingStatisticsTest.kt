@@ -0,0 +1,74 @@
+package com.readtracker.android.db
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import src.buildBook
+import src.buildSession
+import java.util.Calendar
+
+class ReadingStatisticsTest : DatabaseTestBase() {
+
+    /**
+     * Save sessions spread over a few days, including one late in the evening and one on a
+     * Sunday, and assert that they are bucketed by local day, Monday based week, month and year.
+     */
+    @Test
+    fun readingStatisticsTest_GetBuckets_GroupsSessionsByLocalPeriod() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        databaseManager.save(book)
+        databaseManager.saveAll(
+                buildSession(book, 0.0f, 0.1f, 600, localTime(2014, Calendar.MARCH, 17, 12)),
+                buildSession(book, 0.1f, 0.2f, 300, localTime(2014, Calendar.MARCH, 17, 23)),
+                buildSession(book, 0.2f, 0.3f, 60, localTime(2014, Calendar.MARCH, 23, 12)),
+                buildSession(book, 0.3f, 0.4f, 60, localTime(2014, Calendar.MARCH, 24, 0)),
+                buildSession(book, 0.4f, 0.5f, 60, localTime(2015, Calendar.JANUARY, 1, 12)))
+
+        val statistics = databaseManager.statistics
+
+        val days = statistics.getBuckets(ReadingStatistics.Period.DAY)
+        assertEquals(listOf("2015-01-01", "2014-03-24", "2014-03-23", "2014-03-17"), days.map { it.key })
+        assertEquals(900, days[3].secondsSpent)
+        assertEquals(2, days[3].sessionCount)
+        assertEquals(0.2f, days[3].positionRead, 0.001f)
+        assertEquals(40f, days[3].pagesRead, 0.01f)
+
+        val weeks = statistics.getBuckets(ReadingStatistics.Period.WEEK)
+        assertEquals(listOf("2014-12-29", "2014-03-24", "2014-03-17"), weeks.map { it.key })
+        assertEquals(listOf(1, 1, 3), weeks.map { it.sessionCount })
+
+        val months = statistics.getBuckets(ReadingStatistics.Period.MONTH)
+        assertEquals(listOf("2015-01", "2014-03"), months.map { it.key })
+
+        val years = statistics.getBuckets(ReadingStatistics.Period.YEAR)
+        assertEquals(listOf("2015", "2014"), years.map { it.key })
+        assertEquals(1020L, years[1].secondsSpent)
+    }
+
+    /** Assert that the totals per book only include books with sessions, most time spent first. */
+    @Test
+    fun readingStatisticsTest_GetBookTotals_OrdersByTimeSpent() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        val otherBook = buildBook("The Trial", "Franz Kafka", 100f)
+        val unreadBook = buildBook("The Castle", "Franz Kafka", 300f)
+        databaseManager.saveAll(book, otherBook, unreadBook)
+        databaseManager.saveAll(
+                buildSession(book, 0.0f, 0.1f, 60, 1000),
+                buildSession(otherBook, 0.0f, 0.1f, 120, 2000),
+                buildSession(otherBook, 0.1f, 0.2f, 120, 3000))
+
+        val totals = databaseManager.statistics.bookTotals
+        assertEquals(listOf(otherBook.id, book.id), totals.map { it.bookId })
+        assertEquals(2, totals[0].sessionCount)
+        assertEquals(240L, totals[0].secondsSpent)
+        assertEquals("The Trial", totals[0].title)
+    }
+
+    private fun localTime(year: Int, month: Int, day: Int, hour: Int): Long {
+        val calendar = Calendar.getInstance()
+        calendar.clear()
+        calendar.set(year, month, day, hour, 30)
+        return calendar.timeInMillis
+    }
+}
@@ -0,0 +1,109 @@
+package com.readtracker.android.db.export
+
+import com.readtracker.android.db.Book
+import com.readtracker.android.db.DatabaseManager
+import src.JSONFixtureAssertions
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import src.readFixtureFile
+import java.io.IOException
+import java.io.StringReader
+
+class ExportedFileParserTest {
+
+    /**
+     * Check that the parser handles a json correctly.
+     */
+    @Test
+    @Throws(Exception::class)
+    fun exportedFileParserTest_buildBookFromJson_returnListOfBooks() {
+        val books = parseTestFile("export_version_2.json")
+        JSONFixtureAssertions.assertBookListMatchesExpectedResultFromFixtureImport(books)
+    }
+
+    /**
+     * Check that the parser handles null in json correctly.
+     */
+    @Test
+    @Throws(Exception::class)
+    fun exportedFileParserTest_buildBookFromJsonWithNullCases_returnListOfBooks() {
+        val books = parseTestFile("export_version_2_null_fields.json")
+        assertEquals(1, books.size)
+
+        val book = books[0]
+        JSONFixtureAssertions.assertBookMatchesExpectedResultFromNullFieldsFixture(book)
+    }
+
+    /**
+     * Check that the parser handles missing fields json correctly.
+     */
+    @Test
+    @Throws(Exception::class)
+    fun exportedFileParserTest_buildBookFromJsonWithMissingValues_returnListOfBooks() {
+        val books = parseTestFile("export_version_2_missing_fields.json")
+        assertEquals(1, books.size)
+
+        val book = books[0]
+        JSONFixtureAssertions.assertBookMatchesExpectedResultFromNullFieldsFixture(book)
+    }
+
+    /**
+     * Check that books are handed to the visitor in file order, and that unknown fields are skipped.
+     */
+    @Test
+    @Throws(Exception::class)
+    fun exportedFileParserTest_parseReader_visitsBooksInOrder() {
+        val content = "{ \"books\": [" +
+                "{ \"title\": \"First\", \"unknown\": { \"nested\": [1, 2] }, \"sessions\": [{ \"duration_seconds\": 60 }] }, " +
+                "{ \"title\": \"Second\", \"quotes\": null }" +
+                "], \"format_version\": 2 }"
+        val books = ArrayList<Book>()
+        ExportedFileParser().parse(StringReader(content), DatabaseManager.Visitor<Book> { books.add(it) })
+
+        assertEquals(listOf("First", "Second"), books.map { it.title })
+        assertEquals(60L, books[0].sessions[0].durationSeconds)
+        assertEquals(0, books[1].quotes.size)
+    }
+
+    /**
+     * Check that content without a list of books is rejected.
+     */
+    @Test(expected = IOException::class)
+    fun exportedFileParserTest_parseWithoutBooks_throws() {
+        ExportedFileParser().parse("{ \"title\": \"Metamorphosis\" }")
+    }
+
+    /**
+     * Check that the book objects of a version 1 export are read one after the other, with or
+     * without whitespace between them.
+     */
+    @Test
+    @Throws(Exception::class)
+    fun exportedFileParserTest_parseConcatenated_visitsEachBook() {
+        val content = "{ \"title\": \"First\" }{ \"title\": \"Second\" }\n{ \"title\": \"Third\" }\n"
+        val books = ArrayList<Book>()
+        ExportedFileParser().parseConcatenated(StringReader(content), DatabaseManager.Visitor<Book> { books.add(it) })
+
+        assertEquals(listOf("First", "Second", "Third"), books.map { it.title })
+    }
+
+    /** Check that an object without the fields of a book is not read as an untitled book. */
+    @Test(expected = IOException::class)
+    fun exportedFileParserTest_parseConcatenatedWithoutBookFields_throws() {
+        ExportedFileParser().parseConcatenated(StringReader("{ \"foo\": 1 }"), DatabaseManager.Visitor<Book> { })
+    }
+
+    /**
+     * Helper method for opening up a json file from a given path and pass it along to the parser.
+     *
+     * @param filename path to JSON
+     * @return [List] of [Book] items from parsing the contents of the JSON
+     * @throws IOException if something goes wrong during parsing
+    */
+    @Throws(IOException::class)
+    private fun parseTestFile(filename: String): List<Book> {
+        val fileContent = readFixtureFile(filename)
+        val parser = ExportedFileParser()
+        return parser.parse(fileContent)
+    }
+}
\ No newline at end of file
@@ -0,0 +1,101 @@
+package com.readtracker.android.tasks
+
+import com.readtracker.android.db.Book
+import com.readtracker.android.db.DatabaseManager
+import com.readtracker.android.db.DatabaseTestBase
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import src.buildBook
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class DatabaseSchedulerTest : DatabaseTestBase() {
+
+    /**
+     * Block the writer with one job, queue up writes of different priorities behind it,
+     * and assert that they run one at a time, highest priority first.
+     */
+    @Test
+    fun databaseSchedulerTest_Write_RunsSeriallyInPriorityOrder() {
+        val scheduler = DatabaseScheduler(getManagerOfCleanTestDatabase())
+        val owner = Any()
+        val blocker = CountDownLatch(1)
+        val done = CountDownLatch(4)
+        val order = Collections.synchronizedList(ArrayList<String>())
+
+        fun job(name: String) = object : DatabaseScheduler.Job<Book>() {
+            override fun run(databaseManager: DatabaseManager): Book {
+                if(name == "blocker") blocker.await(5, TimeUnit.SECONDS)
+                order.add(name)
+                val book = buildBook(name, "Author", 100f)
+                databaseManager.save(book)
+                return book
+            }
+
+            override fun onComplete(result: Book) {
+                done.countDown()
+            }
+        }
+
+        scheduler.write(owner, job("blocker"))
+        scheduler.write(owner, DatabaseScheduler.Priority.LOW, job("low"))
+        scheduler.write(owner, DatabaseScheduler.Priority.NORMAL, job("normal"))
+        scheduler.write(owner, DatabaseScheduler.Priority.HIGH, job("high"))
+        blocker.countDown()
+
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf("blocker", "high", "normal", "low"), order)
+    }
+
+    /**
+     * Cancel the owner of a running read and a queued write, and assert that the write
+     * still runs but that the callbacks of neither are delivered.
+     */
+    @Test
+    fun databaseSchedulerTest_CancelAll_DropsCallbacksButKeepsWrites() {
+        val databaseManager = getManagerOfCleanTestDatabase()
+        val scheduler = DatabaseScheduler(databaseManager)
+        val owner = Any()
+        val blocker = CountDownLatch(1)
+        val writeRan = CountDownLatch(1)
+        val readRan = CountDownLatch(1)
+        var delivered = false
+        var readDelivered = false
+
+        scheduler.read(owner, object : DatabaseScheduler.Job<Unit>() {
+            override fun run(databaseManager: DatabaseManager) {
+                blocker.await(5, TimeUnit.SECONDS)
+                readRan.countDown()
+            }
+
+            override fun onComplete(result: Unit) {
+                readDelivered = true
+            }
+        })
+        scheduler.write(owner, object : DatabaseScheduler.Job<Unit>() {
+            override fun run(databaseManager: DatabaseManager) {
+                blocker.await(5, TimeUnit.SECONDS)
+                databaseManager.save(buildBook("Metamorphosis", "Franz Kafka", 200f))
+                writeRan.countDown()
+            }
+
+            override fun onComplete(result: Unit) {
+                delivered = true
+            }
+        })
+
+        scheduler.cancelAll(owner)
+        blocker.countDown()
+
+        assertTrue(writeRan.await(5, TimeUnit.SECONDS))
+        assertTrue(readRan.await(5, TimeUnit.SECONDS))
+        // Give the main thread a chance to deliver the (suppressed) callbacks
+        Thread.sleep(100)
+        assertFalse(delivered)
+        assertFalse(readDelivered)
+        assertEquals(1, databaseManager.getAll(Book::class.java).size)
+    }
+}
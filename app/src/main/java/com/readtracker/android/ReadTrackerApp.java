@@ -9,6 +9,7 @@ import android.util.Log;
 import com.readtracker.android.db.DatabaseHelper;
 import com.readtracker.android.db.DatabaseManager;
 import com.readtracker.android.support.ApplicationSettingsHelper;
+import com.readtracker.android.tasks.DatabaseScheduler;
 import com.squareup.otto.Bus;
 
 import androidx.appcompat.app.AppCompatDelegate;
@@ -18,6 +19,9 @@ public class ReadTrackerApp extends Application {
 
   public static final String PREFERENCES_FILE_NAME = "ReadTrackerPrefFile";
 
+  // Number of models kept in the DatabaseManager identity map
+  private static final int ENTITY_CACHE_SIZE = 256;
+
   // Keys for saving information in Settings
   public static final String KEY_FIRST_TIME = "first-time";
 
@@ -42,6 +46,7 @@ public class ReadTrackerApp extends Application {
   // Convenient access to app settings
   private ApplicationSettingsHelper mAppSettingsHelper;
   private DatabaseManager mDatabaseManager;
+  private DatabaseScheduler mDatabaseScheduler;
 
   public ReadTrackerApp() {
 
@@ -76,7 +81,18 @@ public class ReadTrackerApp extends Application {
     // Setup persistence
     mDatabaseHelper = new DatabaseHelper(this);
 
-    mDatabaseManager = new DatabaseManager(mDatabaseHelper);
+    mDatabaseManager = new DatabaseManager(mDatabaseHelper, ENTITY_CACHE_SIZE);
+    mDatabaseManager.setBus(getBus());
+    mDatabaseScheduler = new DatabaseScheduler(mDatabaseManager);
+
+    // Open the database and create the DAOs off the main thread, before the first screen needs them
+    final DatabaseHelper databaseHelper = mDatabaseHelper;
+    mDatabaseScheduler.read(this, DatabaseScheduler.Priority.HIGH, new DatabaseScheduler.Job<Void>() {
+      @Override protected Void run(DatabaseManager databaseManager) {
+        databaseHelper.warmUp();
+        return null;
+      }
+    });
 
     // Assign singleton
     mInstance = this;
@@ -89,6 +105,11 @@ public class ReadTrackerApp extends Application {
     return mDatabaseManager;
   }
 
+  /** Get access to the shared scheduler for background database work. */
+  public DatabaseScheduler getDatabaseScheduler() {
+    return mDatabaseScheduler;
+  }
+
   /**
    * Gets the flag that indicates whether or not this is the first time the user
    * is starting readtracker or not.
@@ -12,6 +12,7 @@ import com.readtracker.BuildConfig;
 import com.readtracker.android.ReadTrackerApp;
 import com.readtracker.android.db.DatabaseManager;
 import com.readtracker.android.support.ApplicationSettingsHelper;
+import com.readtracker.android.tasks.DatabaseScheduler;
 import com.squareup.otto.Bus;
 
 /**
@@ -21,6 +22,7 @@ public abstract class BaseActivity extends AppCompatActivity {
   private ReadTrackerApp mApplication;
   private Bus mBus;
   private DatabaseManager mDatabaseManager;
+  private DatabaseScheduler mDatabaseScheduler;
 
   @Override
   public void onCreate(Bundle savedInstanceState) {
@@ -31,6 +33,14 @@ public abstract class BaseActivity extends AppCompatActivity {
     setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
     mBus = getApp().getBus();
     mDatabaseManager = getApp().getDatabaseManager();
+    mDatabaseScheduler = getApp().getDatabaseScheduler();
+  }
+
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    // Drop pending reads and callbacks that would otherwise leak the activity
+    mDatabaseScheduler.cancelAll(this);
   }
 
   ReadTrackerApp getApp() {
@@ -123,6 +133,13 @@ public abstract class BaseActivity extends AppCompatActivity {
     return mDatabaseManager;
   }
 
+  /**
+   * Returns the application global scheduler for background database work.
+   */
+  public DatabaseScheduler getDatabaseScheduler() {
+    return mDatabaseScheduler;
+  }
+
   /**
    * Convenient method for posting to the global bus from an activity.
    */
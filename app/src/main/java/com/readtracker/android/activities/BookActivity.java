@@ -1,7 +1,6 @@
 package com.readtracker.android.activities;
 
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
@@ -17,6 +16,7 @@ import com.readtracker.android.db.Session;
 import com.readtracker.android.fragments.BookFragmentAdapter;
 import com.readtracker.android.fragments.ReadFragment;
 import com.readtracker.android.support.ColorUtils;
+import com.readtracker.android.tasks.DatabaseScheduler;
 import com.readtracker.databinding.BookActivityBinding;
 import com.squareup.otto.Produce;
 import com.squareup.otto.Subscribe;
@@ -48,6 +48,8 @@ public class BookActivity extends BookBaseActivity implements EndSessionDialog.E
   private static final String STATE_DURATION = "DURATION";
   private static final String STATE_VIEW_PAGER_PAGE = "VIEW_PAGER_PAGE";
   public static final String KEY_FINISHED = "FINISHED";
+  // Name of the Page to show when opening the book
+  public static final String KEY_INITIAL_PAGE = "INITIAL_PAGE";
 
   private Session mCurrentSession;
 
@@ -77,6 +79,8 @@ public class BookActivity extends BookBaseActivity implements EndSessionDialog.E
 
       mCurrentSession.setEndPosition(in.getFloat(STATE_END_POSITION));
       mCurrentSession.setDurationSeconds(in.getLong(STATE_DURATION));
+    } else if(getIntent().hasExtra(KEY_INITIAL_PAGE)) {
+      mInitialFragmentPage = Page.valueOf(getIntent().getStringExtra(KEY_INITIAL_PAGE));
     }
 
     // Load information from database
@@ -232,7 +236,7 @@ public class BookActivity extends BookBaseActivity implements EndSessionDialog.E
         Intent data = new Intent();
         data.putExtra(BookActivity.KEY_FINISHED, book.isInState(Book.State.Finished));
 
-        new SaveAndExitTask(BookActivity.this, data).execute(mCurrentSession, book);
+        getDatabaseScheduler().write(BookActivity.this, new SaveAndExitTask(BookActivity.this, data, mCurrentSession, book));
       }
     });
   }
@@ -259,26 +263,21 @@ public class BookActivity extends BookBaseActivity implements EndSessionDialog.E
    * Task that saves an arbitrary number of models in the background and closes down the activity
    * with a successful result when done.
    */
-  private static class SaveAndExitTask extends AsyncTask<Model, Void, Boolean> {
+  private static class SaveAndExitTask extends DatabaseScheduler.Job<Boolean> {
     private final WeakReference<BookActivity> mActivityRef;
     private final Intent mResultData;
+    private final Model[] mModelsToSave;
 
-    SaveAndExitTask(BookActivity activity, Intent resultData) {
+    SaveAndExitTask(BookActivity activity, Intent resultData, Model... modelsToSave) {
       mResultData = resultData;
       mActivityRef = new WeakReference<>(activity);
+      mModelsToSave = modelsToSave;
     }
 
-    @Override protected Boolean doInBackground(Model... modelsToSave) {
-      BookActivity activity = mActivityRef.get();
-      if(activity == null) {
-        return Boolean.FALSE;
-      }
-
-      DatabaseManager db = activity.getDatabaseManager();
-      for(Model model : modelsToSave) {
+    @Override protected Boolean run(DatabaseManager db) {
+      for(Model model : mModelsToSave) {
         Log.v(TAG, "Saving: " + model);
         if(!db.save(model)) {
-          activity.toast(R.string.book_error_updating);
           return Boolean.FALSE;
         }
       }
@@ -286,9 +285,11 @@ public class BookActivity extends BookBaseActivity implements EndSessionDialog.E
       return Boolean.TRUE;
     }
 
-    @Override protected void onPostExecute(Boolean result) {
+    @Override protected void onComplete(Boolean result) {
       BookActivity activity = mActivityRef.get();
-      if(activity != null && result.equals(Boolean.TRUE)) {
+      if(activity != null && !result.equals(Boolean.TRUE)) {
+        activity.toast(R.string.book_error_updating);
+      } else if(activity != null) {
         if(mResultData != null) {
           activity.setResult(RESULT_OK, mResultData);
         } else {
@@ -1,6 +1,5 @@
 package com.readtracker.android.activities;
 
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.util.TypedValue;
@@ -8,6 +7,7 @@ import android.util.TypedValue;
 import com.readtracker.BuildConfig;
 import com.readtracker.android.db.Book;
 import com.readtracker.android.db.DatabaseManager;
+import com.readtracker.android.tasks.DatabaseScheduler;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
@@ -37,7 +37,7 @@ public abstract class BookBaseActivity extends BaseActivity {
     }
 
     mLoadDataTask = new LoadDataTask(this, bookId);
-    mLoadDataTask.execute();
+    getDatabaseScheduler().read(this, DatabaseScheduler.Priority.HIGH, mLoadDataTask);
   }
 
   /**
@@ -145,38 +145,38 @@ public abstract class BookBaseActivity extends BaseActivity {
   }
 
   /** Load book data from the database. */
-  private static class LoadDataTask extends AsyncTask<Void, Void, Book> {
+  private static class LoadDataTask extends DatabaseScheduler.Job<Book> {
     private final WeakReference<BookBaseActivity> mActivityRef;
     private final int mBookId;
 
-    private final DatabaseManager mDatabaseManager;
     private final boolean mLoadRelated;
 
     LoadDataTask(BookBaseActivity activity, int bookId) {
       mActivityRef = new WeakReference<>(activity);
       mBookId = bookId;
-      mDatabaseManager = activity.getApp().getDatabaseManager();
       mLoadRelated = activity.shouldLoadRelatedBookData();
     }
 
     @Override
-    protected Book doInBackground(Void... params) {
+    protected Book run(DatabaseManager databaseManager) {
       // Fire off events for each part as they become available to increase feedback to the user
       // TODO Error handling
 
-      Book book = mDatabaseManager.get(Book.class, mBookId);
+      Book book = databaseManager.get(Book.class, mBookId);
       if(book == null) {
         Log.w("LoadDataTask", "Failed to load book");
         return null;
       } else if(mLoadRelated) {
-        book.loadSessions(mDatabaseManager);
-        book.loadQuotes(mDatabaseManager);
+        book.loadStats(databaseManager);
+        // Only the first pages, the lists load more as they are scrolled
+        book.loadRecentSessions(databaseManager, DatabaseManager.PAGE_SIZE);
+        book.loadRecentQuotes(databaseManager, DatabaseManager.PAGE_SIZE);
       }
 
       return book;
     }
 
-    @Override protected void onPostExecute(Book book) {
+    @Override protected void onComplete(Book book) {
       BookBaseActivity activity = mActivityRef.get();
       if(book != null && activity != null && !activity.isFinishing()) {
         activity.onLoadTaskCompleted(book);
@@ -7,7 +7,6 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.text.Editable;
 import android.text.TextUtils;
@@ -37,6 +36,7 @@ import com.readtracker.android.support.ColorUtils;
 import com.readtracker.android.support.GoogleBook;
 import com.readtracker.android.support.GoogleBookSearch;
 import com.readtracker.android.support.Utils;
+import com.readtracker.android.tasks.DatabaseScheduler;
 import com.readtracker.android.tasks.GoogleBookSearchTask;
 import com.readtracker.databinding.ActivityAddBookBinding;
 import com.squareup.picasso.Picasso;
@@ -45,6 +45,8 @@ import com.squareup.picasso.Target;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -187,7 +189,7 @@ public class BookSettingsActivity extends BookBaseActivity implements GoogleBook
 
     builder.setPositiveButton(R.string.add_book_delete, new DialogInterface.OnClickListener() {
       @Override public void onClick(DialogInterface dialogInterface, int i) {
-        new DeleteBookTask(BookSettingsActivity.this, getBook()).execute();
+        getDatabaseScheduler().write(BookSettingsActivity.this, new DeleteBookTask(BookSettingsActivity.this, getBook()));
       }
     });
 
@@ -472,7 +474,7 @@ public class BookSettingsActivity extends BookBaseActivity implements GoogleBook
       book.setColor(mCurrentBookColor);
     }
 
-    new UpdateBookTask(this, book, didChangeTitle).execute();
+    getDatabaseScheduler().write(this, new UpdateBookTask(this, book, didChangeTitle));
   }
 
   /**
@@ -545,33 +547,24 @@ public class BookSettingsActivity extends BookBaseActivity implements GoogleBook
     }
   }
 
-  abstract static class BackgroundBookTask extends AsyncTask<Void, Void, Boolean> {
+  abstract static class BackgroundBookTask extends DatabaseScheduler.Job<Boolean> {
     // choose to prefix because the titles are truncated in the list, which would
     // make dupes of long titles invisible to the user
     static final Pattern DUPE_COUNT_PATTERN = Pattern.compile("^[(](\\d+)[)](.*)");
 
     final WeakReference<BookSettingsActivity> mActivity;
-    final DatabaseManager mDatabaseMgr;
     final Book mBook;
     final String mUnknownTitleString;
 
     BackgroundBookTask(BookSettingsActivity activity, Book book) {
       mBook = book;
       mActivity = new WeakReference<>(activity);
-      mDatabaseMgr = activity.getApp().getDatabaseManager();
       mUnknownTitleString = activity.getString(R.string.general_unknown_title);
     }
 
-    abstract protected boolean run();
-
     abstract protected void onComplete(BookSettingsActivity activity, boolean success);
 
-    @Override
-    protected Boolean doInBackground(Void... voids) {
-      return run();
-    }
-
-    @Override protected void onPostExecute(Boolean success) {
+    @Override protected void onComplete(Boolean success) {
       BookSettingsActivity activity = mActivity.get();
       if(activity != null) {
         onComplete(activity, success);
@@ -587,29 +580,39 @@ public class BookSettingsActivity extends BookBaseActivity implements GoogleBook
       mShouldMakeTitleUnique = shouldMakeTitleUnique;
     }
 
-    @Override protected boolean run() {
-      if(mShouldMakeTitleUnique) {
-        mBook.setTitle(getUniqueTitle(mBook.getTitle()));
+    @Override protected Boolean run(final DatabaseManager databaseMgr) {
+      if(!mShouldMakeTitleUnique) {
+        return databaseMgr.save(mBook);
       }
-      return mDatabaseMgr.save(mBook);
+
+      // Pick the title and save in one transaction, so no other book can take the title in between
+      return databaseMgr.callInTransaction(new Callable<Boolean>() {
+        @Override public Boolean call() {
+          mBook.setTitle(getUniqueTitle(databaseMgr, mBook.getTitle()));
+          return databaseMgr.save(mBook);
+        }
+      });
     }
 
     @Override protected void onComplete(BookSettingsActivity activity, boolean success) {
       activity.onBookUpdated(mBook.getId(), success);
     }
 
-    private String getUniqueTitle(String title) {
+    private String getUniqueTitle(DatabaseManager databaseMgr, String title) {
       if(TextUtils.isEmpty(title)) {
         title = mUnknownTitleString;
       }
 
-      boolean unique = mDatabaseMgr.isUniqueTitle(title);
+      final String cleanTitle = getTitleWithoutDupeCount(title).trim();
+      final Set<String> takenTitles = databaseMgr.getTitlesWithBase(cleanTitle);
+      if(!takenTitles.contains(title)) {
+        return title;
+      }
+
       int dupeNumber = 1;
-      while(!unique) { // found dupe title
-        String cleanTitle = getTitleWithoutDupeCount(title).trim();
+      do { // found dupe title
         title = String.format("(%d) %s", dupeNumber++, cleanTitle);
-        unique = mDatabaseMgr.isUniqueTitle(title);
-      }
+      } while(takenTitles.contains(title));
 
       return title;
     }
@@ -629,8 +632,8 @@ public class BookSettingsActivity extends BookBaseActivity implements GoogleBook
       super(activity, book);
     }
 
-    @Override protected boolean run() {
-      return mDatabaseMgr.delete(mBook);
+    @Override protected Boolean run(DatabaseManager databaseMgr) {
+      return databaseMgr.delete(mBook);
     }
 
     @Override protected void onComplete(BookSettingsActivity activity, boolean success) {
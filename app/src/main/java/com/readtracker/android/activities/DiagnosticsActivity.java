@@ -0,0 +1,137 @@
+package com.readtracker.android.activities;
+
+import android.os.Bundle;
+import android.text.format.Formatter;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+
+import com.readtracker.android.db.DatabaseDiagnostics;
+import com.readtracker.android.db.DatabaseManager;
+import com.readtracker.android.db.QueryTimings;
+import com.readtracker.android.tasks.DatabaseScheduler;
+import com.readtracker.databinding.ActivityDiagnosticsBinding;
+
+import java.lang.ref.WeakReference;
+import java.util.Locale;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Hidden developer screen, reached by tapping the version in the settings, that shows the
+ * database size, cache hit rates and latency histograms of the database operations.
+ */
+public class DiagnosticsActivity extends BaseActivity {
+  // Width in characters of the largest bar of a histogram
+  private static final int BAR_WIDTH = 24;
+
+  private TextView mTextDiagnostics;
+
+  @Override
+  public void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    @NonNull ActivityDiagnosticsBinding binding = ActivityDiagnosticsBinding.inflate(getLayoutInflater());
+    setContentView(binding.getRoot());
+
+    mTextDiagnostics = binding.textDiagnostics;
+    final Button refreshButton = binding.buttonRefresh;
+    final Button resetButton = binding.buttonResetTimings;
+
+    refreshButton.setOnClickListener(new View.OnClickListener() {
+      @Override public void onClick(View view) {
+        loadDiagnostics();
+      }
+    });
+
+    resetButton.setOnClickListener(new View.OnClickListener() {
+      @Override public void onClick(View view) {
+        getDatabaseManager().getQueryTimings().reset();
+        loadDiagnostics();
+      }
+    });
+
+    loadDiagnostics();
+  }
+
+  private void loadDiagnostics() {
+    getDatabaseScheduler().read(this, new LoadDiagnosticsTask(this));
+  }
+
+  private void onDiagnosticsLoaded(DatabaseDiagnostics diagnostics) {
+    StringBuilder report = new StringBuilder();
+
+    report.append("Database\n");
+    report.append(String.format(Locale.US, "  file  %s\n", Formatter.formatShortFileSize(this, diagnostics.getDatabaseFileSize())));
+    report.append(String.format(Locale.US, "  wal   %s\n", Formatter.formatShortFileSize(this, diagnostics.getWalFileSize())));
+    for(Map.Entry<String, Long> rowCount : diagnostics.getRowCounts().entrySet()) {
+      report.append(String.format(Locale.US, "  %-14s %d rows\n", rowCount.getKey(), rowCount.getValue()));
+    }
+
+    report.append("\nEntity cache\n");
+    report.append(String.format(Locale.US, "  %d hits, %d misses (%.0f%%)\n", diagnostics.getEntityCacheHitCount(),
+        diagnostics.getEntityCacheMissCount(), diagnostics.getEntityCacheHitRate() * 100));
+
+    for(QueryTimings.Histogram histogram : diagnostics.getHistograms()) {
+      report.append('\n').append(histogram.getName()).append('\n');
+      report.append(String.format(Locale.US, "  n=%d  mean=%s  p50=%s  p95=%s  p99=%s  max=%s\n", histogram.getCount(),
+          formatMicros(histogram.getMeanMicros()), formatMicros(histogram.getPercentileMicros(50)),
+          formatMicros(histogram.getPercentileMicros(95)), formatMicros(histogram.getPercentileMicros(99)),
+          formatMicros(histogram.getMaxMicros())));
+      appendBars(report, histogram);
+    }
+
+    mTextDiagnostics.setText(report);
+  }
+
+  private static void appendBars(StringBuilder report, QueryTimings.Histogram histogram) {
+    int largestBucket = 0;
+    for(int bucket = 0; bucket < histogram.getBucketCount(); bucket++) {
+      largestBucket = Math.max(largestBucket, histogram.getCountInBucket(bucket));
+    }
+
+    for(int bucket = 0; bucket < histogram.getBucketCount(); bucket++) {
+      final int count = histogram.getCountInBucket(bucket);
+      if(count == 0) {
+        continue;
+      }
+      final boolean isOverflow = bucket == histogram.getBucketCount() - 1;
+      report.append(String.format(Locale.US, "  %s%7s ", isOverflow ? ">" : "≤", formatMicros(histogram.getBucketBoundMicros(isOverflow ? bucket - 1 : bucket))));
+      final int width = Math.max(1, BAR_WIDTH * count / largestBucket);
+      for(int i = 0; i < width; i++) {
+        report.append('█');
+      }
+      report.append(' ').append(count).append('\n');
+    }
+  }
+
+  private static String formatMicros(long micros) {
+    if(micros < 1000) {
+      return micros + "µs";
+    } else if(micros < 1000000) {
+      return String.format(Locale.US, "%.1fms", micros / 1000f);
+    }
+    return String.format(Locale.US, "%.2fs", micros / 1000000f);
+  }
+
+  private static class LoadDiagnosticsTask extends DatabaseScheduler.Job<DatabaseDiagnostics> {
+    private final WeakReference<DiagnosticsActivity> mActivity;
+
+    LoadDiagnosticsTask(DiagnosticsActivity activity) {
+      mActivity = new WeakReference<>(activity);
+    }
+
+    @Override
+    protected DatabaseDiagnostics run(DatabaseManager databaseManager) {
+      return databaseManager.getDiagnostics();
+    }
+
+    @Override
+    protected void onComplete(DatabaseDiagnostics diagnostics) {
+      DiagnosticsActivity activity = mActivity.get();
+      if(activity != null && !activity.isFinishing()) {
+        activity.onDiagnosticsLoaded(diagnostics);
+      }
+    }
+  }
+}
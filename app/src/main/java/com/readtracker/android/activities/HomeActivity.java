@@ -2,7 +2,6 @@ package com.readtracker.android.activities;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.text.Html;
 import android.text.method.LinkMovementMethod;
@@ -17,14 +16,15 @@ import android.widget.Button;
 import android.widget.TextView;
 
 import com.readtracker.R;
-import com.readtracker.android.ReadTrackerApp;
-import com.readtracker.android.db.Book;
+import com.readtracker.android.db.BookSummary;
+import com.readtracker.android.db.ChangeSet;
 import com.readtracker.android.db.DatabaseManager;
 import com.readtracker.android.db.export.JSONImporter;
 import com.readtracker.android.fragments.BookListFragment;
 import com.readtracker.android.fragments.HomeFragmentAdapter;
 import com.readtracker.android.support.ApplicationSettingsHelper;
 import com.readtracker.android.support.ReadTrackerDataImportHandler;
+import com.readtracker.android.tasks.DatabaseScheduler;
 import com.readtracker.android.tasks.ImportReadTrackerFileTask;
 import com.readtracker.databinding.ActivityHomeBinding;
 import com.squareup.otto.Subscribe;
@@ -32,7 +32,11 @@ import com.squareup.otto.Subscribe;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.ActionBar;
@@ -43,12 +47,32 @@ public class HomeActivity extends BaseActivity implements ImportReadTrackerFileT
 
   private static final int REQUEST_READING_SESSION = 1;
 
+  // Load the whole catalogue rather than patching it when more books than this have changed
+  private static final int MAX_PATCHED_BOOKS = 100;
+
   // List of books loaded from the database
-  private List<Book> mBooks = new ArrayList<>();
+  private List<BookSummary> mBooks = new ArrayList<>();
 
   private ViewPager mViewPager;
 
   private LoadCatalogueTask mLoadCatalogueTask;
+  private LoadCatalogueChangesTask mLoadCatalogueChangesTask;
+
+  // Change watermark of the loaded catalogue, or -1 before it has been loaded
+  private long mCatalogueWatermark = -1;
+
+  // Whether the database may have changed since the catalogue was loaded
+  private boolean mHasPendingChanges = false;
+
+  // Registered for the lifetime of the activity, unlike the activity itself, which is only
+  // registered while resumed, so that changes made from other screens are not missed
+  private final Object mChangeSubscriber = new Object() {
+    @Subscribe public void onBookChangeEvent(DatabaseManager.BookChangeEvent event) {
+      Log.v(TAG, "Received " + event);
+      mHasPendingChanges = true;
+      loadCatalogueChanges();
+    }
+  };
 
   @Override
   public void onCreate(Bundle savedInstanceState) {
@@ -68,6 +92,7 @@ public class HomeActivity extends BaseActivity implements ImportReadTrackerFileT
     }
 
     resetFragmentAdapter();
+    getBus().register(mChangeSubscriber);
     loadBooks();
     binding.pagerTabStrip.setDrawFullUnderline(false);
     mViewPager.setCurrentItem(HomeFragmentAdapter.DEFAULT_POSITION);
@@ -75,12 +100,16 @@ public class HomeActivity extends BaseActivity implements ImportReadTrackerFileT
 
   @Override protected void onStart() {
     super.onStart();
-    loadBooks();
+    // Change events cover writes made through the DatabaseManager, checking the watermark is
+    // cheap enough to also catch anything else when coming back to the screen
+    mHasPendingChanges = true;
+    loadCatalogueChanges();
   }
 
   @Override protected void onDestroy() {
     super.onDestroy();
     Log.d(TAG, "Destroying");
+    getBus().unregister(mChangeSubscriber);
   }
 
   @Subscribe
@@ -103,6 +132,10 @@ public class HomeActivity extends BaseActivity implements ImportReadTrackerFileT
       exitToSettings();
     } else if(clickedId == R.id.add_book_menu) {
       exitToBookSearch();
+    } else if(clickedId == R.id.search_menu) {
+      exitToLibrarySearch();
+    } else if(clickedId == R.id.statistics_menu) {
+      exitToStatistics();
     } else {
       return false;
     }
@@ -166,8 +199,8 @@ public class HomeActivity extends BaseActivity implements ImportReadTrackerFileT
     ReadTrackerDataImportHandler.closeProgressDialog(this, result);
   }
 
-  @Override public void onImportUpdate(int currentBook, int totalBooks) {
-    ReadTrackerDataImportHandler.showProgressUpdate(currentBook, totalBooks);
+  @Override public void onImportUpdate(int progress, int max, float booksPerSecond) {
+    ReadTrackerDataImportHandler.showProgressUpdate(progress, max, booksPerSecond);
   }
 
   @Override public Activity getResultActivity() {
@@ -176,7 +209,7 @@ public class HomeActivity extends BaseActivity implements ImportReadTrackerFileT
 
 
   /** Returns a list of all books currently loaded. */
-  public List<Book> getBooks() {
+  public List<BookSummary> getBooks() {
     return mBooks;
   }
 
@@ -213,6 +246,14 @@ public class HomeActivity extends BaseActivity implements ImportReadTrackerFileT
     startActivityForResult(new Intent(this, BookSearchActivity.class), ActivityCodes.REQUEST_ADD_BOOK);
   }
 
+  private void exitToLibrarySearch() {
+    startActivity(new Intent(this, LibrarySearchActivity.class));
+  }
+
+  private void exitToStatistics() {
+    startActivity(new Intent(this, StatisticsActivity.class));
+  }
+
   private void exitToSettings() {
     Intent intentSettings = new Intent(this, SettingsActivity.class);
     startActivityForResult(intentSettings, ActivityCodes.SETTINGS);
@@ -237,11 +278,13 @@ public class HomeActivity extends BaseActivity implements ImportReadTrackerFileT
     setProgressBarIndeterminateVisibility(Boolean.TRUE);
 
     mLoadCatalogueTask = new LoadCatalogueTask(this);
-    mLoadCatalogueTask.execute();
+    getDatabaseScheduler().read(this, DatabaseScheduler.Priority.HIGH, mLoadCatalogueTask);
   }
 
-  private void onCatalogueLoaded(List<Book> books) {
+  private void onCatalogueLoaded(long watermark, List<BookSummary> books) {
     mLoadCatalogueTask = null;
+    mLoadCatalogueChangesTask = null;
+    mCatalogueWatermark = watermark;
     mBooks = books;
     postEvent(new CatalogueLoadedEvent(books));
 
@@ -250,36 +293,158 @@ public class HomeActivity extends BaseActivity implements ImportReadTrackerFileT
       actionBar.setSubtitle(null);
     }
     setProgressBarIndeterminateVisibility(Boolean.FALSE);
+
+    // Pick up changes that were made while the catalogue was loading
+    loadCatalogueChanges();
+  }
+
+  private void onCatalogueLoadFailed() {
+    mLoadCatalogueTask = null;
+
+    final ActionBar actionBar = getSupportActionBar();
+    if (actionBar != null) {
+      actionBar.setSubtitle(null);
+    }
+    setProgressBarIndeterminateVisibility(Boolean.FALSE);
+  }
+
+  /**
+   * Reloads the summaries of the books that have changed since the catalogue watermark. Waits for
+   * any running load to finish first, so that an older snapshot of the catalogue never replaces a
+   * newer one.
+   */
+  private void loadCatalogueChanges() {
+    if(!mHasPendingChanges || mCatalogueWatermark < 0 || mLoadCatalogueTask != null || mLoadCatalogueChangesTask != null) {
+      return;
+    }
+
+    mHasPendingChanges = false;
+    mLoadCatalogueChangesTask = new LoadCatalogueChangesTask(this, mCatalogueWatermark);
+    getDatabaseScheduler().read(this, DatabaseScheduler.Priority.HIGH, mLoadCatalogueChangesTask);
+  }
+
+  private void onCatalogueChangesLoaded(long watermark, Set<Integer> changedBookIds, List<BookSummary> changedBooks) {
+    mLoadCatalogueChangesTask = null;
+    mCatalogueWatermark = watermark;
+
+    if(!changedBookIds.isEmpty()) {
+      // Books that changed but were not found have been deleted
+      Set<Integer> deletedBookIds = new HashSet<>(changedBookIds);
+      for(BookSummary book : changedBooks) {
+        deletedBookIds.remove(book.getId());
+      }
+
+      List<BookSummary> books = new ArrayList<>(mBooks);
+      for(Iterator<BookSummary> iterator = books.iterator(); iterator.hasNext(); ) {
+        final int bookId = iterator.next().getId();
+        if(changedBookIds.contains(bookId)) {
+          iterator.remove();
+        }
+      }
+      books.addAll(changedBooks);
+      mBooks = books;
+
+      Log.d(TAG, String.format("Patched catalogue with %d changed and %d deleted books",
+          changedBooks.size(), deletedBookIds.size()));
+      postEvent(new BooksChangedEvent(changedBooks, deletedBookIds));
+    }
+
+    loadCatalogueChanges();
+  }
+
+  private void onCatalogueChangesLoadFailed() {
+    mLoadCatalogueChangesTask = null;
+    // Retried on the next change event or onStart()
+    mHasPendingChanges = true;
   }
 
   /**
-   * Load all Book models from the database.
+   * Load summaries of all books from the database.
    */
-  private static class LoadCatalogueTask extends AsyncTask<Void, Void, List<Book>> {
+  private static class LoadCatalogueTask extends DatabaseScheduler.Job<List<BookSummary>> {
     private final WeakReference<HomeActivity> mActivity;
-    private final DatabaseManager mDatabaseManager;
+    private long mWatermark;
 
     LoadCatalogueTask(HomeActivity activity) {
       mActivity = new WeakReference<>(activity);
-      mDatabaseManager = ReadTrackerApp.from(activity).getDatabaseManager();
     }
 
     @Override
-    protected List<Book> doInBackground(Void... ignored) {
-      List<Book> books = mDatabaseManager.getAll(Book.class);
+    protected List<BookSummary> run(DatabaseManager databaseManager) {
+      // Read before the books, so that changes made while loading are picked up afterwards
+      mWatermark = databaseManager.getChangeWatermark();
+      List<BookSummary> books = databaseManager.getAllBookSummaries();
       Log.d(TAG, String.format("Loaded %d books", books.size()));
-      for(Book book : books) {
-        // Need the sessions to display segmented progress bars
-        book.loadSessions(mDatabaseManager);
-      }
       return books;
     }
 
     @Override
-    protected void onPostExecute(List<Book> books) {
+    protected void onComplete(List<BookSummary> books) {
       HomeActivity activity = mActivity.get();
       if(activity != null && !activity.isFinishing()) {
-        activity.onCatalogueLoaded(books);
+        activity.onCatalogueLoaded(mWatermark, books);
+      }
+    }
+
+    @Override
+    protected void onFailure(Exception exception) {
+      Log.e(TAG, "Failed to load the catalogue", exception);
+      HomeActivity activity = mActivity.get();
+      if(activity != null && !activity.isFinishing()) {
+        activity.onCatalogueLoadFailed();
+      }
+    }
+  }
+
+  /**
+   * Load summaries of the books that have changed since a watermark. When many books have
+   * changed, such as after an import, the whole catalogue is loaded instead.
+   */
+  private static class LoadCatalogueChangesTask extends DatabaseScheduler.Job<List<BookSummary>> {
+    private final WeakReference<HomeActivity> mActivity;
+    private final long mSinceWatermark;
+    private long mWatermark;
+    private Set<Integer> mChangedBookIds;
+    private boolean mIsCompleteCatalogue = false;
+
+    LoadCatalogueChangesTask(HomeActivity activity, long sinceWatermark) {
+      mActivity = new WeakReference<>(activity);
+      mSinceWatermark = sinceWatermark;
+    }
+
+    @Override
+    protected List<BookSummary> run(DatabaseManager databaseManager) {
+      ChangeSet changes = databaseManager.getChangedSince(mSinceWatermark);
+      mWatermark = changes.getWatermark();
+      mChangedBookIds = changes.getChangedBookIds();
+      if(mChangedBookIds.size() > MAX_PATCHED_BOOKS) {
+        Log.d(TAG, String.format("%d books changed, loading all", mChangedBookIds.size()));
+        mIsCompleteCatalogue = true;
+        return databaseManager.getAllBookSummaries();
+      }
+      return databaseManager.getBookSummaries(mChangedBookIds);
+    }
+
+    @Override
+    protected void onComplete(List<BookSummary> books) {
+      HomeActivity activity = mActivity.get();
+      if(activity == null || activity.isFinishing()) {
+        return;
+      }
+
+      if(mIsCompleteCatalogue) {
+        activity.onCatalogueLoaded(mWatermark, books);
+      } else {
+        activity.onCatalogueChangesLoaded(mWatermark, mChangedBookIds, books);
+      }
+    }
+
+    @Override
+    protected void onFailure(Exception exception) {
+      Log.e(TAG, "Failed to load catalogue changes", exception);
+      HomeActivity activity = mActivity.get();
+      if(activity != null && !activity.isFinishing()) {
+        activity.onCatalogueChangesLoadFailed();
       }
     }
   }
@@ -288,15 +453,37 @@ public class HomeActivity extends BaseActivity implements ImportReadTrackerFileT
    * Emitted when the HomeActivity has finished loading books from the database.
    */
   public static class CatalogueLoadedEvent {
-    private final List<Book> mBooks;
+    private final List<BookSummary> mBooks;
 
     @SuppressWarnings("WeakerAccess")
-    public CatalogueLoadedEvent(List<Book> books) {
+    public CatalogueLoadedEvent(List<BookSummary> books) {
       mBooks = books;
     }
 
-    public List<Book> getBooks() {
+    public List<BookSummary> getBooks() {
       return mBooks;
     }
   }
+
+  /**
+   * Emitted when some books of the catalogue have been reloaded after a change, or deleted.
+   */
+  public static class BooksChangedEvent {
+    private final List<BookSummary> mChangedBooks;
+    private final Collection<Integer> mDeletedBookIds;
+
+    @SuppressWarnings("WeakerAccess")
+    public BooksChangedEvent(List<BookSummary> changedBooks, Collection<Integer> deletedBookIds) {
+      mChangedBooks = changedBooks;
+      mDeletedBookIds = deletedBookIds;
+    }
+
+    public List<BookSummary> getChangedBooks() {
+      return mChangedBooks;
+    }
+
+    public Collection<Integer> getDeletedBookIds() {
+      return mDeletedBookIds;
+    }
+  }
 }
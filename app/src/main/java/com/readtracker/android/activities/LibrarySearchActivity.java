@@ -0,0 +1,166 @@
+package com.readtracker.android.activities;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.inputmethod.EditorInfo;
+import android.widget.AdapterView;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import com.readtracker.android.adapters.SearchHitAdapter;
+import com.readtracker.android.db.DatabaseManager;
+import com.readtracker.android.db.SearchHit;
+import com.readtracker.android.fragments.BookFragmentAdapter;
+import com.readtracker.android.tasks.DatabaseScheduler;
+import com.readtracker.databinding.ActivityLibrarySearchBinding;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Activity for searching the books and quotes in the library, as the user types.
+ */
+public class LibrarySearchActivity extends BaseActivity {
+  private static final String TAG = LibrarySearchActivity.class.getSimpleName();
+
+  // Maximum number of hits shown
+  private static final int SEARCH_LIMIT = 50;
+
+  // Time to wait after the last key press before searching
+  private static final long SEARCH_DELAY_MS = 250;
+
+  private EditText mEditTextSearch;
+  private ListView mListSearchResults;
+  private TextView mTextNoResults;
+
+  private SearchHitAdapter mSearchHitAdapter;
+  private final Handler mHandler = new Handler();
+
+  private final Runnable mSearchRunnable = new Runnable() {
+    @Override public void run() {
+      search(mEditTextSearch.getText().toString());
+    }
+  };
+
+  @Override
+  public void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    @NonNull ActivityLibrarySearchBinding binding = ActivityLibrarySearchBinding.inflate(getLayoutInflater());
+    setContentView(binding.getRoot());
+
+    mEditTextSearch = binding.textSearch;
+    mListSearchResults = binding.listSearchResult;
+    mTextNoResults = binding.textNoResults;
+
+    mSearchHitAdapter = new SearchHitAdapter(this, new ArrayList<SearchHit>());
+    mListSearchResults.setAdapter(mSearchHitAdapter);
+
+    bindEvents();
+  }
+
+  @Override protected void onDestroy() {
+    super.onDestroy();
+    mHandler.removeCallbacks(mSearchRunnable);
+  }
+
+  private void bindEvents() {
+    mEditTextSearch.addTextChangedListener(new TextWatcher() {
+      @Override public void afterTextChanged(Editable editable) {
+        mHandler.removeCallbacks(mSearchRunnable);
+        mHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MS);
+      }
+
+      @Override
+      public void beforeTextChanged(CharSequence cs, int i, int i1, int i2) { }
+
+      @Override
+      public void onTextChanged(CharSequence cs, int i, int i1, int i2) { }
+    });
+
+    mEditTextSearch.setOnEditorActionListener(new TextView.OnEditorActionListener() {
+      @Override
+      public boolean onEditorAction(TextView textView, int actionId, KeyEvent keyEvent) {
+        if(actionId == EditorInfo.IME_ACTION_SEARCH) {
+          mHandler.removeCallbacks(mSearchRunnable);
+          mSearchRunnable.run();
+          return true;
+        }
+        return false;
+      }
+    });
+
+    mListSearchResults.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+      @Override
+      public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        SearchHit hit = mSearchHitAdapter.getItem(position);
+        if(hit != null) {
+          exitToBookActivity(hit);
+        }
+      }
+    });
+  }
+
+  private void search(String query) {
+    if(query.trim().length() == 0) {
+      onSearchResult(query, new ArrayList<SearchHit>());
+      return;
+    }
+
+    getDatabaseScheduler().read(this, DatabaseScheduler.Priority.HIGH, new SearchTask(this, query));
+  }
+
+  private void onSearchResult(String query, List<SearchHit> hits) {
+    if(!query.equals(mEditTextSearch.getText().toString())) {
+      Log.v(TAG, "Dropping hits for outdated query: " + query);
+      return;
+    }
+
+    mSearchHitAdapter.clear();
+    mSearchHitAdapter.addAll(hits);
+    final boolean showNoResults = hits.isEmpty() && query.trim().length() > 0;
+    mTextNoResults.setVisibility(showNoResults ? View.VISIBLE : View.GONE);
+    mListSearchResults.setVisibility(showNoResults ? View.GONE : View.VISIBLE);
+  }
+
+  private void exitToBookActivity(SearchHit hit) {
+    Intent intent = new Intent(this, BookActivity.class);
+    intent.putExtra(BookActivity.KEY_BOOK_ID, hit.getBookId());
+    if(hit.getKind() == SearchHit.Kind.QUOTE) {
+      intent.putExtra(BookActivity.KEY_INITIAL_PAGE, BookFragmentAdapter.Page.QUOTES.name());
+    }
+    startActivity(intent);
+  }
+
+  private static class SearchTask extends DatabaseScheduler.Job<List<SearchHit>> {
+    private final WeakReference<LibrarySearchActivity> mActivity;
+    private final String mQuery;
+
+    SearchTask(LibrarySearchActivity activity, String query) {
+      mActivity = new WeakReference<>(activity);
+      mQuery = query;
+    }
+
+    @Override
+    protected List<SearchHit> run(DatabaseManager databaseManager) {
+      return databaseManager.search(mQuery, SEARCH_LIMIT);
+    }
+
+    @Override
+    protected void onComplete(List<SearchHit> hits) {
+      LibrarySearchActivity activity = mActivity.get();
+      if(activity != null && !activity.isFinishing()) {
+        activity.onSearchResult(mQuery, hits);
+      }
+    }
+  }
+}
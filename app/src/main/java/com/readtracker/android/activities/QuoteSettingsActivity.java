@@ -3,7 +3,6 @@ package com.readtracker.android.activities;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
@@ -22,6 +21,7 @@ import com.readtracker.android.db.Book;
 import com.readtracker.android.db.DatabaseManager;
 import com.readtracker.android.db.Quote;
 import com.readtracker.android.support.ColorUtils;
+import com.readtracker.android.tasks.DatabaseScheduler;
 import com.readtracker.databinding.AddQuoteActivityBinding;
 
 import java.lang.ref.WeakReference;
@@ -177,7 +177,7 @@ public class QuoteSettingsActivity extends BookBaseActivity {
 
   private void saveQuote(String quoteText, Float position) {
     Log.d(TAG, "Saving quote for " + mBook.getTitle() + " [" + quoteText + "] " + position);
-    new CreateOrUpdateQuoteTask(mEditQuote, mBook, quoteText, position, this).execute();
+    getDatabaseScheduler().write(this, new CreateOrUpdateQuoteTask(mEditQuote, mBook, quoteText, position, this));
   }
 
   private void onQuoteSaved(Quote quote) {
@@ -196,11 +196,10 @@ public class QuoteSettingsActivity extends BookBaseActivity {
     finish();
   }
 
-  private static class CreateOrUpdateQuoteTask extends AsyncTask<Void, Void, Quote> {
+  private static class CreateOrUpdateQuoteTask extends DatabaseScheduler.Job<Quote> {
     private final Quote mQuote;
 
     private final WeakReference<QuoteSettingsActivity> mActivity;
-    private final DatabaseManager mDatabaseManager;
 
     public CreateOrUpdateQuoteTask(Quote quote, Book book, String quoteText, Float position, QuoteSettingsActivity activity) {
       if(quote == null) {
@@ -216,17 +215,16 @@ public class QuoteSettingsActivity extends BookBaseActivity {
       mQuote.setPosition(position);
 
       mActivity = new WeakReference<>(activity);
-      mDatabaseManager = activity.getApp().getDatabaseManager();
     }
 
     @Override
-    protected Quote doInBackground(Void... voids) {
-      mDatabaseManager.save(mQuote);
+    protected Quote run(DatabaseManager databaseManager) {
+      databaseManager.save(mQuote);
       return mQuote;
     }
 
     @Override
-    protected void onPostExecute(Quote quote) {
+    protected void onComplete(Quote quote) {
       QuoteSettingsActivity activity = mActivity.get();
       if(activity != null) {
         activity.onQuoteSaved(quote);
@@ -2,7 +2,6 @@ package com.readtracker.android.activities;
 
 import android.app.DatePickerDialog;
 import android.app.Dialog;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.text.InputType;
 import android.util.Log;
@@ -22,6 +21,7 @@ import com.readtracker.android.support.SessionPresenter;
 import com.readtracker.android.support.SessionPresenter.PositionPresenter;
 import com.readtracker.android.support.StringUtils;
 import com.readtracker.android.support.Utils;
+import com.readtracker.android.tasks.DatabaseScheduler;
 import com.readtracker.databinding.SessionEditFragmentBinding;
 
 import org.jetbrains.annotations.NotNull;
@@ -140,6 +140,8 @@ public class SessionEditFragment extends DialogFragment {
 
   @Override public void onDestroyView() {
     super.onDestroyView();
+    // Callbacks touch the view binding, so they must not be delivered after this point
+    BackgroundTasks.getScheduler(this).cancelAll(this);
     binding = null;
   }
 
@@ -271,9 +273,8 @@ public class SessionEditFragment extends DialogFragment {
   public void onSessionUpdateFailed() {
   }
 
-  private static class BackgroundTasks extends AsyncTask<Void, Void, Boolean> {
+  private static class BackgroundTasks extends DatabaseScheduler.Job<Boolean> {
     final WeakReference<SessionEditFragment> mActivityRef;
-    final DatabaseManager mDatabaseMgr;
     private final Integer mSessionId;
     Session mSession;
     private final Action mAction;
@@ -286,31 +287,34 @@ public class SessionEditFragment extends DialogFragment {
       mSession = session;
       mSessionId = sessionId;
       mActivityRef = new WeakReference<>(listener);
-      mDatabaseMgr = ((BaseActivity) listener.getActivity()).getApp().getDatabaseManager();
       mAction = action;
     }
 
+    private static DatabaseScheduler getScheduler(SessionEditFragment listener) {
+      return ((BaseActivity) listener.getActivity()).getDatabaseScheduler();
+    }
+
     public static void loadSession(SessionEditFragment listener, int sessionId) {
-      new BackgroundTasks(listener, null, sessionId, Action.LOAD).execute();
+      getScheduler(listener).read(listener, DatabaseScheduler.Priority.HIGH, new BackgroundTasks(listener, null, sessionId, Action.LOAD));
     }
 
     public static void saveSession(SessionEditFragment listener, Session session) {
-      new BackgroundTasks(listener, session, null, Action.SAVE).execute();
+      getScheduler(listener).write(listener, new BackgroundTasks(listener, session, null, Action.SAVE));
     }
 
     public static void deleteSession(SessionEditFragment listener, Session session) {
-      new BackgroundTasks(listener, session, null, Action.DELETE).execute();
+      getScheduler(listener).write(listener, new BackgroundTasks(listener, session, null, Action.DELETE));
     }
 
     @Override
-    protected Boolean doInBackground(Void... voids) {
+    protected Boolean run(DatabaseManager databaseMgr) {
       switch(mAction) {
         case SAVE:
-          return mDatabaseMgr.save(mSession);
+          return databaseMgr.save(mSession);
         case DELETE:
-          return mDatabaseMgr.delete(mSession);
+          return databaseMgr.delete(mSession);
         case LOAD:
-          Session session = mDatabaseMgr.get(Session.class, mSessionId);
+          Session session = databaseMgr.get(Session.class, mSessionId);
           if(session == null) {
             Log.w(TAG, String.format("Failed to load session with id: %d", mSessionId));
             return false;
@@ -319,7 +323,7 @@ public class SessionEditFragment extends DialogFragment {
 
           // Also have to load the book so that we can determine if we're dealing with page numbers
           // or relative positions.
-          Book book = mDatabaseMgr.get(Book.class, mSession.getBook().getId());
+          Book book = databaseMgr.get(Book.class, mSession.getBook().getId());
           if(book == null) {
             Log.w(TAG, "Failed to load book for session");
           }
@@ -331,7 +335,7 @@ public class SessionEditFragment extends DialogFragment {
       return false;
     }
 
-    @Override protected void onPostExecute(Boolean success) {
+    @Override protected void onComplete(Boolean success) {
       Log.d(TAG, String.format("Completed BackgroundTasks for action: %s with result: %s", mAction, success));
       SessionEditFragment activity = mActivityRef.get();
       if(activity != null) {
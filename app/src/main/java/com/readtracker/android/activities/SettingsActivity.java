@@ -1,6 +1,8 @@
 package com.readtracker.android.activities;
 
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
@@ -9,14 +11,20 @@ import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import androidx.annotation.NonNull;
 import android.util.Log;
+import android.widget.Toast;
 
 import com.readtracker.R;
 import com.readtracker.android.IntentKeys;
 import com.readtracker.android.ReadTrackerApp;
+import com.readtracker.android.db.DatabaseManager;
+import com.readtracker.android.db.export.IncrementalBackup;
 import com.readtracker.android.db.export.JSONImporter;
 import com.readtracker.android.support.ReadTrackerDataImportHandler;
+import com.readtracker.android.tasks.DatabaseScheduler;
 import com.readtracker.android.tasks.ImportReadTrackerFileTask;
 
+import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
 
 public class SettingsActivity extends PreferenceActivity implements ImportReadTrackerFileTask.ResultListener {
@@ -26,9 +34,19 @@ public class SettingsActivity extends PreferenceActivity implements ImportReadTr
   private static final String SETTINGS_FULL_DATES = "settings.full_dates";
   private static final String IMPORT_JSON = "data.import_json";
   private static final String EXPORT_JSON = "data.export_json";
+  private static final String BACKUP = "data.backup";
+  private static final String RESTORE_BACKUP = "data.restore_backup";
   private static final String ABOUT_VERSION = "about.version";
   private static final String ABOUT_LEGAL = "about.legal";
 
+  // Number of taps on the version that opens the diagnostics screen
+  private static final int DIAGNOSTICS_TAP_COUNT = 7;
+
+  // Directory in the app's private storage that holds the backup chain and its manifest
+  private static final String BACKUP_DIR_NAME = "backups";
+
+  private int mVersionTapCount = 0;
+
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
@@ -45,6 +63,19 @@ public class SettingsActivity extends PreferenceActivity implements ImportReadTr
     } catch(PackageManager.NameNotFoundException ignored) {
     }
 
+    // TODO Fix deprecation
+    //noinspection deprecation
+    findPreference(ABOUT_VERSION).setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+      @Override
+      public boolean onPreferenceClick(Preference preference) {
+        if(++mVersionTapCount >= DIAGNOSTICS_TAP_COUNT) {
+          mVersionTapCount = 0;
+          startActivity(new Intent(SettingsActivity.this, DiagnosticsActivity.class));
+        }
+        return true;
+      }
+    });
+
     // TODO Fix deprecation
     //noinspection deprecation
     Preference legalPreference = findPreference(ABOUT_LEGAL);
@@ -105,6 +136,67 @@ public class SettingsActivity extends PreferenceActivity implements ImportReadTr
         return true;
       }
     });
+
+    // TODO Fix deprecation
+    //noinspection deprecation
+    final Preference backup = findPreference(BACKUP);
+    backup.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+      @Override public boolean onPreferenceClick(Preference preference) {
+        ReadTrackerApp.from(SettingsActivity.this).getDatabaseScheduler()
+            .read(SettingsActivity.this, new BackupTask(SettingsActivity.this));
+        return true;
+      }
+    });
+
+    // TODO Fix deprecation
+    //noinspection deprecation
+    final Preference restoreBackup = findPreference(RESTORE_BACKUP);
+    restoreBackup.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+      @Override public boolean onPreferenceClick(Preference preference) {
+        confirmRestoreBackup();
+        return true;
+      }
+    });
+  }
+
+  @Override protected void onDestroy() {
+    super.onDestroy();
+    ReadTrackerApp.from(this).getDatabaseScheduler().cancelAll(this);
+  }
+
+  private File getBackupDir() {
+    return new File(getFilesDir(), BACKUP_DIR_NAME);
+  }
+
+  private void confirmRestoreBackup() {
+    new AlertDialog.Builder(this)
+        .setTitle(R.string.settings_restore_backup)
+        .setMessage(R.string.settings_restore_backup_confirmation)
+        .setIcon(android.R.drawable.ic_dialog_alert)
+        .setPositiveButton(R.string.settings_restore_backup_positive_button, new DialogInterface.OnClickListener() {
+          @Override public void onClick(DialogInterface dialogInterface, int i) {
+            ReadTrackerApp.from(SettingsActivity.this).getDatabaseScheduler()
+                .write(SettingsActivity.this, new RestoreBackupTask(SettingsActivity.this));
+          }
+        })
+        .setNegativeButton(R.string.general_cancel, new DialogInterface.OnClickListener() {
+          @Override public void onClick(DialogInterface dialogInterface, int i) {
+            dialogInterface.cancel();
+          }
+        })
+        .setCancelable(true).create().show();
+  }
+
+  private void onBackupComplete(File backupFile) {
+    final int message = backupFile == null ? R.string.settings_backup_no_changes : R.string.settings_backup_success;
+    Toast.makeText(this, message, Toast.LENGTH_SHORT).show();
+  }
+
+  private void onRestoreBackupComplete(IncrementalBackup.RestoreReport report) {
+    final String message = report.backupCount == 0 ?
+        getString(R.string.settings_restore_backup_none) :
+        getResources().getQuantityString(R.plurals.settings_restore_backup_success, report.backupCount, report.backupCount);
+    Toast.makeText(this, message, Toast.LENGTH_LONG).show();
   }
 
   @Override protected void onActivityResult(int requestCode, int resultCode, Intent data) {
@@ -127,11 +219,75 @@ public class SettingsActivity extends PreferenceActivity implements ImportReadTr
     ReadTrackerDataImportHandler.closeProgressDialog(this, result);
   }
 
-  @Override public void onImportUpdate(int currentBook, int totalBooks) {
-    ReadTrackerDataImportHandler.showProgressUpdate(currentBook, totalBooks);
+  @Override public void onImportUpdate(int progress, int max, float booksPerSecond) {
+    ReadTrackerDataImportHandler.showProgressUpdate(progress, max, booksPerSecond);
   }
 
   @Override public Activity getResultActivity() {
     return this;
   }
+
+  private static class BackupTask extends DatabaseScheduler.Job<File> {
+    private final WeakReference<SettingsActivity> mActivity;
+    private final File mBackupDir;
+
+    BackupTask(SettingsActivity activity) {
+      mActivity = new WeakReference<>(activity);
+      mBackupDir = activity.getBackupDir();
+    }
+
+    @Override
+    protected File run(DatabaseManager databaseManager) throws Exception {
+      return new IncrementalBackup(databaseManager, mBackupDir).backup();
+    }
+
+    @Override
+    protected void onComplete(File backupFile) {
+      SettingsActivity activity = mActivity.get();
+      if(activity != null && !activity.isFinishing()) {
+        activity.onBackupComplete(backupFile);
+      }
+    }
+
+    @Override
+    protected void onFailure(Exception exception) {
+      Log.e(TAG, "Failed to back up", exception);
+      SettingsActivity activity = mActivity.get();
+      if(activity != null && !activity.isFinishing()) {
+        Toast.makeText(activity, R.string.settings_backup_failed, Toast.LENGTH_LONG).show();
+      }
+    }
+  }
+
+  private static class RestoreBackupTask extends DatabaseScheduler.Job<IncrementalBackup.RestoreReport> {
+    private final WeakReference<SettingsActivity> mActivity;
+    private final File mBackupDir;
+
+    RestoreBackupTask(SettingsActivity activity) {
+      mActivity = new WeakReference<>(activity);
+      mBackupDir = activity.getBackupDir();
+    }
+
+    @Override
+    protected IncrementalBackup.RestoreReport run(DatabaseManager databaseManager) throws Exception {
+      return new IncrementalBackup(databaseManager, mBackupDir).restore();
+    }
+
+    @Override
+    protected void onComplete(IncrementalBackup.RestoreReport report) {
+      SettingsActivity activity = mActivity.get();
+      if(activity != null && !activity.isFinishing()) {
+        activity.onRestoreBackupComplete(report);
+      }
+    }
+
+    @Override
+    protected void onFailure(Exception exception) {
+      Log.e(TAG, "Failed to restore backup", exception);
+      SettingsActivity activity = mActivity.get();
+      if(activity != null && !activity.isFinishing()) {
+        Toast.makeText(activity, R.string.settings_restore_backup_failed, Toast.LENGTH_LONG).show();
+      }
+    }
+  }
 }
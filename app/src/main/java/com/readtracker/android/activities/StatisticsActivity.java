@@ -0,0 +1,205 @@
+package com.readtracker.android.activities;
+
+import android.content.res.Resources;
+import android.os.Bundle;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.View;
+import android.widget.ListView;
+import android.widget.RadioGroup;
+import android.widget.TextView;
+
+import com.readtracker.R;
+import com.readtracker.android.adapters.StatisticsAdapter;
+import com.readtracker.android.db.DatabaseManager;
+import com.readtracker.android.db.ReadingStatistics;
+import com.readtracker.android.tasks.DatabaseScheduler;
+import com.readtracker.databinding.ActivityStatisticsBinding;
+
+import java.lang.ref.WeakReference;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Activity for showing the time spent reading per day, week, month, year or book.
+ */
+public class StatisticsActivity extends BaseActivity {
+  private static final String TAG = StatisticsActivity.class.getSimpleName();
+
+  private static final String KEY_CHECKED_PERIOD = "CHECKED_PERIOD";
+
+  private RadioGroup mGroupPeriod;
+  private ListView mListStatistics;
+  private TextView mTextBlankState;
+
+  private StatisticsAdapter mStatisticsAdapter;
+
+  @Override
+  public void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    @NonNull ActivityStatisticsBinding binding = ActivityStatisticsBinding.inflate(getLayoutInflater());
+    setContentView(binding.getRoot());
+
+    mGroupPeriod = binding.groupPeriod;
+    mListStatistics = binding.listStatistics;
+    mTextBlankState = binding.textBlankState;
+
+    mStatisticsAdapter = new StatisticsAdapter(this, new ArrayList<StatisticsAdapter.Row>());
+    mListStatistics.setAdapter(mStatisticsAdapter);
+
+    if(savedInstanceState != null) {
+      mGroupPeriod.check(savedInstanceState.getInt(KEY_CHECKED_PERIOD, R.id.radioDay));
+    }
+
+    mGroupPeriod.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+      @Override public void onCheckedChanged(RadioGroup group, int checkedId) {
+        loadStatistics();
+      }
+    });
+
+    loadStatistics();
+  }
+
+  @Override
+  protected void onSaveInstanceState(Bundle outState) {
+    super.onSaveInstanceState(outState);
+    outState.putInt(KEY_CHECKED_PERIOD, mGroupPeriod.getCheckedRadioButtonId());
+  }
+
+  private void loadStatistics() {
+    final int checkedId = mGroupPeriod.getCheckedRadioButtonId();
+    final ReadingStatistics.Period period = getPeriod(checkedId);
+    if(period == null) {
+      getDatabaseScheduler().read(this, new LoadBookTotalsTask(this, checkedId));
+    } else {
+      getDatabaseScheduler().read(this, new LoadBucketsTask(this, checkedId, period));
+    }
+  }
+
+  private void onStatisticsLoaded(int checkedId, List<StatisticsAdapter.Row> rows) {
+    if(checkedId != mGroupPeriod.getCheckedRadioButtonId()) {
+      Log.v(TAG, "Dropping statistics for unchecked period");
+      return;
+    }
+
+    mStatisticsAdapter.setRows(rows);
+    final boolean hasRows = !rows.isEmpty();
+    mListStatistics.setVisibility(hasRows ? View.VISIBLE : View.GONE);
+    mTextBlankState.setVisibility(hasRows ? View.GONE : View.VISIBLE);
+  }
+
+  /** Returns the period of a radio button, or null for the per book statistics. */
+  private static ReadingStatistics.Period getPeriod(int checkedId) {
+    if(checkedId == R.id.radioWeek) {
+      return ReadingStatistics.Period.WEEK;
+    } else if(checkedId == R.id.radioMonth) {
+      return ReadingStatistics.Period.MONTH;
+    } else if(checkedId == R.id.radioYear) {
+      return ReadingStatistics.Period.YEAR;
+    } else if(checkedId == R.id.radioBooks) {
+      return null;
+    }
+    return ReadingStatistics.Period.DAY;
+  }
+
+  private List<StatisticsAdapter.Row> createRows(ReadingStatistics.Period period, List<ReadingStatistics.Bucket> buckets) {
+    final Resources res = getResources();
+    List<StatisticsAdapter.Row> rows = new ArrayList<>(buckets.size());
+    for(ReadingStatistics.Bucket bucket : buckets) {
+      final String sessions = res.getQuantityString(R.plurals.plural_session, bucket.getSessionCount(), bucket.getSessionCount());
+      final int pages = Math.round(bucket.getPagesRead());
+      final String details = pages > 0 ?
+          getString(R.string.general_two_item_sentence, sessions, res.getQuantityString(R.plurals.plural_page, pages, pages)) :
+          sessions;
+      rows.add(new StatisticsAdapter.Row(formatBucketKey(period, bucket.getKey()), details, bucket.getSecondsSpent()));
+    }
+    return rows;
+  }
+
+  private List<StatisticsAdapter.Row> createRows(List<ReadingStatistics.BookTotal> totals) {
+    final Resources res = getResources();
+    List<StatisticsAdapter.Row> rows = new ArrayList<>(totals.size());
+    for(ReadingStatistics.BookTotal total : totals) {
+      final String sessions = res.getQuantityString(R.plurals.plural_session, total.getSessionCount(), total.getSessionCount());
+      rows.add(new StatisticsAdapter.Row(total.getTitle(), sessions, total.getSecondsSpent()));
+    }
+    return rows;
+  }
+
+  private String formatBucketKey(ReadingStatistics.Period period, String key) {
+    if(period == ReadingStatistics.Period.YEAR) {
+      return key;
+    }
+
+    final boolean isMonth = period == ReadingStatistics.Period.MONTH;
+    final Date date;
+    try {
+      date = new SimpleDateFormat(isMonth ? "yyyy-MM" : "yyyy-MM-dd", Locale.US).parse(key);
+    } catch(ParseException e) {
+      Log.w(TAG, "Unexpected statistics key: " + key);
+      return key;
+    }
+
+    if(isMonth) {
+      final int flags = DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_YEAR | DateUtils.FORMAT_NO_MONTH_DAY;
+      return DateUtils.formatDateTime(this, date.getTime(), flags);
+    }
+
+    final String day = DateUtils.formatDateTime(this, date.getTime(), DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_YEAR);
+    return period == ReadingStatistics.Period.WEEK ? getString(R.string.statistics_week_of, day) : day;
+  }
+
+  private static class LoadBucketsTask extends DatabaseScheduler.Job<List<ReadingStatistics.Bucket>> {
+    private final WeakReference<StatisticsActivity> mActivity;
+    private final int mCheckedId;
+    private final ReadingStatistics.Period mPeriod;
+
+    LoadBucketsTask(StatisticsActivity activity, int checkedId, ReadingStatistics.Period period) {
+      mActivity = new WeakReference<>(activity);
+      mCheckedId = checkedId;
+      mPeriod = period;
+    }
+
+    @Override
+    protected List<ReadingStatistics.Bucket> run(DatabaseManager databaseManager) {
+      return databaseManager.getStatistics().getBuckets(mPeriod);
+    }
+
+    @Override
+    protected void onComplete(List<ReadingStatistics.Bucket> buckets) {
+      StatisticsActivity activity = mActivity.get();
+      if(activity != null && !activity.isFinishing()) {
+        activity.onStatisticsLoaded(mCheckedId, activity.createRows(mPeriod, buckets));
+      }
+    }
+  }
+
+  private static class LoadBookTotalsTask extends DatabaseScheduler.Job<List<ReadingStatistics.BookTotal>> {
+    private final WeakReference<StatisticsActivity> mActivity;
+    private final int mCheckedId;
+
+    LoadBookTotalsTask(StatisticsActivity activity, int checkedId) {
+      mActivity = new WeakReference<>(activity);
+      mCheckedId = checkedId;
+    }
+
+    @Override
+    protected List<ReadingStatistics.BookTotal> run(DatabaseManager databaseManager) {
+      return databaseManager.getStatistics().getBookTotals();
+    }
+
+    @Override
+    protected void onComplete(List<ReadingStatistics.BookTotal> totals) {
+      StatisticsActivity activity = mActivity.get();
+      if(activity != null && !activity.isFinishing()) {
+        activity.onStatisticsLoaded(mCheckedId, activity.createRows(totals));
+      }
+    }
+  }
+}
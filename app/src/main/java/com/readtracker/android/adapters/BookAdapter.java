@@ -18,15 +18,16 @@ import com.readtracker.R;
 import com.readtracker.android.activities.HomeActivity;
 import com.readtracker.android.custom_views.SegmentBar;
 import com.readtracker.android.db.Book;
+import com.readtracker.android.db.BookSummary;
 import com.readtracker.android.support.ColorUtils;
 import com.readtracker.android.support.StringUtils;
-import com.readtracker.android.support.Utils;
 import com.readtracker.databinding.BookListItemFinishedBinding;
 import com.readtracker.databinding.BookListItemReadingBinding;
 import com.squareup.otto.Subscribe;
 import com.squareup.picasso.Picasso;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -40,8 +41,8 @@ public class BookAdapter extends BaseAdapter implements ListAdapter {
 
   private final Context mContext;
 
-  private static final Comparator<Book> sBookComparator = new Comparator<Book>() {
-    @Override public int compare(Book a, Book b) {
+  private static final Comparator<BookSummary> sBookComparator = new Comparator<BookSummary>() {
+    @Override public int compare(BookSummary a, BookSummary b) {
       final long keyA = a.getCurrentPositionTimestampMs() == null ? 0 : a.getCurrentPositionTimestampMs();
       final long keyB = b.getCurrentPositionTimestampMs() == null ? 0 : b.getCurrentPositionTimestampMs();
 
@@ -51,7 +52,7 @@ public class BookAdapter extends BaseAdapter implements ListAdapter {
   };
 
   // Books in this list
-  private final List<Book> mBooks = new ArrayList<>();
+  private final List<BookSummary> mBooks = new ArrayList<>();
   private final Book.State mStateFilter;
   private final boolean mUseCompactReadingLists;
   private final boolean mUseFullDates;
@@ -75,11 +76,17 @@ public class BookAdapter extends BaseAdapter implements ListAdapter {
     setBooks(event.getBooks());
   }
 
+  @Subscribe public void onBooksChangedEvent(HomeActivity.BooksChangedEvent event) {
+    Log.d(TAG, String.format("Adapter with filter %s got %d changed and %d deleted books",
+        mStateFilter, event.getChangedBooks().size(), event.getDeletedBookIds().size()));
+    patchBooks(event.getChangedBooks(), event.getDeletedBookIds());
+  }
+
   @Override public int getCount() {
     return mBooks.size();
   }
 
-  @Override public Book getItem(int position) {
+  @Override public BookSummary getItem(int position) {
     return mBooks.get(position);
   }
 
@@ -105,7 +112,7 @@ public class BookAdapter extends BaseAdapter implements ListAdapter {
       viewHolder = (ViewHolder) convertView.getTag();
     }
 
-    Book book = getItem(position);
+    BookSummary book = getItem(position);
     viewHolder.populate(convertView, book, mUseCompactReadingLists, mUseFullDates);
 
     return convertView;
@@ -120,14 +127,29 @@ public class BookAdapter extends BaseAdapter implements ListAdapter {
   }
 
   /** Sets the list of books to display. */
-  public void setBooks(List<Book> books) {
+  public void setBooks(List<BookSummary> books) {
     addOrUpdateExistingEntries(books);
     removeDeletedEntries(books);
     sortBooks();
   }
 
-  private void addOrUpdateExistingEntries(List<Book> updatedCatalogue) {
-    for(Book book : updatedCatalogue) {
+  /**
+   * Updates the given books and removes the deleted ones, leaving the rest of the list as it is.
+   */
+  public void patchBooks(List<BookSummary> changedBooks, Collection<Integer> deletedBookIds) {
+    for(Iterator<BookSummary> iterator = mBooks.iterator(); iterator.hasNext(); ) {
+      final BookSummary book = iterator.next();
+      if(deletedBookIds.contains(book.getId())) {
+        Log.v(TAG, String.format("Removing deleted entry: %s", book));
+        iterator.remove();
+      }
+    }
+    addOrUpdateExistingEntries(changedBooks);
+    sortBooks();
+  }
+
+  private void addOrUpdateExistingEntries(List<BookSummary> updatedCatalogue) {
+    for(BookSummary book : updatedCatalogue) {
       int position = mBooks.indexOf(book);
       if(mStateFilter == null || book.getState() == mStateFilter) {
         if(position < 0) { // Not in adapter
@@ -143,9 +165,9 @@ public class BookAdapter extends BaseAdapter implements ListAdapter {
     }
   }
 
-  private void removeDeletedEntries(List<Book> updatedCatalogue) {
-    for(Iterator<Book> iterator = mBooks.iterator(); iterator.hasNext(); ) {
-      final Book book = iterator.next();
+  private void removeDeletedEntries(List<BookSummary> updatedCatalogue) {
+    for(Iterator<BookSummary> iterator = mBooks.iterator(); iterator.hasNext(); ) {
+      final BookSummary book = iterator.next();
       if(!updatedCatalogue.contains(book)) {
         Log.v(TAG, String.format("Removing entry: %s", book));
         iterator.remove();
@@ -185,7 +207,7 @@ public class BookAdapter extends BaseAdapter implements ListAdapter {
       }
     }
 
-    void populate(View view, Book book, boolean useCompactReadingLists, boolean useFullDates) {
+    void populate(View view, BookSummary book, boolean useCompactReadingLists, boolean useFullDates) {
       // Required fields
       titleText.setText(book.getTitle());
       authorText.setText(book.getAuthor());
@@ -193,7 +215,7 @@ public class BookAdapter extends BaseAdapter implements ListAdapter {
       // Optional fields
       if(segmentedProgressBar != null) {
         segmentedProgressBar.setVisibility(View.VISIBLE);
-        segmentedProgressBar.setStops(Utils.getSessionStops(book.getSessions()));
+        segmentedProgressBar.setStops(book.getSessionStops());
         segmentedProgressBar.setColor(ColorUtils.getColorForBook(book));
       }
 
@@ -0,0 +1,32 @@
+package com.readtracker.android.adapters;
+
+/**
+ * Asks for the next page of a paged list when a view close to the end of the list is bound.
+ * Only one page is requested at a time.
+ */
+class LoadMoreTrigger {
+  // Number of rows from the end of the list at which the next page is requested
+  private static final int THRESHOLD = 10;
+
+  private OnLoadMoreListener mListener;
+  private boolean mHasMore = false;
+  private boolean mIsLoading = false;
+
+  void setListener(OnLoadMoreListener listener) {
+    mListener = listener;
+  }
+
+  /** Resets the trigger after a page has been added to the list. */
+  void onPageLoaded(boolean hasMore) {
+    mHasMore = hasMore;
+    mIsLoading = false;
+  }
+
+  /** Call when binding the view at position, in a list of count rows. */
+  void onBind(int position, int count) {
+    if(mHasMore && !mIsLoading && mListener != null && position >= count - THRESHOLD) {
+      mIsLoading = true;
+      mListener.onLoadMore();
+    }
+  }
+}
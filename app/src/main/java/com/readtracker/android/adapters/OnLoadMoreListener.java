@@ -0,0 +1,6 @@
+package com.readtracker.android.adapters;
+
+/** Listener for adapters of paged lists, called when the next page should be loaded. */
+public interface OnLoadMoreListener {
+  void onLoadMore();
+}
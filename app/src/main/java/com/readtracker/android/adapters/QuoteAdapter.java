@@ -24,13 +24,16 @@ public class QuoteAdapter extends ArrayAdapter<Quote> {
   private final Comparator<Quote> mQuoteComparator = new Comparator<Quote>() {
     @Override
     public int compare(Quote a, Quote b) {
+      // Newest first with ties broken by id, in the same order as they are paged from the database
       final long timestampA = a.getAddTimestampMs();
       final long timestampB = b.getAddTimestampMs();
       //noinspection UseCompareMethod -- Can't use this with our current min sdk target
-      return timestampA == timestampB ? 0 : timestampA > timestampB ? -1 : 1;
+      return timestampA == timestampB ? b.getId() - a.getId() : timestampA > timestampB ? -1 : 1;
     }
   };
 
+  private final LoadMoreTrigger mLoadMoreTrigger = new LoadMoreTrigger();
+
   public QuoteAdapter(Context context, List<Quote> quotes, boolean useFullDates) {
     super(context, R.layout.quote_list_item, quotes);
     mUseFullDates = useFullDates;
@@ -41,6 +44,16 @@ public class QuoteAdapter extends ArrayAdapter<Quote> {
     sort(mQuoteComparator);
   }
 
+  /** Sets the listener that is called when the list is scrolled close to the oldest quote. */
+  public void setOnLoadMoreListener(OnLoadMoreListener listener) {
+    mLoadMoreTrigger.setListener(listener);
+  }
+
+  /** Call after adding a page of quotes. hasMore tells if there are older quotes to load. */
+  public void onPageLoaded(boolean hasMore) {
+    mLoadMoreTrigger.onPageLoaded(hasMore);
+  }
+
   public void setColor(int color) {
     mColor = color;
     notifyDataSetChanged();
@@ -81,6 +94,7 @@ public class QuoteAdapter extends ArrayAdapter<Quote> {
       textDate.setText(metadata);
     }
 
+    mLoadMoreTrigger.onBind(position, getCount());
     return convertView;
   }
 
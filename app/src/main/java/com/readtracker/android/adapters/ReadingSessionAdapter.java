@@ -31,6 +31,7 @@ public class ReadingSessionAdapter extends BaseAdapter implements ListAdapter {
   private final Context mContext;
   private final List<Session> mSessions = new ArrayList<>();
   private final Comparator<Session> mSessionComparator = new ComparatorSessionByStartDate();
+  private final LoadMoreTrigger mLoadMoreTrigger = new LoadMoreTrigger();
 
   public ReadingSessionAdapter(Context context) {
     super();
@@ -63,6 +64,7 @@ public class ReadingSessionAdapter extends BaseAdapter implements ListAdapter {
 
     Session book = getItem(position);
     viewHolder.populate(convertView, book);
+    mLoadMoreTrigger.onBind(position, getCount());
 
     return convertView;
   }
@@ -75,13 +77,30 @@ public class ReadingSessionAdapter extends BaseAdapter implements ListAdapter {
     return true;
   }
 
-  public void setSessions(List<Session> sessions) {
+  /** Sets the first page of sessions. hasMore tells if there are older sessions to load. */
+  public void setSessions(List<Session> sessions, boolean hasMore) {
     mSessions.clear();
+    appendSessions(sessions, hasMore);
+  }
+
+  /** Adds the next page of sessions. hasMore tells if there are older sessions to load. */
+  public void appendSessions(List<Session> sessions, boolean hasMore) {
     mSessions.addAll(sessions);
     Collections.sort(mSessions, mSessionComparator);
+    mLoadMoreTrigger.onPageLoaded(hasMore);
     notifyDataSetChanged();
   }
 
+  /** Returns the oldest loaded session, from which the next page continues. */
+  public Session getLastSession() {
+    return mSessions.isEmpty() ? null : mSessions.get(mSessions.size() - 1);
+  }
+
+  /** Sets the listener that is called when the list is scrolled close to the oldest session. */
+  public void setOnLoadMoreListener(OnLoadMoreListener listener) {
+    mLoadMoreTrigger.setListener(listener);
+  }
+
   static class ViewHolder {
     private final SimpleDateFormat mDateFormatter;
 
@@ -123,13 +142,17 @@ public class ReadingSessionAdapter extends BaseAdapter implements ListAdapter {
     }
   }
 
+  /** Orders sessions newest first, in the same order as they are paged from the database. */
   private static class ComparatorSessionByStartDate implements Comparator<Session> {
     @Override public int compare(Session sessionA, Session sessionB) {
       final long tsA = sessionA.getTimestampMs();
       final long tsB = sessionB.getTimestampMs();
 
       //noinspection UseCompareMethod
-      return tsA < tsB ? -1 : (tsA > tsB ? 1 : 0);
+      if(tsA != tsB) {
+        return tsA > tsB ? -1 : 1;
+      }
+      return sessionB.getId() - sessionA.getId();
     }
   }
 }
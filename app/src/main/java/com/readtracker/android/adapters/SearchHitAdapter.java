@@ -0,0 +1,87 @@
+package com.readtracker.android.adapters;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.TextView;
+
+import com.readtracker.R;
+import com.readtracker.android.db.SearchHit;
+import com.readtracker.databinding.ListItemSearchHitBinding;
+
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/** Adapter for displaying books and quotes found in the library. */
+public class SearchHitAdapter extends ArrayAdapter<SearchHit> {
+
+  /** Cache item to avoid repeated view look-ups */
+  static class ViewHolder {
+    final TextView textTitle;
+    final TextView textSnippet;
+
+    private final View mRootView;
+
+    ViewHolder(Context context) {
+      @NonNull ListItemSearchHitBinding binding = ListItemSearchHitBinding.inflate(LayoutInflater.from(context));
+      textTitle = binding.textTitle;
+      textSnippet = binding.textSnippet;
+      mRootView = binding.getRoot();
+    }
+
+    View getRoot() {
+      return mRootView;
+    }
+  }
+
+  public SearchHitAdapter(Context context, List<SearchHit> hits) {
+    super(context, R.layout.list_item_search_hit, R.id.textTitle, hits);
+  }
+
+  @Override
+  public View getView(int position, View convertView, ViewGroup parent) {
+    final SearchHit hit = getItem(position);
+    final ViewHolder viewHolder;
+
+    if(convertView == null) {
+      viewHolder = new ViewHolder(getContext());
+      convertView = viewHolder.getRoot();
+      convertView.setTag(viewHolder);
+    } else {
+      viewHolder = (ViewHolder) convertView.getTag();
+    }
+
+    viewHolder.textTitle.setText(hit.getTitle());
+    viewHolder.textSnippet.setText(highlightMatches(hit.getSnippet()));
+
+    return convertView;
+  }
+
+  /** Replaces the match markers of a snippet with bold text. */
+  static CharSequence highlightMatches(String snippet) {
+    SpannableStringBuilder text = new SpannableStringBuilder();
+    int position = 0;
+    while(position < snippet.length()) {
+      final int matchStart = snippet.indexOf(SearchHit.MATCH_START, position);
+      final int matchEnd = matchStart < 0 ? -1 : snippet.indexOf(SearchHit.MATCH_END, matchStart);
+      if(matchEnd < 0) {
+        text.append(snippet.substring(position).replace(SearchHit.MATCH_START, ""));
+        break;
+      }
+
+      text.append(snippet, position, matchStart);
+      final int spanStart = text.length();
+      text.append(snippet, matchStart + SearchHit.MATCH_START.length(), matchEnd);
+      text.setSpan(new StyleSpan(Typeface.BOLD), spanStart, text.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+      position = matchEnd + SearchHit.MATCH_END.length();
+    }
+    return text;
+  }
+}
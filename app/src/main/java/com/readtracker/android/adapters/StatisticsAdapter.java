@@ -0,0 +1,105 @@
+package com.readtracker.android.adapters;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import com.readtracker.R;
+import com.readtracker.android.support.StringUtils;
+import com.readtracker.databinding.ListItemStatisticsBinding;
+
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Adapter for displaying reading statistics as a bar chart, with one bar for the time spent
+ * in each row, relative to the row with the most time spent.
+ */
+public class StatisticsAdapter extends ArrayAdapter<StatisticsAdapter.Row> {
+  private static final int BAR_MAX = 1000;
+
+  private long mMaxSecondsSpent = 0;
+
+  /** Cache item to avoid repeated view look-ups */
+  static class ViewHolder {
+    final TextView textLabel;
+    final TextView textTime;
+    final TextView textDetails;
+    final ProgressBar progressTime;
+
+    private final View mRootView;
+
+    ViewHolder(Context context) {
+      @NonNull ListItemStatisticsBinding binding = ListItemStatisticsBinding.inflate(LayoutInflater.from(context));
+      textLabel = binding.textLabel;
+      textTime = binding.textTime;
+      textDetails = binding.textDetails;
+      progressTime = binding.progressTime;
+      mRootView = binding.getRoot();
+    }
+
+    View getRoot() {
+      return mRootView;
+    }
+  }
+
+  public StatisticsAdapter(Context context, List<Row> rows) {
+    super(context, R.layout.list_item_statistics, R.id.textLabel, rows);
+  }
+
+  /** Replaces the rows of the adapter. */
+  public void setRows(List<Row> rows) {
+    mMaxSecondsSpent = 0;
+    for(Row row : rows) {
+      mMaxSecondsSpent = Math.max(mMaxSecondsSpent, row.secondsSpent);
+    }
+    setNotifyOnChange(false);
+    clear();
+    addAll(rows);
+    notifyDataSetChanged();
+  }
+
+  @Override
+  public View getView(int position, View convertView, ViewGroup parent) {
+    final Row row = getItem(position);
+    final ViewHolder viewHolder;
+
+    if(convertView == null) {
+      viewHolder = new ViewHolder(getContext());
+      convertView = viewHolder.getRoot();
+      convertView.setTag(viewHolder);
+    } else {
+      viewHolder = (ViewHolder) convertView.getTag();
+    }
+
+    if(row == null) {
+      return convertView;
+    }
+
+    viewHolder.textLabel.setText(row.label);
+    viewHolder.textTime.setText(StringUtils.hoursAndMinutesFromMillis(row.secondsSpent * 1000, getContext()));
+    viewHolder.textDetails.setText(row.details);
+    viewHolder.progressTime.setMax(BAR_MAX);
+    viewHolder.progressTime.setProgress(mMaxSecondsSpent == 0 ? 0 : (int) (BAR_MAX * row.secondsSpent / mMaxSecondsSpent));
+
+    return convertView;
+  }
+
+  /** One bar of the chart. */
+  public static class Row {
+    final String label;
+    final String details;
+    final long secondsSpent;
+
+    public Row(String label, String details, long secondsSpent) {
+      this.label = label;
+      this.details = details;
+      this.secondsSpent = secondsSpent;
+    }
+  }
+}
@@ -11,13 +11,9 @@ import android.widget.TextView;
 
 import com.readtracker.R;
 import com.readtracker.android.db.Book;
-import com.readtracker.android.db.Session;
 import com.readtracker.android.support.ColorUtils;
-import com.readtracker.android.support.Utils;
 import com.readtracker.databinding.SessionListHeaderBinding;
 
-import java.util.List;
-
 import androidx.core.content.ContextCompat;
 
 import static com.readtracker.android.support.StringUtils.longCoarseHumanTimeFromMillis;
@@ -64,12 +60,11 @@ public class SessionHeaderViewHandler {
   public void populateForBook(Book book) {
     Log.d(TAG, "SessionHeaderView populateForBook()");
     final int color = ColorUtils.getColorForBook(book);
-    final List<Session> sessions = book.getSessions();
 
     mSegmentBar.setColor(color);
-    mSegmentBar.setStops(Utils.getSessionStops(sessions));
+    mSegmentBar.setStops(book.getSessionStops());
 
-    if(sessions.size() > 0) {
+    if(book.getSessionCount() > 0) {
       populateReadingState(book.getState(), color);
       populateClosingRemark(book.getClosingRemark());
       populateSummary(book);
@@ -115,8 +110,8 @@ public class SessionHeaderViewHandler {
   }
 
   private void populateSummary(Book book) {
-    final long secondsSpent = book.calculateSecondsSpent();
-    final int sessionCount = book.getSessions().size();
+    final long secondsSpent = book.getSecondsSpent();
+    final int sessionCount = book.getSessionCount();
 
     final Resources resources = mContext.getResources();
 
@@ -6,7 +6,6 @@ import com.j256.ormlite.table.DatabaseTable;
 import com.readtracker.android.support.Utils;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -56,11 +55,24 @@ public class Book extends Model {
   private List<Session> mSessions = new ArrayList<>();
   private List<Quote> mQuotes = new ArrayList<>();
 
+  // Aggregated session data, which can be loaded without loading the sessions
+  private BookStats mStats;
+
   public Book() { }
 
   /** Load all sessions for this book from the database. */
   public void loadSessions(DatabaseManager databaseManager) {
-    mSessions = databaseManager.getSessionsForBook(this);
+    attachSessions(databaseManager.getSessionsForBook(this));
+  }
+
+  /** Load the first page of sessions for this book, newest first. */
+  public void loadRecentSessions(DatabaseManager databaseManager, long limit) {
+    attachSessions(databaseManager.getSessionsForBook(this, null, limit));
+  }
+
+  /** Set the already loaded sessions of this book. */
+  void attachSessions(List<Session> sessions) {
+    mSessions = sessions;
     for(Session session : mSessions) {
       session.setBook(this);
     }
@@ -70,8 +82,32 @@ public class Book extends Model {
     return mSessions;
   }
 
+  /** Load the aggregated session data for this book from the database. */
+  public void loadStats(DatabaseManager databaseManager) {
+    attachStats(databaseManager.getStatsForBook(this));
+  }
+
+  /** Set the already loaded aggregated session data of this book. */
+  void attachStats(BookStats stats) {
+    mStats = stats;
+  }
+
+  /** Returns the aggregated session data, or null if it hasn't been loaded. */
+  public BookStats getStats() {
+    return mStats;
+  }
+
   public void loadQuotes(DatabaseManager databaseManager) {
-    mQuotes = databaseManager.getQuotesForBook(this);
+    attachQuotes(databaseManager.getQuotesForBook(this));
+  }
+
+  /** Load the first page of quotes for this book, newest first. */
+  public void loadRecentQuotes(DatabaseManager databaseManager, long limit) {
+    attachQuotes(databaseManager.getQuotesForBook(this, null, limit));
+  }
+
+  private void attachQuotes(List<Quote> quotes) {
+    mQuotes = quotes;
     for(Quote quote : mQuotes) {
       quote.setBook(this);
     }
@@ -92,7 +128,7 @@ public class Book extends Model {
   }
 
   @Override public int hashCode() {
-    return Arrays.hashCode(new Object[]{getTitle(), getAuthor()});
+    return 31 * getTitle().hashCode() + getAuthor().hashCode();
   }
 
   public String getTitle() { return mTitle == null ? "" : mTitle; }
@@ -193,19 +229,42 @@ public class Book extends Model {
     return totalDuration;
   }
 
-  /** Returns an estimated time left, based on the progress and time of all loaded sessions. */
+  /** Returns the total time spent, from the aggregated session data if loaded, otherwise from the loaded sessions. */
+  public long getSecondsSpent() {
+    return mStats == null ? calculateSecondsSpent() : mStats.getSecondsSpent();
+  }
+
+  /** Returns the number of sessions, from the aggregated session data if loaded, otherwise from the loaded sessions. */
+  public int getSessionCount() {
+    return mStats == null ? mSessions.size() : mStats.getSessionCount();
+  }
+
+  /** Returns the sorted session stops, from the aggregated session data if loaded, otherwise from the loaded sessions. */
+  public float[] getSessionStops() {
+    return mStats == null ? Utils.getSessionStops(mSessions) : mStats.getSessionStops();
+  }
+
+  /** Returns an estimated time left, based on the progress and time of all sessions. */
   public int calculateEstimatedSecondsLeft() {
     if(mState != State.Reading || getCurrentPosition() <= 0.0 || getCurrentPosition() >= 1.0) {
       return 0;
     }
 
-    final long secondsSpent = calculateSecondsSpent();
+    final long secondsSpent = getSecondsSpent();
     final float secondsPerPosition = secondsSpent / getCurrentPosition(); // TODO use start-end for sessions for accuracy
     final float positionsToRead = 1.0f - getCurrentPosition();
 
     return (int) (positionsToRead * secondsPerPosition);
   }
 
+  @Override Book copy() {
+    Book copy = new Book();
+    copy.mId = mId;
+    copy.merge(this);
+    copy.mColor = mColor;
+    return copy;
+  }
+
   /** Overwrite information in this book with information form another book. */
   public void merge(Book otherBook) {
     mTitle = otherBook.mTitle;
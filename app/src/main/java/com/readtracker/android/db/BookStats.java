@@ -0,0 +1,89 @@
+package com.readtracker.android.db;
+
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+
+import java.util.Arrays;
+
+/**
+ * Aggregated session data for a book.
+ * Rows are maintained by triggers on the sessions table (see DatabaseHelper), so they are always
+ * written in the same transaction as the session changes. Read only from the application.
+ */
+@DatabaseTable(tableName = "book_stats")
+public class BookStats {
+
+  /* Database fields */
+
+  @DatabaseField(id = true, columnName = Columns.BOOK_ID)
+  private int mBookId;
+
+  @DatabaseField(columnName = Columns.SECONDS_SPENT)
+  private long mSecondsSpent;
+
+  @DatabaseField(columnName = Columns.SESSION_COUNT)
+  private int mSessionCount;
+
+  @DatabaseField(columnName = Columns.FIRST_SESSION_TIMESTAMP)
+  private Long mFirstSessionTimestampMs;
+
+  @DatabaseField(columnName = Columns.LAST_SESSION_TIMESTAMP)
+  private Long mLastSessionTimestampMs;
+
+  // Comma separated end positions of all sessions, in no particular order
+  @DatabaseField(columnName = Columns.SESSION_STOPS)
+  private String mSessionStops;
+
+  /* End database fields */
+
+  private float[] mParsedSessionStops;
+
+  public BookStats() { }
+
+  /** Creates stats for a book without any sessions. */
+  BookStats(int bookId) {
+    mBookId = bookId;
+  }
+
+  public int getBookId() { return mBookId; }
+
+  public long getSecondsSpent() { return mSecondsSpent; }
+
+  public int getSessionCount() { return mSessionCount; }
+
+  public Long getFirstSessionTimestampMs() { return mFirstSessionTimestampMs; }
+
+  public Long getLastSessionTimestampMs() { return mLastSessionTimestampMs; }
+
+  /** Returns the sorted end positions of all sessions, as used by the segmented progress bar. */
+  public float[] getSessionStops() {
+    if(mParsedSessionStops == null) {
+      mParsedSessionStops = parseSessionStops(mSessionStops);
+    }
+    return mParsedSessionStops;
+  }
+
+  static float[] parseSessionStops(String sessionStops) {
+    if(sessionStops == null || sessionStops.isEmpty()) {
+      return new float[0];
+    }
+
+    final String[] parts = sessionStops.split(",");
+    float[] stops = new float[parts.length];
+    for(int i = 0; i < parts.length; i++) {
+      stops[i] = Float.parseFloat(parts[i]);
+    }
+
+    Arrays.sort(stops);
+    return stops;
+  }
+
+  public static abstract class Columns {
+    public static final String BOOK_ID = "book_id";
+    public static final String SECONDS_SPENT = "seconds_spent";
+    public static final String SESSION_COUNT = "session_count";
+    public static final String FIRST_SESSION_TIMESTAMP = "first_session_timestamp";
+    public static final String LAST_SESSION_TIMESTAMP = "last_session_timestamp";
+    public static final String SESSION_STOPS = "session_stops";
+  }
+}
@@ -0,0 +1,110 @@
+package com.readtracker.android.db;
+
+import com.j256.ormlite.dao.RawRowMapper;
+
+/**
+ * Immutable projection of a book with only the fields shown in the book lists.
+ * Loaded with a raw query, so it is much cheaper than hydrating complete Book objects.
+ */
+public final class BookSummary {
+  private final int mId;
+  private final String mTitle;
+  private final String mAuthor;
+  private final String mCoverImageUrl;
+  private final Integer mColor;
+  private final Book.State mState;
+  private final Long mCurrentPositionTimestampMs;
+  private final String mClosingRemark;
+  private final float[] mSessionStops;
+
+  BookSummary(int id, String title, String author, String coverImageUrl, Integer color,
+              Book.State state, Long currentPositionTimestampMs, String closingRemark,
+              float[] sessionStops) {
+    mId = id;
+    mTitle = title;
+    mAuthor = author;
+    mCoverImageUrl = coverImageUrl;
+    mColor = color;
+    mState = state;
+    mCurrentPositionTimestampMs = currentPositionTimestampMs;
+    mClosingRemark = closingRemark;
+    mSessionStops = sessionStops;
+  }
+
+  public int getId() { return mId; }
+
+  public String getTitle() { return mTitle == null ? "" : mTitle; }
+
+  public String getAuthor() { return mAuthor == null ? "" : mAuthor; }
+
+  public String getCoverImageUrl() { return mCoverImageUrl; }
+
+  public Integer getColor() { return mColor; }
+
+  public Book.State getState() { return mState; }
+
+  public Long getCurrentPositionTimestampMs() { return mCurrentPositionTimestampMs; }
+
+  public String getClosingRemark() { return mClosingRemark; }
+
+  /** Returns the sorted end positions of all sessions of the book. */
+  public float[] getSessionStops() { return mSessionStops; }
+
+  @Override public boolean equals(Object o) {
+    if(this == o) return true;
+    if(o instanceof BookSummary) {
+      return mId == ((BookSummary) o).mId;
+    }
+    return false;
+  }
+
+  @Override public int hashCode() {
+    return mId;
+  }
+
+  @Override public String toString() {
+    return String.format("BookSummary(%d, %s)", mId, mTitle);
+  }
+
+  /** Query that selects the columns in the order expected by ROW_MAPPER. */
+  static final String QUERY = "SELECT " +
+      "`books`.`" + Book.Columns.ID + "`, " +
+      "`books`.`" + Book.Columns.TITLE + "`, " +
+      "`books`.`" + Book.Columns.AUTHOR + "`, " +
+      "`books`.`" + Book.Columns.COVER_IMAGE_URL + "`, " +
+      "`books`.`" + Book.Columns.COLOR + "`, " +
+      "`books`.`" + Book.Columns.STATE + "`, " +
+      "`books`.`" + Book.Columns.CURRENT_POSITION_TIMESTAMP + "`, " +
+      "`books`.`" + Book.Columns.CLOSING_REMARK + "`, " +
+      "`book_stats`.`" + BookStats.Columns.SESSION_STOPS + "` " +
+      "FROM `books` LEFT JOIN `book_stats` " +
+      "ON `book_stats`.`" + BookStats.Columns.BOOK_ID + "` = `books`.`" + Book.Columns.ID + "`";
+
+  static final RawRowMapper<BookSummary> ROW_MAPPER = new RawRowMapper<BookSummary>() {
+    @Override public BookSummary mapRow(String[] columnNames, String[] columns) {
+      return new BookSummary(
+          Integer.parseInt(columns[0]),
+          columns[1],
+          columns[2],
+          columns[3],
+          columns[4] == null ? null : Integer.valueOf(columns[4]),
+          parseState(columns[5]),
+          columns[6] == null ? null : Long.valueOf(columns[6]),
+          columns[7],
+          BookStats.parseSessionStops(columns[8])
+      );
+    }
+  };
+
+  private static Book.State parseState(String stateName) {
+    if(stateName == null) {
+      return null;
+    }
+
+    try {
+      return Book.State.valueOf(stateName);
+    } catch(IllegalArgumentException e) {
+      return Book.State.Unknown;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.readtracker.android.db;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rows of books, sessions and quotes that changed since a watermark, as returned by
+ * DatabaseManager.getChangedSince(). Pass getWatermark() to the next call to get the changes
+ * made after this set was read.
+ */
+public final class ChangeSet {
+  private final long mWatermark;
+  private final List<Book> mBooks;
+  private final List<Session> mSessions;
+  private final List<Quote> mQuotes;
+  private final Set<Integer> mDeletedBookIds;
+  private final Set<Integer> mDeletedSessionIds;
+  private final Set<Integer> mDeletedQuoteIds;
+  private final Set<Integer> mBookIdsOfDeletedSessions;
+
+  ChangeSet(long watermark, List<Book> books, List<Session> sessions, List<Quote> quotes,
+            Set<Integer> deletedBookIds, Set<Integer> deletedSessionIds, Set<Integer> deletedQuoteIds,
+            Set<Integer> bookIdsOfDeletedSessions) {
+    mWatermark = watermark;
+    mBooks = books;
+    mSessions = sessions;
+    mQuotes = quotes;
+    mDeletedBookIds = deletedBookIds;
+    mDeletedSessionIds = deletedSessionIds;
+    mDeletedQuoteIds = deletedQuoteIds;
+    mBookIdsOfDeletedSessions = bookIdsOfDeletedSessions;
+  }
+
+  /** Returns the watermark to pass to getChangedSince() for the changes after this set. */
+  public long getWatermark() { return mWatermark; }
+
+  /** Returns the created or updated books. */
+  public List<Book> getBooks() { return mBooks; }
+
+  /** Returns the created or updated sessions. */
+  public List<Session> getSessions() { return mSessions; }
+
+  /** Returns the created or updated quotes. */
+  public List<Quote> getQuotes() { return mQuotes; }
+
+  public Set<Integer> getDeletedBookIds() { return mDeletedBookIds; }
+
+  public Set<Integer> getDeletedSessionIds() { return mDeletedSessionIds; }
+
+  public Set<Integer> getDeletedQuoteIds() { return mDeletedQuoteIds; }
+
+  public boolean isEmpty() {
+    return mBooks.isEmpty() && mSessions.isEmpty() && mQuotes.isEmpty() &&
+        mDeletedBookIds.isEmpty() && mDeletedSessionIds.isEmpty() && mDeletedQuoteIds.isEmpty();
+  }
+
+  /**
+   * Returns the ids of the books that were created, updated or deleted, or that had a session
+   * created, updated or deleted. These are the books whose summaries need to be reloaded.
+   */
+  public Set<Integer> getChangedBookIds() {
+    Set<Integer> bookIds = new HashSet<>(mDeletedBookIds);
+    bookIds.addAll(mBookIdsOfDeletedSessions);
+    for(Book book : mBooks) {
+      bookIds.add(book.getId());
+    }
+    for(Session session : mSessions) {
+      if(session.getBook() != null) {
+        bookIds.add(session.getBook().getId());
+      }
+    }
+    return bookIds;
+  }
+}
@@ -0,0 +1,48 @@
+package com.readtracker.android.db;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of the size of the database and how well it performs, for the diagnostics screen.
+ */
+public final class DatabaseDiagnostics {
+  private final Map<String, Long> mRowCounts;
+  private final long mDatabaseFileSize;
+  private final long mWalFileSize;
+  private final int mEntityCacheHitCount;
+  private final int mEntityCacheMissCount;
+  private final List<QueryTimings.Histogram> mHistograms;
+
+  DatabaseDiagnostics(Map<String, Long> rowCounts, long databaseFileSize, long walFileSize,
+                      int entityCacheHitCount, int entityCacheMissCount, List<QueryTimings.Histogram> histograms) {
+    mRowCounts = rowCounts;
+    mDatabaseFileSize = databaseFileSize;
+    mWalFileSize = walFileSize;
+    mEntityCacheHitCount = entityCacheHitCount;
+    mEntityCacheMissCount = entityCacheMissCount;
+    mHistograms = histograms;
+  }
+
+  /** Returns the number of rows per table, in table order. */
+  public Map<String, Long> getRowCounts() { return mRowCounts; }
+
+  /** Returns the size of the database file in bytes. */
+  public long getDatabaseFileSize() { return mDatabaseFileSize; }
+
+  /** Returns the size of the write-ahead log in bytes, 0 when it has been checkpointed away. */
+  public long getWalFileSize() { return mWalFileSize; }
+
+  public int getEntityCacheHitCount() { return mEntityCacheHitCount; }
+
+  public int getEntityCacheMissCount() { return mEntityCacheMissCount; }
+
+  /** Returns the share of get() calls served from the entity cache, between 0 and 1. */
+  public float getEntityCacheHitRate() {
+    final int lookups = mEntityCacheHitCount + mEntityCacheMissCount;
+    return lookups == 0 ? 0 : (float) mEntityCacheHitCount / lookups;
+  }
+
+  /** Returns the latencies of all timed operations, ordered by name. */
+  public List<QueryTimings.Histogram> getHistograms() { return mHistograms; }
+}
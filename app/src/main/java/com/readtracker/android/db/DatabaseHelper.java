@@ -2,59 +2,95 @@ package com.readtracker.android.db;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.j256.ormlite.android.apptools.OrmLiteSqliteOpenHelper;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
-import com.readtracker.BuildConfig;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
 
   public DatabaseHelper(Context context) {
     super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    // Lets reads run concurrently with a long write, such as an import
+    setWriteAheadLoggingEnabled(true);
   }
 
   public DatabaseHelper(Context context, String databaseName,
                         SQLiteDatabase.CursorFactory factory, int databaseVersion) {
     super(context, databaseName, factory, databaseVersion);
+    setWriteAheadLoggingEnabled(true);
   }
 
   public static final String DATABASE_NAME = "readtracker.db";
-  public static final int DATABASE_VERSION = 13;
+  public static final int DATABASE_VERSION = 19;
   private static final String TAG = DatabaseHelper.class.getName();
 
-  private Dao<LocalReading, Integer> readingDao = null;
-  private Dao<LocalSession, Integer> sessionDao = null;
-  private Dao<LocalHighlight, Integer> highlightDao = null;
+  // DAOs are looked up from both the main thread and the database threads
+  private volatile Dao<LocalReading, Integer> readingDao = null;
+  private volatile Dao<LocalSession, Integer> sessionDao = null;
+  private volatile Dao<LocalHighlight, Integer> highlightDao = null;
+  private volatile Dao<BookStats, Integer> bookStatsDao = null;
 
-  private final Map<Class<? extends Model>, Dao<? extends Model, Integer>> mDaoCache =
-      new HashMap<>();
+  private final ConcurrentMap<Class<? extends Model>, Dao<? extends Model, Integer>> mDaoCache =
+      new ConcurrentHashMap<>();
+
+  private final QueryTimings mQueryTimings = new QueryTimings();
+
+  /** Returns the timings of the operations on this database. */
+  public QueryTimings getQueryTimings() {
+    return mQueryTimings;
+  }
 
   /** Cached lookup of DAOs by class. */
   <T extends Model> Dao<T, Integer> getDaoByClass(Class<T> modelClass) {
-    if(mDaoCache.containsKey(modelClass)) {
-      //noinspection unchecked
-      return (Dao<T, Integer>) mDaoCache.get(modelClass);
+    //noinspection unchecked
+    Dao<T, Integer> dao = (Dao<T, Integer>) mDaoCache.get(modelClass);
+    if(dao != null) {
+      return dao;
     }
 
     try {
-      Dao<T, Integer> dao = getDao(modelClass);
-      mDaoCache.put(modelClass, dao);
+      // ORMLite caches DAOs itself, so concurrent misses end up with the same instance
+      dao = getDao(modelClass);
+      mDaoCache.putIfAbsent(modelClass, dao);
       return dao;
     } catch(SQLException e) {
       throw new RuntimeException("Failed to get DAO for class: " + modelClass, e);
     }
   }
 
+  /**
+   * Opens the database and creates the DAOs of the current schema. Creating a DAO reflects over
+   * the model class, so call this on a background thread at startup rather than paying for it on
+   * whichever thread happens to touch the database first.
+   */
+  public void warmUp() {
+    final String section = "DatabaseHelper.warmUp";
+    final long start = mQueryTimings.begin(section);
+    final long startMs = SystemClock.elapsedRealtime();
+    try {
+      getWritableDatabase();
+      getDaoByClass(Book.class);
+      getDaoByClass(Session.class);
+      getDaoByClass(Quote.class);
+      getBookStatsDao();
+      final int prunedCount = pruneDeletedRows(getWritableDatabase());
+      Log.d(TAG, String.format("Pruned %d deleted rows", prunedCount));
+    } catch(SQLException e) {
+      throw new RuntimeException("Failed to warm up database", e);
+    } finally {
+      mQueryTimings.end(section, start);
+    }
+    Log.d(TAG, String.format("Warmed up database in %d ms", SystemClock.elapsedRealtime() - startMs));
+  }
+
   public Dao<LocalReading, Integer> getReadingDao() throws SQLException {
     if(readingDao == null) {
       readingDao = getDao(LocalReading.class);
@@ -76,9 +112,17 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     return highlightDao;
   }
 
+  public Dao<BookStats, Integer> getBookStatsDao() throws SQLException {
+    if(bookStatsDao == null) {
+      bookStatsDao = getDao(BookStats.class);
+    }
+    return bookStatsDao;
+  }
+
   @Override
   public void onCreate(SQLiteDatabase db, ConnectionSource connectionSource) {
     Log.d(TAG, "Running database create");
+    final long start = mQueryTimings.begin("DatabaseHelper.onCreate");
     try {
       TableUtils.createTableIfNotExists(connectionSource, LocalReading.class);
       TableUtils.createTableIfNotExists(connectionSource, LocalSession.class);
@@ -87,15 +131,40 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
       TableUtils.createTableIfNotExists(connectionSource, Book.class);
       TableUtils.createTableIfNotExists(connectionSource, Session.class);
       TableUtils.createTableIfNotExists(connectionSource, Quote.class);
+      TableUtils.createTableIfNotExists(connectionSource, BookStats.class);
+
+      createIndexes(db);
+      createBookStatsTriggers(db);
+      createChangeTracking(db);
+      createSearchIndex(db);
     } catch(SQLException e) {
       Log.e(TAG, "Failed to create database: " + DATABASE_NAME);
       throw new RuntimeException(e);
+    } finally {
+      mQueryTimings.end("DatabaseHelper.onCreate", start);
     }
   }
 
+  /**
+   * Enables foreign keys on every connection, so that deleting a book cascades to its sessions and
+   * quotes. Enabled on open rather than on configure, so that the migrations run with foreign keys
+   * off, as SQLite requires for rebuilding tables that reference others.
+   */
+  @Override
+  public void onOpen(SQLiteDatabase db) {
+    super.onOpen(db);
+    db.setForeignKeyConstraintsEnabled(true);
+  }
+
+  /**
+   * Runs all migrations from oldVersion. SQLiteOpenHelper runs this in a single transaction, so
+   * the migrations are written as set based SQL statements rather than loading and saving models,
+   * which kept the upgrade dialog up for a long time on large databases.
+   */
   @Override
   public void onUpgrade(SQLiteDatabase db, ConnectionSource connectionSource, int oldVersion, int newVersion) {
     int runningVersion = oldVersion;
+    final long start = mQueryTimings.begin("DatabaseHelper.onUpgrade");
     try {
       if(runningVersion == 1) {
         _upgradeToVersion2(db, connectionSource);
@@ -149,10 +218,42 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
         runningVersion++;
       }
 
+      if(runningVersion == 13) {
+        _upgradeToVersion14(db, connectionSource);
+        runningVersion++;
+      }
+
+      if(runningVersion == 14) {
+        _upgradeToVersion15(db, connectionSource);
+        runningVersion++;
+      }
+
+      if(runningVersion == 15) {
+        _upgradeToVersion16(db);
+        runningVersion++;
+      }
+
+      if(runningVersion == 16) {
+        _upgradeToVersion17(db);
+        runningVersion++;
+      }
+
+      if(runningVersion == 17) {
+        _upgradeToVersion18(db);
+        runningVersion++;
+      }
+
+      if(runningVersion == 18) {
+        _upgradeToVersion19(db, connectionSource);
+        runningVersion++;
+      }
+
       Log.d(TAG, "Ended on running version: " + runningVersion);
     } catch(SQLException e) {
       Log.e(TAG, "Failed to upgrade database: " + DATABASE_NAME, e);
       throw new RuntimeException(e);
+    } finally {
+      mQueryTimings.end("DatabaseHelper.onUpgrade", start);
     }
   }
 
@@ -185,15 +286,15 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
 
     try {
       TableUtils.createTableIfNotExists(cs, LocalHighlight.class);
-      List<LocalReading> allLocalReadings = getReadingDao().queryForAll();
-      for(LocalReading localReading : allLocalReadings) {
-        localReading.refreshProgress();
-        getReadingDao().update(localReading);
-      }
     } catch(SQLException e) {
       Log.e(TAG, "Failed to upgrade database", e);
       throw new RuntimeException("Failed to upgrade Database", e);
     }
+
+    // Same as LocalReading.refreshProgress() for each reading with page info
+    db.execSQL("UPDATE LocalReading SET " + LocalReading.PROGRESS_FIELD_NAME + " = " +
+        "CASE WHEN currentPage > totalPages THEN 1.0 ELSE 1.0 * currentPage / totalPages END " +
+        "WHERE totalPages > 0;");
   }
 
   /**
@@ -204,56 +305,28 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
    */
   private void _upgradeToVersion4(SQLiteDatabase db, ConnectionSource connectionSource) {
     Log.i(TAG, "Running database upgrade 4");
-    try {
-      List<LocalHighlight> highlights = getHighlightDao().queryForAll();
-      // If two highlights have the same reading id, same content and same synced at: delete the one that has readmill_reading_id -1
-
-      // Group by highlighted at (most likely to be unique)
-      HashMap<Long, List<LocalHighlight>> timestampMap = new HashMap<>();
-
-      for(LocalHighlight highlight : highlights) {
-        if(highlight.highlightedAt == null) {
-          Log.w(TAG, "Found Highlight without highlightedAt - ignoring: " + highlight);
-          continue;
-        }
-
-        Long timestamp = (long) Math.floor(highlight.highlightedAt.getTime() / 1000);
-        if(!timestampMap.containsKey(timestamp)) {
-          timestampMap.put(timestamp, new ArrayList<LocalHighlight>());
-        }
-        timestampMap.get(timestamp).add(highlight);
-      }
+    removeDuplicateHighlights(db);
+  }
 
-      for(List<LocalHighlight> dupes : timestampMap.values()) {
-        if(dupes.size() == 1) {
-          continue; // not a dupe
-        }
-
-        // Only deal with a specific issue this migration
-        if(dupes.size() > 2) {
-          Log.w(TAG, "Not dupe highlight bug (but probably still a bug)");
-          continue;
-        }
-
-        LocalHighlight first = dupes.get(0);
-        LocalHighlight second = dupes.get(1);
-
-        if((first.readmillHighlightId != -1) && (second.readmillHighlightId != -1)) {
-          Log.d(TAG, "Not dupe highlight bug. Neither has Readmill Highlight id -1: " + first.readmillHighlightId + " vs. " + second.readmillHighlightId);
-          continue;
-        }
-
-        if(!first.content.equals(second.content)) {
-          Log.d(TAG, "Not dupe highlight bug. Content doesn't match: " + first.content + " vs. " + second.content);
-          continue;
-        }
-
-        Log.d(TAG, "Found dupe: " + first + " and " + second);
-        LocalHighlight highlightToDelete = first.readmillHighlightId == -1 ? first : second;
-        Log.d(TAG, "Deleting " + highlightToDelete);
-        getHighlightDao().delete(highlightToDelete);
-      }
-    } catch(SQLException e) {
+  /**
+   * Deletes the local copy of highlights that were duplicated when synced.
+   * <p/>
+   * Highlights are grouped by the second they were highlighted at. Only groups of exactly two are
+   * considered, and only if they have the same content and at least one of them was never synced
+   * (Readmill highlight id -1). The unsynced one is deleted, or the first one if neither was synced.
+   */
+  static void removeDuplicateHighlights(SQLiteDatabase db) {
+    try {
+      db.execSQL("DELETE FROM LocalHighlight WHERE id IN (" +
+          "SELECT CASE WHEN older.rm_highlight_id = -1 THEN older.id ELSE newer.id END " +
+          "FROM (SELECT min(id) AS older_id, max(id) AS newer_id FROM LocalHighlight " +
+          "WHERE highlighted_at IS NOT NULL " +
+          "GROUP BY strftime('%s', highlighted_at) HAVING count(*) = 2) AS pairs " +
+          "INNER JOIN LocalHighlight AS older ON older.id = pairs.older_id " +
+          "INNER JOIN LocalHighlight AS newer ON newer.id = pairs.newer_id " +
+          "WHERE (older.rm_highlight_id = -1 OR newer.rm_highlight_id = -1) " +
+          "AND older.content = newer.content);");
+    } catch(android.database.SQLException e) {
       Log.e(TAG, "Failed to clear old dupes", e);
     }
   }
@@ -305,38 +378,17 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
    */
   private void _upgradeToVersion9(SQLiteDatabase db, ConnectionSource connectionSource) throws SQLException {
     Log.i(TAG, "Running database upgrade 9");
+    adoptReadmillReadingIds(db);
+  }
 
-    List<LocalReading> connectedReadings = getReadingDao().queryBuilder()
-      .where()
-      .gt(LocalReading.READMILL_READING_ID_FIELD_NAME, 0).query();
-
-    Log.d(TAG, String.format("Found %d connected readings", connectedReadings.size()));
-
-    for(LocalReading localReading : connectedReadings) {
-      List<LocalSession> sessions = getLocalSessionDao().queryBuilder().where()
-        .eq(LocalSession.READING_ID_FIELD_NAME, localReading.id).query();
-
-      Log.d(TAG, String.format("Found %d sessions for reading with id %d", sessions.size(), localReading.id));
-
-      for(LocalSession session : sessions) {
-        if(session.readmillReadingId > 0) continue;
-        Log.i(TAG, String.format("Updating session %s, setting Readmill Reading id to %d", session.sessionIdentifier, localReading.readmillReadingId));
-        session.readmillReadingId = localReading.readmillReadingId;
-        getLocalSessionDao().update(session);
-      }
-
-      List<LocalHighlight> highlights = getHighlightDao().queryBuilder().where()
-        .eq(LocalHighlight.READING_ID_FIELD_NAME, localReading.id).query();
-
-      Log.d(TAG, String.format("Found %d highlights for reading with id %d", highlights.size(), localReading.id));
-
-      for(LocalHighlight highlight : highlights) {
-        if(highlight.readmillReadingId > 0) continue;
-        Log.i(TAG, String.format("Updating highlight %d, setting Readmill Reading id to %d", highlight.id, localReading.readmillReadingId));
-        highlight.readmillReadingId = localReading.readmillReadingId;
-        getHighlightDao().update(highlight);
-      }
-    }
+  static void adoptReadmillReadingIds(SQLiteDatabase db) {
+    final String connectedReadings = "SELECT id FROM LocalReading WHERE rm_reading_id > 0";
+    db.execSQL("UPDATE LocalSession SET readmillReadingId = " +
+        "(SELECT rm_reading_id FROM LocalReading WHERE LocalReading.id = LocalSession.readingId) " +
+        "WHERE readmillReadingId <= 0 AND readingId IN (" + connectedReadings + ");");
+    db.execSQL("UPDATE LocalHighlight SET rm_reading_id = " +
+        "(SELECT rm_reading_id FROM LocalReading WHERE LocalReading.id = LocalHighlight.reading_id) " +
+        "WHERE rm_reading_id <= 0 AND reading_id IN (" + connectedReadings + ");");
   }
 
   /**
@@ -357,14 +409,16 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     TableUtils.createTableIfNotExists(connectionSource, Quote.class);
 
     convertLocalReadingsToBook(db);
+    // The start position of each session is looked up from the previous session of the same
+    // reading. Without an index that is a scan of all sessions for every session.
+    db.execSQL("CREATE INDEX IF NOT EXISTS localsession_reading_progress_idx ON LocalSession (readingId, progress);");
     convertLocalSessionToSession(db);
     convertLocalHighlightToQuote(db);
   }
 
   private void _upgradeToVersion12(SQLiteDatabase db, ConnectionSource connectionSource) throws SQLException {
     Log.i(TAG, "Running database upgrade 12");
-    DatabaseManager dbMgr = new DatabaseManager(this);
-    DatabaseHelper.migrateVersion31Sessions(dbMgr);
+    migrateVersion31Sessions(db);
   }
 
   private void _upgradeToVersion13(SQLiteDatabase db, ConnectionSource connectionSource) throws SQLException {
@@ -372,28 +426,279 @@ public class DatabaseHelper extends OrmLiteSqliteOpenHelper {
     db.execSQL("ALTER TABLE `books` ADD COLUMN `book_color` INTEGER;");
   }
 
+  /**
+   * This migration adds indexes for looking up sessions and quotes by book, sessions by time and
+   * books by title.
+   */
+  private void _upgradeToVersion14(SQLiteDatabase db, ConnectionSource connectionSource) throws SQLException {
+    Log.i(TAG, "Running database upgrade 14");
+    createIndexes(db);
+  }
+
+  /** Creates the indexes of the current schema, used both when creating and upgrading. */
+  private static void createIndexes(SQLiteDatabase db) {
+    db.execSQL("CREATE INDEX IF NOT EXISTS `sessions_book_id_timestamp_idx` ON `sessions` (`book_id`, `timestamp`);");
+    db.execSQL("CREATE INDEX IF NOT EXISTS `sessions_timestamp_idx` ON `sessions` (`timestamp`);");
+    db.execSQL("CREATE INDEX IF NOT EXISTS `quotes_book_id_add_timestamp_idx` ON `quotes` (`book_id`, `add_timestamp`);");
+    // Not unique, as existing installations can have books with the same title and author
+    db.execSQL("CREATE INDEX IF NOT EXISTS `books_title_author_idx` ON `books` (`title`, `author`);");
+  }
+
+  /**
+   * This migration adds the book_stats table with aggregated session data per book, the triggers
+   * that keep it up to date and fills it from the existing sessions.
+   */
+  private void _upgradeToVersion15(SQLiteDatabase db, ConnectionSource connectionSource) throws SQLException {
+    Log.i(TAG, "Running database upgrade 15");
+    TableUtils.createTableIfNotExists(connectionSource, BookStats.class);
+    createBookStatsTriggers(db);
+    db.execSQL("INSERT OR REPLACE INTO `book_stats` " + BOOK_STATS_COLUMNS +
+        " SELECT `book_id`, " + BOOK_STATS_AGGREGATES + " FROM `sessions` GROUP BY `book_id`;");
+  }
+
+  /**
+   * This migration replaces the quote index on book_id with one on (book_id, add_timestamp), so
+   * that the quotes of a book can be paged through in time order.
+   */
+  private void _upgradeToVersion16(SQLiteDatabase db) {
+    Log.i(TAG, "Running database upgrade 16");
+    db.execSQL("DROP INDEX IF EXISTS `quotes_book_id_idx`;");
+    createIndexes(db);
+  }
+
+  /**
+   * This migration adds the updated_at columns and the deleted_rows table, so that the rows
+   * changed since a point in time can be found. The session update trigger of book_stats is
+   * narrowed to the columns it aggregates, so that stamping updated_at does not recalculate it.
+   */
+  private void _upgradeToVersion17(SQLiteDatabase db) {
+    Log.i(TAG, "Running database upgrade 17");
+    db.execSQL("DROP TRIGGER IF EXISTS `book_stats_after_session_update`;");
+    createBookStatsTriggers(db);
+    createChangeTracking(db);
+  }
+
+  // Tables whose changes are tracked with an updated_at column and deleted_rows
+  private static final String[] CHANGE_TRACKED_TABLES = {"books", "sessions", "quotes"};
+
+  // Current time in milliseconds, as SQLite does not have a function for it
+  private static final String NOW_MS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+  /**
+   * Adds the updated_at column to the tracked tables, along with triggers that stamp it on every
+   * insert and update, and record deletes in deleted_rows together with the id of the book the
+   * row belonged to. Existing rows are left at 0.
+   */
+  private static void createChangeTracking(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE IF NOT EXISTS `" + DELETED_ROWS_TABLE + "` (" +
+        "`" + DeletedRowColumns.TABLE_NAME + "` TEXT NOT NULL, " +
+        "`" + DeletedRowColumns.ROW_ID + "` INTEGER NOT NULL, " +
+        "`" + DeletedRowColumns.BOOK_ID + "` INTEGER, " +
+        "`" + DeletedRowColumns.DELETED_AT + "` INTEGER NOT NULL);");
+    db.execSQL("CREATE INDEX IF NOT EXISTS `deleted_rows_deleted_at_idx` ON `" + DELETED_ROWS_TABLE + "` " +
+        "(`" + DeletedRowColumns.DELETED_AT + "`);");
+
+    for(String table : CHANGE_TRACKED_TABLES) {
+      addUpdatedAtColumn(db, table);
+      createChangeTrackingTriggers(db, table);
+    }
+  }
+
+  private static void addUpdatedAtColumn(SQLiteDatabase db, String table) {
+    db.execSQL("ALTER TABLE `" + table + "` ADD COLUMN `" + Model.Columns.UPDATED_AT + "` INTEGER NOT NULL DEFAULT 0;");
+  }
+
+  /** Creates the updated_at index and the change tracking triggers of one table. */
+  private static void createChangeTrackingTriggers(SQLiteDatabase db, String table) {
+    // Deleted sessions and quotes remember their book, so that it can be refreshed
+    final String bookIdColumn = table.equals("books") ? "old.`id`" : "old.`book_id`";
+    db.execSQL("CREATE INDEX IF NOT EXISTS `" + table + "_updated_at_idx` ON `" + table + "` (`" + Model.Columns.UPDATED_AT + "`);");
+
+    final String stampStatement = "UPDATE `" + table + "` SET `" + Model.Columns.UPDATED_AT + "` = " + NOW_MS +
+        " WHERE `id` = new.`id`; ";
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `" + table + "_updated_at_after_insert` AFTER INSERT ON `" + table + "` BEGIN " +
+        stampStatement +
+        "END;");
+    // The condition keeps the trigger from firing for its own update
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `" + table + "_updated_at_after_update` AFTER UPDATE ON `" + table + "` " +
+        "WHEN new.`" + Model.Columns.UPDATED_AT + "` IS old.`" + Model.Columns.UPDATED_AT + "` BEGIN " +
+        stampStatement +
+        "END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `" + table + "_deleted_rows_after_delete` AFTER DELETE ON `" + table + "` BEGIN " +
+        "INSERT INTO `" + DELETED_ROWS_TABLE + "` (`" + DeletedRowColumns.TABLE_NAME + "`, `" +
+        DeletedRowColumns.ROW_ID + "`, `" + DeletedRowColumns.BOOK_ID + "`, `" + DeletedRowColumns.DELETED_AT + "`) " +
+        "VALUES ('" + table + "', old.`id`, " + bookIdColumn + ", " + NOW_MS + "); " +
+        "END;");
+  }
+
+  /**
+   * Table with the ids of rows deleted from the change tracked tables.
+   * <p/>
+   * Every delete adds a row, including the sessions and quotes deleted along with their book, so
+   * rows older than DELETED_ROWS_RETENTION_MS are pruned when the database is warmed up. Changes
+   * must therefore be read with getChangedSince() from a watermark within the retention window,
+   * or the deletes before the window are missed. The catalogue only keeps its watermark for as
+   * long as the app runs, and an incremental backup with an older watermark starts a new base.
+   */
+  static final String DELETED_ROWS_TABLE = "deleted_rows";
+
+  /** How long deleted rows are kept in deleted_rows. */
+  public static final long DELETED_ROWS_RETENTION_MS = 90L * 24 * 60 * 60 * 1000;
+
+  /** Deletes the rows of deleted_rows older than the retention window, and returns their number. */
+  static int pruneDeletedRows(SQLiteDatabase db) {
+    return db.delete(DELETED_ROWS_TABLE,
+        "`" + DeletedRowColumns.DELETED_AT + "` < " + NOW_MS + " - " + DELETED_ROWS_RETENTION_MS, null);
+  }
+
+  static abstract class DeletedRowColumns {
+    static final String TABLE_NAME = "table_name";
+    static final String ROW_ID = "row_id";
+    static final String BOOK_ID = "book_id";
+    static final String DELETED_AT = "deleted_at";
+  }
+
+  /**
+   * This migration adds the full text search index over book titles and authors and quote
+   * contents, and fills it from the existing rows.
+   */
+  private void _upgradeToVersion18(SQLiteDatabase db) {
+    Log.i(TAG, "Running database upgrade 18");
+    createSearchIndex(db);
+    db.execSQL("INSERT INTO `" + SearchIndex.BOOKS_TABLE + "` (`docid`, `title`, `author`) " +
+        "SELECT `id`, `title`, `author` FROM `books`;");
+    db.execSQL("INSERT INTO `" + SearchIndex.QUOTES_TABLE + "` (`docid`, `content`) " +
+        "SELECT `id`, `content` FROM `quotes`;");
+  }
+
+  /**
+   * Creates the FTS4 tables of the search index, and the triggers that keep them in sync. The
+   * docid of an index row is the id of the book or quote it was made from.
+   */
+  private static void createSearchIndex(SQLiteDatabase db) {
+    db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `" + SearchIndex.BOOKS_TABLE + "` USING fts4(`title`, `author`);");
+    db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `" + SearchIndex.QUOTES_TABLE + "` USING fts4(`content`);");
+
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `books_fts_after_insert` AFTER INSERT ON `books` BEGIN " +
+        "INSERT INTO `" + SearchIndex.BOOKS_TABLE + "` (`docid`, `title`, `author`) VALUES (new.`id`, new.`title`, new.`author`); " +
+        "END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `books_fts_after_update` AFTER UPDATE OF `title`, `author` ON `books` BEGIN " +
+        "UPDATE `" + SearchIndex.BOOKS_TABLE + "` SET `title` = new.`title`, `author` = new.`author` WHERE `docid` = new.`id`; " +
+        "END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `books_fts_after_delete` AFTER DELETE ON `books` BEGIN " +
+        "DELETE FROM `" + SearchIndex.BOOKS_TABLE + "` WHERE `docid` = old.`id`; " +
+        "END;");
+
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `quotes_fts_after_insert` AFTER INSERT ON `quotes` BEGIN " +
+        "INSERT INTO `" + SearchIndex.QUOTES_TABLE + "` (`docid`, `content`) VALUES (new.`id`, new.`content`); " +
+        "END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `quotes_fts_after_update` AFTER UPDATE OF `content` ON `quotes` BEGIN " +
+        "UPDATE `" + SearchIndex.QUOTES_TABLE + "` SET `content` = new.`content` WHERE `docid` = new.`id`; " +
+        "END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `quotes_fts_after_delete` AFTER DELETE ON `quotes` BEGIN " +
+        "DELETE FROM `" + SearchIndex.QUOTES_TABLE + "` WHERE `docid` = old.`id`; " +
+        "END;");
+  }
+
+  /**
+   * This migration rebuilds the sessions and quotes tables with a foreign key that references the
+   * id of books, rather than the non-existing _id column, so that deleting a book cascades to its
+   * sessions and quotes. Sessions and quotes of books that have already been deleted are purged.
+   * Dropping the old tables drops their indexes and triggers, so those are recreated.
+   */
+  private void _upgradeToVersion19(SQLiteDatabase db, ConnectionSource connectionSource) throws SQLException {
+    Log.i(TAG, "Running database upgrade 19");
+    rebuildWithBookForeignKey(db, connectionSource, Session.class, "sessions",
+        "`id`, `book_id`, `start_position`, `end_position`, `duration_seconds`, `timestamp`, `updated_at`");
+    rebuildWithBookForeignKey(db, connectionSource, Quote.class, "quotes",
+        "`id`, `book_id`, `content`, `add_timestamp`, `position`, `updated_at`");
+
+    db.execSQL("DELETE FROM `book_stats` WHERE `book_id` NOT IN (SELECT `id` FROM `books`);");
+    db.execSQL("DELETE FROM `" + SearchIndex.QUOTES_TABLE + "` WHERE `docid` NOT IN (SELECT `id` FROM `quotes`);");
+
+    createIndexes(db);
+    createBookStatsTriggers(db);
+    createChangeTrackingTriggers(db, "sessions");
+    createChangeTrackingTriggers(db, "quotes");
+    createSearchIndex(db);
+  }
+
+  /**
+   * Replaces a table of rows belonging to a book with one created from the model class, copying
+   * the given columns of the rows whose book still exists. The new table has no triggers yet, so
+   * the copy does not touch book_stats, updated_at or the search index.
+   */
+  private static void rebuildWithBookForeignKey(SQLiteDatabase db, ConnectionSource connectionSource,
+                                                Class<? extends Model> modelClass, String table,
+                                                String columns) throws SQLException {
+    db.execSQL("ALTER TABLE `" + table + "` RENAME TO `" + table + "_old`;");
+    TableUtils.createTable(connectionSource, modelClass);
+    addUpdatedAtColumn(db, table);
+    db.execSQL("INSERT INTO `" + table + "` (" + columns + ") SELECT " + columns + " FROM `" + table + "_old` " +
+        "WHERE `book_id` IN (SELECT `id` FROM `books`);");
+    // Keep the id sequence, so that ids of deleted rows are not handed out again
+    db.execSQL("DELETE FROM `sqlite_sequence` WHERE `name` = '" + table + "';");
+    db.execSQL("INSERT INTO `sqlite_sequence` (`name`, `seq`) " +
+        "SELECT '" + table + "', `seq` FROM `sqlite_sequence` WHERE `name` = '" + table + "_old';");
+    db.execSQL("DROP TABLE `" + table + "_old`;");
+  }
+
+  private static final String BOOK_STATS_COLUMNS = "(`book_id`, `seconds_spent`, `session_count`, " +
+      "`first_session_timestamp`, `last_session_timestamp`, `session_stops`)";
+
+  private static final String BOOK_STATS_AGGREGATES = "ifnull(sum(`duration_seconds`), 0), count(*), " +
+      "min(`timestamp`), max(`timestamp`), group_concat(`end_position`)";
+
+  /** Returns a statement that recalculates the book_stats row of a book from all its sessions. */
+  private static String recalculateBookStatsStatement(String bookIdExpression) {
+    return "INSERT OR REPLACE INTO `book_stats` " + BOOK_STATS_COLUMNS +
+        " SELECT " + bookIdExpression + ", " + BOOK_STATS_AGGREGATES +
+        " FROM `sessions` WHERE `book_id` = " + bookIdExpression + ";";
+  }
+
+  /**
+   * Creates the triggers that maintain the book_stats table.
+   * Inserts, by far the most common write, update the aggregates in place. Updates and deletes
+   * recalculate the aggregates of the affected books.
+   */
+  private static void createBookStatsTriggers(SQLiteDatabase db) {
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `book_stats_after_session_insert` AFTER INSERT ON `sessions` BEGIN " +
+        "INSERT OR IGNORE INTO `book_stats` (`book_id`, `seconds_spent`, `session_count`) VALUES (new.`book_id`, 0, 0); " +
+        "UPDATE `book_stats` SET " +
+        "`seconds_spent` = `seconds_spent` + new.`duration_seconds`, " +
+        "`session_count` = `session_count` + 1, " +
+        "`first_session_timestamp` = min(ifnull(`first_session_timestamp`, new.`timestamp`), new.`timestamp`), " +
+        "`last_session_timestamp` = max(ifnull(`last_session_timestamp`, new.`timestamp`), new.`timestamp`), " +
+        "`session_stops` = ifnull(`session_stops` || ',', '') || new.`end_position` " +
+        "WHERE `book_id` = new.`book_id`; " +
+        "END;");
+
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `book_stats_after_session_update` " +
+        "AFTER UPDATE OF `book_id`, `duration_seconds`, `timestamp`, `end_position` ON `sessions` BEGIN " +
+        recalculateBookStatsStatement("old.`book_id`") + " " +
+        recalculateBookStatsStatement("new.`book_id`") + " " +
+        "END;");
+
+    // Sessions deleted along with their book leave the recalculation to the book delete trigger
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `book_stats_after_session_delete` AFTER DELETE ON `sessions` " +
+        "WHEN EXISTS (SELECT 1 FROM `books` WHERE `id` = old.`book_id`) BEGIN " +
+        recalculateBookStatsStatement("old.`book_id`") + " " +
+        "END;");
+
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS `book_stats_after_book_delete` AFTER DELETE ON `books` BEGIN " +
+        "DELETE FROM `book_stats` WHERE `book_id` = old.`id`; " +
+        "END;");
+  }
+
   /** Helper method for migrating sessions with timestamps from the broken 3.1 version. */
-  static void migrateVersion31Sessions(DatabaseManager databaseManager) {
+  static void migrateVersion31Sessions(SQLiteDatabase db) {
     // Version 3.1 had a bug where the session would get set in seconds, rather than milliseconds.
     // This caused some sessions to be timestamped somewhere in the early 1970 (~17 January).
     // We fix this by finding any session that has a timestamp < 1971 and bumping them by
     // 1000x. 1971 is somewhat arbitrary, but it's close enough to 0 (Jan 1st, 1970) that we have
     // a very low chance of bumping timestamps from sessions users have back dated.
-    List<Session> sessions = databaseManager.getAll(Session.class);
     final long JAN_1ST_1971 = 31536000000L;
-    for(Session session : sessions) {
-      if(session.getTimestampMs() < JAN_1ST_1971) {
-        // Most likely a session with a timestamp affected by the 3.1 bug, bump it into the present.
-        if(BuildConfig.DEBUG) {
-          Log.i(TAG, String.format("Bumping timestamp of session: %d, from %s to %s",
-              session.getId(),
-              new Date(session.getTimestampMs()),
-              new Date(session.getTimestampMs() * 1000)));
-        }
-        session.setTimestampMs(session.getTimestampMs() * 1000);
-        databaseManager.save(session);
-      }
-    }
+    db.execSQL("UPDATE `sessions` SET `timestamp` = `timestamp` * 1000 WHERE `timestamp` < " + JAN_1ST_1971 + ";");
   }
 
   private void convertLocalReadingsToBook(SQLiteDatabase db) {
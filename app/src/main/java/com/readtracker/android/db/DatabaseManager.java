@@ -1,14 +1,39 @@
 package com.readtracker.android.db;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.j256.ormlite.dao.CloseableIterator;
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.QueryBuilder;
 import com.j256.ormlite.stmt.SelectArg;
+import com.j256.ormlite.stmt.Where;
+import com.squareup.otto.Bus;
 
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Helper class for facilitating database access.
@@ -16,16 +41,112 @@ import java.util.List;
 public class DatabaseManager {
   private static final String TAG = DatabaseManager.class.getSimpleName();
 
+  /** Number of sessions or quotes loaded per page in the book screens. */
+  public static final int PAGE_SIZE = 50;
+
   private final DatabaseHelper db;
 
+  static final String CHANGE_WATERMARK_QUERY = "SELECT max(" +
+      "ifnull((SELECT max(`" + Model.Columns.UPDATED_AT + "`) FROM `books`), 0), " +
+      "ifnull((SELECT max(`" + Model.Columns.UPDATED_AT + "`) FROM `sessions`), 0), " +
+      "ifnull((SELECT max(`" + Model.Columns.UPDATED_AT + "`) FROM `quotes`), 0), " +
+      "ifnull((SELECT max(`" + DatabaseHelper.DeletedRowColumns.DELETED_AT + "`) FROM `" +
+      DatabaseHelper.DELETED_ROWS_TABLE + "`), 0))";
+
+  static final String DELETED_ROWS_QUERY = "SELECT `" + DatabaseHelper.DeletedRowColumns.TABLE_NAME + "`, `" +
+      DatabaseHelper.DeletedRowColumns.ROW_ID + "`, `" + DatabaseHelper.DeletedRowColumns.BOOK_ID + "` " +
+      "FROM `" + DatabaseHelper.DELETED_ROWS_TABLE + "` " +
+      "WHERE `" + DatabaseHelper.DeletedRowColumns.DELETED_AT + "` BETWEEN ? AND ?";
+
+  /** Receives the models of a forEach() pass one at a time. */
+  public interface Visitor<T> {
+    void visit(T item);
+  }
+
+  // Identity map for get(), null when disabled
+  @Nullable private final EntityCache mEntityCache;
+
+  private final ReadingStatistics mStatistics;
+
+  // Shared with the helper, so that both show up on the diagnostics screen
+  private final QueryTimings mTimings;
+
+  // Timing section names of the operations that take a model class
+  private static final SectionNames GET_SECTIONS = new SectionNames("DatabaseManager.get");
+  private static final SectionNames GET_ALL_SECTIONS = new SectionNames("DatabaseManager.getAll");
+  private static final SectionNames FOR_EACH_SECTIONS = new SectionNames("DatabaseManager.forEach");
+  private static final SectionNames SAVE_SECTIONS = new SectionNames("DatabaseManager.save");
+  private static final SectionNames DELETE_SECTIONS = new SectionNames("DatabaseManager.delete");
+
+  // Bus that change events are posted to on the main thread, null when not publishing
+  @Nullable private Bus mBus;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+  // Change events of the transaction running on the current thread, posted once it commits
+  private final ThreadLocal<Set<BookChangeEvent>> mTransactionEvents = new ThreadLocal<>();
+
   public DatabaseManager(DatabaseHelper databaseHelper) {
+    this(databaseHelper, 0);
+  }
+
+  /**
+   * Creates a manager that caches up to entityCacheSize models returned by get().
+   * A size of 0 disables the cache.
+   */
+  public DatabaseManager(DatabaseHelper databaseHelper, int entityCacheSize) {
     db = databaseHelper;
+    mEntityCache = entityCacheSize > 0 ? new EntityCache(entityCacheSize) : null;
+    mTimings = databaseHelper.getQueryTimings();
+    mStatistics = new ReadingStatistics(databaseHelper);
   }
 
   /**
    * Returns the single model of a class with the id, or null if id did not exist.
+   * When the entity cache is enabled, repeated calls are served from it until the model is saved or
+   * deleted. Every call returns a new instance, which the caller is free to change.
    */
   @Nullable public <T extends Model> T get(Class<T> modelClass, int id) {
+    final String section = GET_SECTIONS.forClass(modelClass);
+    final long start = mTimings.begin(section);
+    try {
+      if(mEntityCache == null) {
+        return queryForId(modelClass, id);
+      }
+
+      T instance = mEntityCache.get(modelClass, id);
+      if(instance == null) {
+        final int generation = mEntityCache.getGeneration();
+        instance = queryForId(modelClass, id);
+        if(instance != null) {
+          mEntityCache.put(instance, generation);
+        }
+      }
+      return instance;
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /**
+   * Posts a BookChangeEvent to the bus for every book, session and quote written through this
+   * manager. Events are posted on the main thread, and events of a transaction only after it
+   * has committed.
+   */
+  public void setBus(@Nullable Bus bus) {
+    mBus = bus;
+  }
+
+  /** Returns the number of get() calls served from the entity cache. */
+  public int getEntityCacheHitCount() {
+    return mEntityCache == null ? 0 : mEntityCache.getHitCount();
+  }
+
+  /** Returns the number of get() calls that had to go to the database despite the entity cache. */
+  public int getEntityCacheMissCount() {
+    return mEntityCache == null ? 0 : mEntityCache.getMissCount();
+  }
+
+  @Nullable private <T extends Model> T queryForId(Class<T> modelClass, int id) {
     Dao<T, Integer> dao = db.getDaoByClass(modelClass);
     try {
       return dao.queryForId(id);
@@ -45,11 +166,224 @@ public class DatabaseManager {
    * Returns all persisted models of a class.
    */
   public <T extends Model> List<T> getAll(Class<T> modelClass) {
-    Dao<T, Integer> dao = db.getDaoByClass(modelClass);
+    final String section = GET_ALL_SECTIONS.forClass(modelClass);
+    final long start = mTimings.begin(section);
     try {
+      Dao<T, Integer> dao = db.getDaoByClass(modelClass);
       return dao.queryForAll();
     } catch(SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /**
+   * Visits all persisted models of a class in id order, reading them from a cursor rather than
+   * loading them into a list first. Only the current model needs to be kept in memory.
+   */
+  public <T extends Model> void forEach(Class<T> modelClass, Visitor<? super T> visitor) {
+    final String section = FOR_EACH_SECTIONS.forClass(modelClass);
+    final long start = mTimings.begin(section);
+    try {
+      visitAll(allByIdQuery(modelClass), visitor);
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /**
+   * Same as forEach(), but reads the models in batches of batchSize, so that the cursor is closed
+   * between batches. Long passes then do not hold a read connection for the whole table.
+   */
+  public <T extends Model> void forEach(Class<T> modelClass, int batchSize, Visitor<? super T> visitor) {
+    final String section = FOR_EACH_SECTIONS.forClass(modelClass);
+    final long start = mTimings.begin(section);
+    try {
+      if(batchSize <= 0) {
+        throw new IllegalArgumentException("Batch size must be positive, was " + batchSize);
+      }
+
+      BatchVisitor<T> batchVisitor = new BatchVisitor<>(visitor);
+      do {
+        QueryBuilder<T, Integer> batchQuery = allByIdQuery(modelClass);
+        batchQuery.where().gt(Model.Columns.ID, batchVisitor.lastId);
+        batchQuery.limit((long) batchSize);
+        batchVisitor.count = 0;
+        visitAll(batchQuery, batchVisitor);
+      } while(batchVisitor.count == batchSize);
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /**
+   * Returns all persisted books with their sessions loaded.
+   * Uses one query for the books and one for all sessions, rather than one session query per book.
+   */
+  public List<Book> getAllBooksWithSessions() {
+    final String section = "DatabaseManager.getAllBooksWithSessions";
+    final long start = mTimings.begin(section);
+    try {
+      List<Book> books = getAll(Book.class);
+
+      final List<Session> sessions = db.getDaoByClass(Session.class).queryBuilder()
+          .orderBy(Session.Columns.ID, true)
+          .query();
+
+      Map<Integer, List<Session>> sessionsByBookId = new HashMap<>();
+      for(Session session : sessions) {
+        final int bookId = session.getBook().getId();
+        List<Session> sessionsForBook = sessionsByBookId.get(bookId);
+        if(sessionsForBook == null) {
+          sessionsForBook = new ArrayList<>();
+          sessionsByBookId.put(bookId, sessionsForBook);
+        }
+        sessionsForBook.add(session);
+      }
+
+      for(Book book : books) {
+        List<Session> sessionsForBook = sessionsByBookId.get(book.getId());
+        book.attachSessions(sessionsForBook == null ? new ArrayList<Session>() : sessionsForBook);
+      }
+
+      return books;
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /**
+   * Returns all persisted books with their aggregated session data attached, but without loading
+   * the sessions themselves.
+   */
+  public List<Book> getAllBooksWithStats() {
+    final String section = "DatabaseManager.getAllBooksWithStats";
+    final long start = mTimings.begin(section);
+    try {
+      List<Book> books = getAll(Book.class);
+
+      final List<BookStats> allStats = db.getBookStatsDao().queryForAll();
+
+      Map<Integer, BookStats> statsByBookId = new HashMap<>();
+      for(BookStats stats : allStats) {
+        statsByBookId.put(stats.getBookId(), stats);
+      }
+
+      for(Book book : books) {
+        BookStats stats = statsByBookId.get(book.getId());
+        book.attachStats(stats == null ? new BookStats(book.getId()) : stats);
+      }
+
+      return books;
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /**
+   * Returns summaries of all persisted books, with only the fields needed by the book lists.
+   */
+  public List<BookSummary> getAllBookSummaries() {
+    final String section = "DatabaseManager.getAllBookSummaries";
+    final long start = mTimings.begin(section);
+    try {
+      return db.getDaoByClass(Book.class)
+          .queryRaw(BookSummary.QUERY, BookSummary.ROW_MAPPER)
+          .getResults();
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /**
+   * Returns summaries of the books with the given ids. Ids of books that do not exist are skipped.
+   */
+  public List<BookSummary> getBookSummaries(Collection<Integer> bookIds) {
+    final String section = "DatabaseManager.getBookSummaries";
+    final long start = mTimings.begin(section);
+    try {
+      if(bookIds.isEmpty()) {
+        return new ArrayList<>();
+      }
+
+      return db.getDaoByClass(Book.class)
+          .queryRaw(bookSummariesQuery(bookIds), BookSummary.ROW_MAPPER)
+          .getResults();
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /**
+   * Returns the current change watermark, the latest time any book, session or quote was written
+   * or deleted. Load data after reading the watermark, and pass it to getChangedSince() later to
+   * find what changed since.
+   */
+  public long getChangeWatermark() {
+    final String section = "DatabaseManager.getChangeWatermark";
+    final long start = mTimings.begin(section);
+    try {
+      return db.getDaoByClass(Book.class).queryRawValue(CHANGE_WATERMARK_QUERY);
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /**
+   * Returns the books, sessions and quotes that were written or deleted at or after the watermark.
+   * Rows written at exactly the watermark may be returned again by the next call, so applying a
+   * change set should not depend on seeing each change only once. Changes are ordered by the
+   * wall clock, so changes made while the clock was set back can be missed.
+   */
+  public ChangeSet getChangedSince(long watermark) {
+    final String section = "DatabaseManager.getChangedSince";
+    final long start = mTimings.begin(section);
+    try {
+      // Everything up to the upper bound is read, later changes are left for the next call
+      final long upperBound = getChangeWatermark();
+      final Set<Integer> deletedBookIds = new HashSet<>();
+      final Set<Integer> deletedSessionIds = new HashSet<>();
+      final Set<Integer> deletedQuoteIds = new HashSet<>();
+      final Set<Integer> bookIdsOfDeletedSessions = new HashSet<>();
+      for(String[] row : db.getDaoByClass(Book.class).queryRaw(DELETED_ROWS_QUERY,
+          String.valueOf(watermark), String.valueOf(upperBound)).getResults()) {
+        final int rowId = Integer.parseInt(row[1]);
+        if("books".equals(row[0])) {
+          deletedBookIds.add(rowId);
+        } else if("sessions".equals(row[0])) {
+          deletedSessionIds.add(rowId);
+          if(row[2] != null) bookIdsOfDeletedSessions.add(Integer.parseInt(row[2]));
+        } else if("quotes".equals(row[0])) {
+          deletedQuoteIds.add(rowId);
+        }
+      }
+
+      return new ChangeSet(
+          upperBound,
+          changedSinceQuery(Book.class, watermark, upperBound).query(),
+          changedSinceQuery(Session.class, watermark, upperBound).query(),
+          changedSinceQuery(Quote.class, watermark, upperBound).query(),
+          deletedBookIds, deletedSessionIds, deletedQuoteIds, bookIdsOfDeletedSessions
+      );
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
     }
   }
 
@@ -58,49 +392,130 @@ public class DatabaseManager {
    * @return true if saved or created.
    */
   public <T extends Model> boolean save(T instance) {
-    @SuppressWarnings("unchecked")
-    Dao<T, Integer> dao = (Dao<T, Integer>) db.getDaoByClass(instance.getClass());
-
+    final String section = SAVE_SECTIONS.forClass(instance.getClass());
+    final long start = mTimings.begin(section);
     try {
-      if(instance.getId() > 0) {
-        dao.update(instance);
-      } else {
+      Dao<T, Integer> dao = getDaoForInstance(instance);
+
+      final boolean created = instance.getId() <= 0;
+      if(created) {
         dao.create(instance);
+      } else {
+        dao.update(instance);
       }
+      invalidateCachedEntity(instance);
+      publishChange(instance, created ? ChangeType.CREATED : ChangeType.UPDATED);
       return true;
     } catch(SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
     }
   }
 
   /**
-   * Saves all instances to the database.
+   * Saves all instances to the database in a single transaction.
+   * New instances are created before existing ones are updated, but the relative order within
+   * each group is kept, so a parent model can be passed before the models referencing it.
    */
-  public <T extends Model> void saveAll(List<T> items) {
-    for(T item : items) {
-      save(item);
+  public <T extends Model> void saveAll(final List<T> items) {
+    final String section = "DatabaseManager.saveAll";
+    final long start = mTimings.begin(section);
+    try {
+      final List<T> itemsToCreate = new ArrayList<>();
+      final List<T> itemsToUpdate = new ArrayList<>();
+      for(T item : items) {
+        if(item.getId() > 0) {
+          itemsToUpdate.add(item);
+        } else {
+          itemsToCreate.add(item);
+        }
+      }
+
+      final long startedAt = SystemClock.elapsedRealtime();
+      callInTransaction(new Callable<Void>() {
+        @Override public Void call() throws SQLException {
+          for(T item : itemsToCreate) {
+            getDaoForInstance(item).create(item);
+            publishChange(item, ChangeType.CREATED);
+          }
+          for(T item : itemsToUpdate) {
+            getDaoForInstance(item).update(item);
+            invalidateCachedEntity(item);
+            publishChange(item, ChangeType.UPDATED);
+          }
+          return null;
+        }
+      });
+
+      Log.d(TAG, String.format("Saved batch of %d (created: %d, updated: %d) in %d ms",
+          items.size(), itemsToCreate.size(), itemsToUpdate.size(),
+          SystemClock.elapsedRealtime() - startedAt));
+    } finally {
+      mTimings.end(section, start);
     }
   }
 
   /**
-   * Saves all instances to the database.
+   * Saves all instances to the database in a single transaction.
    */
   public <T extends Model> void saveAll(T... items) {
-    for(T item : items) {
-      save(item);
-    }
+    saveAll(Arrays.asList(items));
   }
 
+  /**
+   * Runs the callable inside a database transaction. The transaction is rolled back if the
+   * callable throws.
+   */
+  public <R> R callInTransaction(Callable<R> callable) {
+    final String section = "DatabaseManager.callInTransaction";
+    final boolean isOutermost = mTransactionEvents.get() == null;
+    if(isOutermost) {
+      mTransactionEvents.set(new LinkedHashSet<BookChangeEvent>());
+    }
 
-  public <T extends Model> boolean delete(T instance) {
-    @SuppressWarnings("unchecked")
-    Dao<T, Integer> dao = (Dao<T, Integer>) db.getDaoByClass(instance.getClass());
+    final long start = mTimings.begin(section);
+    try {
+      R result = TransactionManager.callInTransaction(db.getConnectionSource(), callable);
+      if(isOutermost) {
+        for(BookChangeEvent event : mTransactionEvents.get()) {
+          postOnMainThread(event);
+        }
+      }
+      return result;
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      if(isOutermost) {
+        mTransactionEvents.remove();
+      }
+      mTimings.end(section, start);
+    }
+  }
 
+  /**
+   * Deletes the instance from the database. Deleting a book deletes its sessions and quotes in
+   * the same statement, through the foreign keys of their tables.
+   */
+  public <T extends Model> boolean delete(T instance) {
+    final String section = DELETE_SECTIONS.forClass(instance.getClass());
+    final long start = mTimings.begin(section);
     try {
+      Dao<T, Integer> dao = getDaoForInstance(instance);
+
       dao.delete(instance);
+      if(instance instanceof Book && mEntityCache != null) {
+        // Drop everything, as cached sessions and quotes of the book are gone as well
+        mEntityCache.invalidateAll();
+      } else {
+        invalidateCachedEntity(instance);
+      }
+      publishChange(instance, ChangeType.DELETED);
       return true;
     } catch(SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
     }
   }
 
@@ -108,12 +523,14 @@ public class DatabaseManager {
    * Returns all Sessions belonging to the Book.
    */
   public List<Session> getSessionsForBook(Book book) {
+    final String section = "DatabaseManager.getSessionsForBook";
+    final long start = mTimings.begin(section);
     try {
-      return db.getDaoByClass(Session.class).queryBuilder()
-        .where().eq(Session.Columns.BOOK_ID, book.getId())
-        .query();
+      return sessionsForBookQuery(book).query();
     } catch(SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
     }
   }
 
@@ -121,26 +538,507 @@ public class DatabaseManager {
    * Returns all Quotes belonging to the Book.
    */
   public List<Quote> getQuotesForBook(Book book) {
+    final String section = "DatabaseManager.getQuotesForBook";
+    final long start = mTimings.begin(section);
     try {
-      return db.getDaoByClass(Quote.class).queryBuilder()
-        .where().eq(Quote.Columns.BOOK_ID, book.getId())
-        .query();
+      return quotesForBookQuery(book).query();
     } catch(SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
     }
+  }
 
+  /**
+   * Returns up to limit Sessions of the Book, newest first, that come after the given session in
+   * that order. Pass null to get the first page, and the last session of a page to get the next.
+   */
+  public List<Session> getSessionsForBook(Book book, @Nullable Session before, long limit) {
+    final String section = "DatabaseManager.getSessionsForBook(page)";
+    final long start = mTimings.begin(section);
+    try {
+      return sessionsForBookPageQuery(book, before, limit).query();
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /**
+   * Returns up to limit Quotes of the Book, newest first, that come after the given quote in
+   * that order. Pass null to get the first page, and the last quote of a page to get the next.
+   */
+  public List<Quote> getQuotesForBook(Book book, @Nullable Quote before, long limit) {
+    final String section = "DatabaseManager.getQuotesForBook(page)";
+    final long start = mTimings.begin(section);
+    try {
+      return quotesForBookPageQuery(book, before, limit).query();
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
   }
 
-  /** Returns true if the database contains a book with the given title, false otherwise. */
-  public boolean isUniqueTitle(String title) {
+  /**
+   * Returns the aggregated session data of the Book.
+   */
+  public BookStats getStatsForBook(Book book) {
+    final String section = "DatabaseManager.getStatsForBook";
+    final long start = mTimings.begin(section);
     try {
-      SelectArg titleArg = new SelectArg();
-      titleArg.setValue(title);
-      return db.getDaoByClass(Book.class).queryBuilder()
-          .where().eq(Book.Columns.TITLE, titleArg)
-          .countOf() == 0;
+      BookStats stats = db.getBookStatsDao().queryForId(book.getId());
+      return stats == null ? new BookStats(book.getId()) : stats;
     } catch(SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /**
+   * Returns the titles of all books that are either baseTitle, or start with a parenthesis and end
+   * with baseTitle, such as "(2) baseTitle". Loaded with one query, so that a free "(n) baseTitle"
+   * can be picked without querying for each candidate.
+   */
+  public Set<String> getTitlesWithBase(String baseTitle) {
+    final String section = "DatabaseManager.getTitlesWithBase";
+    final long start = mTimings.begin(section);
+    try {
+      Set<String> titles = new HashSet<>();
+      for(Book book : titlesWithBaseQuery(baseTitle).query()) {
+        titles.add(book.getTitle());
+      }
+      return titles;
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /** Returns the aggregated reading statistics of the library. */
+  public ReadingStatistics getStatistics() {
+    return mStatistics;
+  }
+
+  /** Returns the timings of the operations on the database. */
+  public QueryTimings getQueryTimings() {
+    return mTimings;
+  }
+
+  /** Returns the row counts, file sizes, cache hit rates and timings of the database. */
+  public DatabaseDiagnostics getDiagnostics() {
+    final String[] tables = {"books", "sessions", "quotes", "book_stats", DatabaseHelper.DELETED_ROWS_TABLE};
+    Map<String, Long> rowCounts = new LinkedHashMap<>();
+    try {
+      for(String table : tables) {
+        rowCounts.put(table, db.getDaoByClass(Book.class).queryRawValue("SELECT count(*) FROM `" + table + "`"));
+      }
+    } catch(SQLException e) {
+      throw new RuntimeException(e);
+    }
+
+    final String path = db.getReadableDatabase().getPath();
+    return new DatabaseDiagnostics(rowCounts, new File(path).length(), new File(path + "-wal").length(),
+        getEntityCacheHitCount(), getEntityCacheMissCount(), mTimings.getHistograms());
+  }
+
+  /**
+   * Searches the titles and authors of books and the contents of quotes for all words in the
+   * query, matching words by prefix. Returns up to limit hits, most relevant first.
+   * Only the hits that make the cut are loaded with their snippets.
+   */
+  public List<SearchHit> search(String query, int limit) {
+    final String section = "DatabaseManager.search";
+    final long start = mTimings.begin(section);
+    try {
+      final String matchExpression = SearchIndex.toMatchExpression(query);
+      if(matchExpression == null || limit <= 0) {
+        return new ArrayList<>();
+      }
+
+      final SQLiteDatabase database = db.getReadableDatabase();
+      List<RankedMatch> matches = new ArrayList<>();
+      rankMatches(database, SearchIndex.BOOKS_TABLE, SearchIndex.BOOK_COLUMN_WEIGHTS, SearchHit.Kind.BOOK, matchExpression, matches);
+      rankMatches(database, SearchIndex.QUOTES_TABLE, SearchIndex.QUOTE_COLUMN_WEIGHTS, SearchHit.Kind.QUOTE, matchExpression, matches);
+      Collections.sort(matches, RankedMatch.BY_SCORE);
+
+      Map<Integer, Float> bookScores = new HashMap<>();
+      Map<Integer, Float> quoteScores = new HashMap<>();
+      for(RankedMatch match : matches.subList(0, Math.min(limit, matches.size()))) {
+        if(match.kind == SearchHit.Kind.BOOK) {
+          bookScores.put(match.docId, match.score);
+        } else {
+          quoteScores.put(match.docId, match.score);
+        }
+      }
+
+      List<SearchHit> hits = new ArrayList<>();
+      if(!bookScores.isEmpty()) {
+        final String bookHitsQuery = "SELECT `books`.`id`, `books`.`title`, `books`.`author`, " +
+            "snippet(`" + SearchIndex.BOOKS_TABLE + "`, ?, ?, '…', -1, " + SearchIndex.SNIPPET_TOKENS + ") " +
+            "FROM `" + SearchIndex.BOOKS_TABLE + "` JOIN `books` ON `books`.`id` = `" + SearchIndex.BOOKS_TABLE + "`.`docid` " +
+            "WHERE `" + SearchIndex.BOOKS_TABLE + "` MATCH ? AND `" + SearchIndex.BOOKS_TABLE + "`.`docid` IN (" + joinIds(bookScores.keySet()) + ")";
+        Cursor cursor = database.rawQuery(bookHitsQuery, new String[]{SearchHit.MATCH_START, SearchHit.MATCH_END, matchExpression});
+        try {
+          while(cursor.moveToNext()) {
+            final int bookId = cursor.getInt(0);
+            hits.add(new SearchHit(SearchHit.Kind.BOOK, bookId, 0, cursor.getString(1), cursor.getString(2),
+                cursor.getString(3), bookScores.get(bookId)));
+          }
+        } finally {
+          cursor.close();
+        }
+      }
+
+      if(!quoteScores.isEmpty()) {
+        final String quoteHitsQuery = "SELECT `quotes`.`id`, `quotes`.`book_id`, `books`.`title`, `books`.`author`, " +
+            "snippet(`" + SearchIndex.QUOTES_TABLE + "`, ?, ?, '…', -1, " + SearchIndex.SNIPPET_TOKENS + ") " +
+            "FROM `" + SearchIndex.QUOTES_TABLE + "` JOIN `quotes` ON `quotes`.`id` = `" + SearchIndex.QUOTES_TABLE + "`.`docid` " +
+            "LEFT JOIN `books` ON `books`.`id` = `quotes`.`book_id` " +
+            "WHERE `" + SearchIndex.QUOTES_TABLE + "` MATCH ? AND `" + SearchIndex.QUOTES_TABLE + "`.`docid` IN (" + joinIds(quoteScores.keySet()) + ")";
+        Cursor cursor = database.rawQuery(quoteHitsQuery, new String[]{SearchHit.MATCH_START, SearchHit.MATCH_END, matchExpression});
+        try {
+          while(cursor.moveToNext()) {
+            final int quoteId = cursor.getInt(0);
+            hits.add(new SearchHit(SearchHit.Kind.QUOTE, cursor.getInt(1), quoteId, cursor.getString(2), cursor.getString(3),
+                cursor.getString(4), quoteScores.get(quoteId)));
+          }
+        } finally {
+          cursor.close();
+        }
+      }
+
+      Collections.sort(hits, new Comparator<SearchHit>() {
+        @Override public int compare(SearchHit a, SearchHit b) {
+          return Float.compare(b.getScore(), a.getScore());
+        }
+      });
+      return hits;
+    } finally {
+      mTimings.end(section, start);
+    }
+  }
+
+  /** Scores every row of an index table that matches, without loading anything else. */
+  private static void rankMatches(SQLiteDatabase database, String table, float[] columnWeights, SearchHit.Kind kind,
+                                  String matchExpression, List<RankedMatch> matches) {
+    final String query = "SELECT `docid`, matchinfo(`" + table + "`, 'pcx') FROM `" + table + "` " +
+        "WHERE `" + table + "` MATCH ?";
+    Cursor cursor = database.rawQuery(query, new String[]{matchExpression});
+    try {
+      while(cursor.moveToNext()) {
+        matches.add(new RankedMatch(kind, cursor.getInt(0), SearchIndex.rank(cursor.getBlob(1), columnWeights)));
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private static String joinIds(Collection<Integer> ids) {
+    StringBuilder idList = new StringBuilder();
+    for(Integer id : ids) {
+      if(idList.length() > 0) idList.append(", ");
+      idList.append(id.intValue());
+    }
+    return idList.toString();
+  }
+
+  /* Query builders, kept separate so the query plans can be verified in tests. */
+
+  static String bookSummariesQuery(Collection<Integer> bookIds) {
+    return BookSummary.QUERY + " WHERE `books`.`" + Book.Columns.ID + "` IN (" + joinIds(bookIds) + ")";
+  }
+
+  QueryBuilder<Session, Integer> sessionsForBookQuery(Book book) throws SQLException {
+    QueryBuilder<Session, Integer> queryBuilder = db.getDaoByClass(Session.class).queryBuilder();
+    queryBuilder.where().eq(Session.Columns.BOOK_ID, book.getId());
+    return queryBuilder;
+  }
+
+  QueryBuilder<Quote, Integer> quotesForBookQuery(Book book) throws SQLException {
+    QueryBuilder<Quote, Integer> queryBuilder = db.getDaoByClass(Quote.class).queryBuilder();
+    queryBuilder.where().eq(Quote.Columns.BOOK_ID, book.getId());
+    return queryBuilder;
+  }
+
+  /**
+   * Pages are keyed on (timestamp, id) rather than offset, so that every page is a range scan of
+   * the (book_id, timestamp) index, however deep into the list it is. The id breaks ties between
+   * sessions with the same timestamp.
+   */
+  QueryBuilder<Session, Integer> sessionsForBookPageQuery(Book book, @Nullable Session before, long limit) throws SQLException {
+    QueryBuilder<Session, Integer> queryBuilder = db.getDaoByClass(Session.class).queryBuilder();
+    Where<Session, Integer> where = queryBuilder.where();
+    if(before == null) {
+      where.eq(Session.Columns.BOOK_ID, book.getId());
+    } else {
+      final long timestamp = before.getTimestampMs();
+      where.and(
+          where.eq(Session.Columns.BOOK_ID, book.getId()),
+          where.le(Session.Columns.TIMESTAMP, timestamp),
+          where.or(
+              where.lt(Session.Columns.TIMESTAMP, timestamp),
+              where.lt(Session.Columns.ID, before.getId())
+          )
+      );
+    }
+    queryBuilder
+        .orderBy(Session.Columns.TIMESTAMP, false)
+        .orderBy(Session.Columns.ID, false)
+        .limit(limit);
+    return queryBuilder;
+  }
+
+  /**
+   * Same as sessionsForBookPageQuery(), keyed on (add_timestamp, id). Quotes without a timestamp
+   * sort last.
+   */
+  QueryBuilder<Quote, Integer> quotesForBookPageQuery(Book book, @Nullable Quote before, long limit) throws SQLException {
+    QueryBuilder<Quote, Integer> queryBuilder = db.getDaoByClass(Quote.class).queryBuilder();
+    Where<Quote, Integer> where = queryBuilder.where();
+    if(before == null) {
+      where.eq(Quote.Columns.BOOK_ID, book.getId());
+    } else if(before.getAddTimestampMs() == null) {
+      where.and(
+          where.eq(Quote.Columns.BOOK_ID, book.getId()),
+          where.isNull(Quote.Columns.ADD_TIMESTAMP),
+          where.lt(Quote.Columns.ID, before.getId())
+      );
+    } else {
+      final long timestamp = before.getAddTimestampMs();
+      where.and(
+          where.eq(Quote.Columns.BOOK_ID, book.getId()),
+          where.or(
+              where.and(
+                  where.le(Quote.Columns.ADD_TIMESTAMP, timestamp),
+                  where.or(
+                      where.lt(Quote.Columns.ADD_TIMESTAMP, timestamp),
+                      where.lt(Quote.Columns.ID, before.getId())
+                  )
+              ),
+              where.isNull(Quote.Columns.ADD_TIMESTAMP)
+          )
+      );
+    }
+    queryBuilder
+        .orderBy(Quote.Columns.ADD_TIMESTAMP, false)
+        .orderBy(Quote.Columns.ID, false)
+        .limit(limit);
+    return queryBuilder;
+  }
+
+  /**
+   * The prefixed titles are found with a range on the title index, as they all sort between "("
+   * and ")". LIKE is only a filter on that range, and may match more titles than strictly needed.
+   */
+  QueryBuilder<Book, Integer> titlesWithBaseQuery(String baseTitle) throws SQLException {
+    SelectArg titleArg = new SelectArg();
+    titleArg.setValue(baseTitle);
+    SelectArg suffixArg = new SelectArg();
+    suffixArg.setValue("%" + baseTitle);
+
+    QueryBuilder<Book, Integer> queryBuilder = db.getDaoByClass(Book.class).queryBuilder();
+    queryBuilder.selectColumns(Book.Columns.TITLE);
+    Where<Book, Integer> where = queryBuilder.where();
+    where.or(
+        where.eq(Book.Columns.TITLE, titleArg),
+        where.and(
+            where.ge(Book.Columns.TITLE, "("),
+            where.lt(Book.Columns.TITLE, ")"),
+            where.like(Book.Columns.TITLE, suffixArg)
+        )
+    );
+    return queryBuilder;
+  }
+
+  <T extends Model> QueryBuilder<T, Integer> changedSinceQuery(Class<T> modelClass, long from, long to) throws SQLException {
+    QueryBuilder<T, Integer> queryBuilder = db.getDaoByClass(modelClass).queryBuilder();
+    queryBuilder.where().between(Model.Columns.UPDATED_AT, from, to);
+    return queryBuilder;
+  }
+
+  <T extends Model> QueryBuilder<T, Integer> allByIdQuery(Class<T> modelClass) {
+    QueryBuilder<T, Integer> queryBuilder = db.getDaoByClass(modelClass).queryBuilder();
+    queryBuilder.orderBy(Model.Columns.ID, true);
+    return queryBuilder;
+  }
+
+  private static <T> void visitAll(QueryBuilder<T, Integer> queryBuilder, Visitor<? super T> visitor) throws SQLException {
+    CloseableIterator<T> iterator = queryBuilder.iterator();
+    try {
+      while(iterator.hasNext()) {
+        visitor.visit(iterator.next());
+      }
+    } finally {
+      iterator.closeQuietly();
+    }
+  }
+
+  /** Returns the DAO for the runtime class of a model instance. */
+  private <T extends Model> Dao<T, Integer> getDaoForInstance(T instance) {
+    @SuppressWarnings("unchecked")
+    Dao<T, Integer> dao = (Dao<T, Integer>) db.getDaoByClass(instance.getClass());
+    return dao;
+  }
+
+  private void invalidateCachedEntity(Model instance) {
+    if(mEntityCache != null) {
+      mEntityCache.invalidate(instance);
+    }
+  }
+
+  private enum ChangeType {CREATED, UPDATED, DELETED}
+
+  /** Publishes the event matching a write of the instance, if anyone is listening. */
+  private void publishChange(Model instance, ChangeType changeType) {
+    if(mBus == null) {
+      return;
+    }
+
+    final BookChangeEvent event;
+    if(instance instanceof Book) {
+      final int bookId = instance.getId();
+      if(changeType == ChangeType.CREATED) {
+        event = new BookCreatedEvent(bookId);
+      } else if(changeType == ChangeType.UPDATED) {
+        event = new BookUpdatedEvent(bookId);
+      } else {
+        event = new BookDeletedEvent(bookId);
+      }
+    } else if(instance instanceof Session && ((Session) instance).getBook() != null) {
+      event = new SessionsChangedEvent(((Session) instance).getBook().getId());
+    } else if(instance instanceof Quote && ((Quote) instance).getBook() != null) {
+      event = new QuotesChangedEvent(((Quote) instance).getBook().getId());
+    } else {
+      return;
+    }
+
+    Set<BookChangeEvent> transactionEvents = mTransactionEvents.get();
+    if(transactionEvents != null) {
+      transactionEvents.add(event);
+    } else {
+      postOnMainThread(event);
+    }
+  }
+
+  private void postOnMainThread(final BookChangeEvent event) {
+    final Bus bus = mBus;
+    if(bus == null) {
+      return;
+    }
+
+    mMainHandler.post(new Runnable() {
+      @Override public void run() {
+        bus.post(event);
+      }
+    });
+  }
+
+  /**
+   * Posted after a book, or the sessions or quotes of a book, have been written. Subscribe to
+   * this class to be told about all changes, or to one of the subclasses for a single kind.
+   */
+  public static abstract class BookChangeEvent {
+    private final int mBookId;
+
+    BookChangeEvent(int bookId) {
+      mBookId = bookId;
+    }
+
+    public int getBookId() {
+      return mBookId;
+    }
+
+    @Override public boolean equals(Object o) {
+      return o != null && o.getClass() == getClass() && ((BookChangeEvent) o).mBookId == mBookId;
+    }
+
+    @Override public int hashCode() {
+      return 31 * getClass().hashCode() + mBookId;
+    }
+
+    @Override public String toString() {
+      return String.format("%s(%d)", getClass().getSimpleName(), mBookId);
+    }
+  }
+
+  public static class BookCreatedEvent extends BookChangeEvent {
+    BookCreatedEvent(int bookId) { super(bookId); }
+  }
+
+  public static class BookUpdatedEvent extends BookChangeEvent {
+    BookUpdatedEvent(int bookId) { super(bookId); }
+  }
+
+  public static class BookDeletedEvent extends BookChangeEvent {
+    BookDeletedEvent(int bookId) { super(bookId); }
+  }
+
+  /** Posted when a session of the book has been created, updated or deleted. */
+  public static class SessionsChangedEvent extends BookChangeEvent {
+    SessionsChangedEvent(int bookId) { super(bookId); }
+  }
+
+  /** Posted when a quote of the book has been created, updated or deleted. */
+  public static class QuotesChangedEvent extends BookChangeEvent {
+    QuotesChangedEvent(int bookId) { super(bookId); }
+  }
+
+  /** A row of the search index with its score, before the hit itself is loaded. */
+  private static class RankedMatch {
+    static final Comparator<RankedMatch> BY_SCORE = new Comparator<RankedMatch>() {
+      @Override public int compare(RankedMatch a, RankedMatch b) {
+        return Float.compare(b.score, a.score);
+      }
+    };
+
+    final SearchHit.Kind kind;
+    final int docId;
+    final float score;
+
+    RankedMatch(SearchHit.Kind kind, int docId, float score) {
+      this.kind = kind;
+      this.docId = docId;
+      this.score = score;
+    }
+  }
+
+  /** Passes models on to a visitor, remembering where a batch ended. */
+  private static class BatchVisitor<T extends Model> implements Visitor<T> {
+    private final Visitor<? super T> mVisitor;
+    int count = 0;
+    int lastId = 0;
+
+    BatchVisitor(Visitor<? super T> visitor) {
+      mVisitor = visitor;
+    }
+
+    @Override public void visit(T item) {
+      count++;
+      lastId = item.getId();
+      mVisitor.visit(item);
+    }
+  }
+
+  /** Names the timing sections of an operation per model class, building each name only once. */
+  private static class SectionNames {
+    private final String mOperation;
+    private final ConcurrentMap<Class<?>, String> mNames = new ConcurrentHashMap<>();
+
+    SectionNames(String operation) {
+      mOperation = operation;
+    }
+
+    String forClass(Class<?> modelClass) {
+      String name = mNames.get(modelClass);
+      if(name == null) {
+        name = mOperation + "(" + modelClass.getSimpleName() + ")";
+        mNames.putIfAbsent(modelClass, name);
+      }
+      return name;
     }
   }
 }
@@ -0,0 +1,86 @@
+package com.readtracker.android.db;
+
+import android.util.LruCache;
+
+/**
+ * Cache of loaded models, keyed by model class and id, with LRU eviction.
+ * <p/>
+ * The cached instances are never handed out. Every get() returns a copy, so callers can change
+ * their instance, from any thread, without affecting other callers or the cache. Changes are only
+ * seen by others once they are saved, which invalidates the entry.
+ */
+class EntityCache {
+  private final LruCache<Key, Model> mCache;
+
+  // Bumped on every invalidation, so that a model loaded before a concurrent write is never
+  // put back into the cache after the write invalidated it.
+  private int mGeneration = 0;
+
+  EntityCache(int maxSize) {
+    mCache = new LruCache<>(maxSize);
+  }
+
+  /** Returns a copy of the cached model, or null if not cached. */
+  <T extends Model> T get(Class<T> modelClass, int id) {
+    final Model cached = mCache.get(new Key(modelClass, id));
+    return cached == null ? null : modelClass.cast(cached.copy());
+  }
+
+  /** Returns the current generation, to pass to put() once the model has been loaded. */
+  synchronized int getGeneration() {
+    return mGeneration;
+  }
+
+  /**
+   * Caches a copy of a loaded model, unless the cache has been invalidated since the load started.
+   * The caller keeps the instance it passed in.
+   */
+  synchronized void put(Model instance, int generation) {
+    if(generation == mGeneration) {
+      mCache.put(new Key(instance.getClass(), instance.getId()), instance.copy());
+    }
+  }
+
+  /** Removes a model from the cache. */
+  synchronized void invalidate(Model instance) {
+    mGeneration++;
+    mCache.remove(new Key(instance.getClass(), instance.getId()));
+  }
+
+  /** Removes all models from the cache. */
+  synchronized void invalidateAll() {
+    mGeneration++;
+    mCache.evictAll();
+  }
+
+  int getHitCount() {
+    return mCache.hitCount();
+  }
+
+  int getMissCount() {
+    return mCache.missCount();
+  }
+
+  private static final class Key {
+    private final Class<?> mModelClass;
+    private final int mId;
+
+    Key(Class<?> modelClass, int id) {
+      mModelClass = modelClass;
+      mId = id;
+    }
+
+    @Override public boolean equals(Object o) {
+      if(this == o) return true;
+      if(o instanceof Key) {
+        final Key other = (Key) o;
+        return mId == other.mId && mModelClass.equals(other.mModelClass);
+      }
+      return false;
+    }
+
+    @Override public int hashCode() {
+      return 31 * mModelClass.hashCode() + mId;
+    }
+  }
+}
@@ -17,7 +17,12 @@ abstract public class Model {
     return mId;
   }
 
+  /** Returns a new instance with the same id and database fields, sharing no mutable state. */
+  abstract Model copy();
+
   public static abstract class Columns {
     public static final String ID = "id";
+    // Maintained by triggers, see DatabaseHelper, and not mapped to a field
+    public static final String UPDATED_AT = "updated_at";
   }
 }
@@ -0,0 +1,163 @@
+package com.readtracker.android.db;
+
+import android.os.SystemClock;
+import android.os.Trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Times database operations, both as android.os.Trace sections that show up in system traces,
+ * and as in-memory latency histograms per operation that can be inspected on the device.
+ * <p/>
+ * Time an operation with:
+ * <pre>
+ *   final long start = timings.begin("getAll");
+ *   try {
+ *     ...
+ *   } finally {
+ *     timings.end("getAll", start);
+ *   }
+ * </pre>
+ * Sections must be ended on the thread that began them, and nested sections ended innermost first.
+ */
+public class QueryTimings {
+  // Upper bounds of the histogram buckets, in microseconds, doubling from 250 µs to ~1 s.
+  // Durations above the last bound go in an extra overflow bucket.
+  static final long[] BUCKET_BOUNDS_MICROS = new long[13];
+
+  static {
+    for(int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+      BUCKET_BOUNDS_MICROS[i] = 250L << i;
+    }
+  }
+
+  private final ConcurrentMap<String, LatencyHistogram> mHistograms = new ConcurrentHashMap<>();
+
+  /** Begins timing an operation, and returns the start time to pass to end(). */
+  public long begin(String name) {
+    Trace.beginSection(name);
+    return SystemClock.elapsedRealtimeNanos();
+  }
+
+  /** Ends timing of an operation begun with begin(). */
+  public void end(String name, long startNanos) {
+    final long elapsedMicros = (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000;
+    Trace.endSection();
+    record(name, elapsedMicros);
+  }
+
+  void record(String name, long elapsedMicros) {
+    LatencyHistogram histogram = mHistograms.get(name);
+    if(histogram == null) {
+      final LatencyHistogram newHistogram = new LatencyHistogram(name);
+      histogram = mHistograms.putIfAbsent(name, newHistogram);
+      if(histogram == null) {
+        histogram = newHistogram;
+      }
+    }
+    histogram.record(elapsedMicros);
+  }
+
+  /** Returns a copy of the histograms of all operations timed so far, ordered by name. */
+  public List<Histogram> getHistograms() {
+    List<Histogram> histograms = new ArrayList<>(mHistograms.size());
+    for(LatencyHistogram histogram : mHistograms.values()) {
+      histograms.add(histogram.snapshot());
+    }
+    Collections.sort(histograms, new Comparator<Histogram>() {
+      @Override public int compare(Histogram a, Histogram b) {
+        return a.getName().compareTo(b.getName());
+      }
+    });
+    return histograms;
+  }
+
+  /** Forgets all timings recorded so far. */
+  public void reset() {
+    mHistograms.clear();
+  }
+
+  private static class LatencyHistogram {
+    private final String mName;
+    private final int[] mBucketCounts = new int[BUCKET_BOUNDS_MICROS.length + 1];
+    private int mCount = 0;
+    private long mTotalMicros = 0;
+    private long mMaxMicros = 0;
+
+    LatencyHistogram(String name) {
+      mName = name;
+    }
+
+    synchronized void record(long elapsedMicros) {
+      int bucket = 0;
+      while(bucket < BUCKET_BOUNDS_MICROS.length && elapsedMicros > BUCKET_BOUNDS_MICROS[bucket]) {
+        bucket++;
+      }
+      mBucketCounts[bucket]++;
+      mCount++;
+      mTotalMicros += elapsedMicros;
+      mMaxMicros = Math.max(mMaxMicros, elapsedMicros);
+    }
+
+    synchronized Histogram snapshot() {
+      return new Histogram(mName, mBucketCounts.clone(), mCount, mTotalMicros, mMaxMicros);
+    }
+  }
+
+  /** Latencies of one operation. */
+  public static final class Histogram {
+    private final String mName;
+    private final int[] mBucketCounts;
+    private final int mCount;
+    private final long mTotalMicros;
+    private final long mMaxMicros;
+
+    Histogram(String name, int[] bucketCounts, int count, long totalMicros, long maxMicros) {
+      mName = name;
+      mBucketCounts = bucketCounts;
+      mCount = count;
+      mTotalMicros = totalMicros;
+      mMaxMicros = maxMicros;
+    }
+
+    public String getName() { return mName; }
+
+    public int getCount() { return mCount; }
+
+    public long getMeanMicros() { return mCount == 0 ? 0 : mTotalMicros / mCount; }
+
+    public long getMaxMicros() { return mMaxMicros; }
+
+    /** Returns the number of buckets, the last of which holds everything above the largest bound. */
+    public int getBucketCount() { return mBucketCounts.length; }
+
+    /** Returns the number of operations in a bucket. */
+    public int getCountInBucket(int bucket) { return mBucketCounts[bucket]; }
+
+    /** Returns the upper bound of a bucket in microseconds, or the max latency for the overflow bucket. */
+    public long getBucketBoundMicros(int bucket) {
+      return bucket < BUCKET_BOUNDS_MICROS.length ? BUCKET_BOUNDS_MICROS[bucket] : mMaxMicros;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile (0-100) of operations,
+     * so the real percentile is at most this many microseconds.
+     */
+    public long getPercentileMicros(int percentile) {
+      final long rank = Math.max(1, (long) Math.ceil(mCount * percentile / 100.0));
+      long seen = 0;
+      for(int bucket = 0; bucket < mBucketCounts.length; bucket++) {
+        seen += mBucketCounts[bucket];
+        if(seen >= rank) {
+          return Math.min(getBucketBoundMicros(bucket), mMaxMicros);
+        }
+      }
+      return mMaxMicros;
+    }
+  }
+}
@@ -4,8 +4,6 @@ import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 import com.readtracker.android.support.Utils;
 
-import java.util.Arrays;
-
 /**
  * Represents a quote from a book.
  */
@@ -27,13 +25,20 @@ public class Quote extends Model {
       columnName = Columns.BOOK_ID,
       foreign = true,
       canBeNull = false,
-      columnDefinition = "integer references books (_id) on delete cascade")
+      columnDefinition = "integer not null references books (id) on delete cascade")
   private Book mBook;
 
   /* End database fields */
 
   public Quote() { }
 
+  @Override Quote copy() {
+    Quote copy = new Quote().merge(this);
+    copy.mId = mId;
+    copy.mBook = mBook == null ? null : mBook.copy();
+    return copy;
+  }
+
   public Quote merge(Quote otherQuote) {
     mContent = otherQuote.mContent;
     mAddTimestampMs = otherQuote.mAddTimestampMs;
@@ -78,6 +83,9 @@ public class Quote extends Model {
   }
 
   @Override public int hashCode() {
-    return Arrays.hashCode(new Object[]{getContent(), getBook(), getAddTimestampMs()});
+    int result = mContent == null ? 0 : mContent.hashCode();
+    result = 31 * result + (mBook == null ? 0 : mBook.hashCode());
+    result = 31 * result + (mAddTimestampMs == null ? 0 : mAddTimestampMs.hashCode());
+    return result;
   }
 }
@@ -0,0 +1,162 @@
+package com.readtracker.android.db;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reading statistics, aggregated by SQLite with GROUP BY rather than by loading sessions.
+ * Sessions are bucketed by the day, week, month or year they happened in, in the local time zone
+ * of the device, with daylight saving time applied per session.
+ */
+public class ReadingStatistics {
+  public enum Period {DAY, WEEK, MONTH, YEAR}
+
+  private final DatabaseHelper db;
+
+  ReadingStatistics(DatabaseHelper databaseHelper) {
+    db = databaseHelper;
+  }
+
+  /**
+   * Returns the reading done per period, newest first. Periods without any sessions are left out.
+   */
+  public List<Bucket> getBuckets(Period period) {
+    final String section = "ReadingStatistics.getBuckets(" + period + ")";
+    final long start = db.getQueryTimings().begin(section);
+    try {
+      List<Bucket> buckets = new ArrayList<>();
+      Cursor cursor = db.getReadableDatabase().rawQuery(bucketsQuery(period), null);
+      try {
+        while(cursor.moveToNext()) {
+          buckets.add(new Bucket(cursor.getString(0), cursor.getLong(1), cursor.getInt(2),
+              cursor.getFloat(3), cursor.getFloat(4)));
+        }
+      } finally {
+        cursor.close();
+      }
+      return buckets;
+    } finally {
+      db.getQueryTimings().end(section, start);
+    }
+  }
+
+  /**
+   * Returns the number of sessions and time spent per book, for books with sessions, most time
+   * spent first. Read from the book_stats aggregates, so this does not touch the sessions at all.
+   */
+  public List<BookTotal> getBookTotals() {
+    final String section = "ReadingStatistics.getBookTotals";
+    final long start = db.getQueryTimings().begin(section);
+    try {
+      List<BookTotal> totals = new ArrayList<>();
+      Cursor cursor = db.getReadableDatabase().rawQuery(BOOK_TOTALS_QUERY, null);
+      try {
+        while(cursor.moveToNext()) {
+          totals.add(new BookTotal(cursor.getInt(0), cursor.getString(1), cursor.getInt(2), cursor.getLong(3)));
+        }
+      } finally {
+        cursor.close();
+      }
+      return totals;
+    } finally {
+      db.getQueryTimings().end(section, start);
+    }
+  }
+
+  /* Queries, kept separate so the query plans can be verified in tests. */
+
+  static String bucketsQuery(Period period) {
+    return "SELECT " + bucketKeyExpression(period) + " AS `bucket`, " +
+        "sum(`sessions`.`duration_seconds`), count(*), " +
+        "sum(`sessions`.`end_position` - `sessions`.`start_position`), " +
+        "ifnull(sum((`sessions`.`end_position` - `sessions`.`start_position`) * `books`.`page_count`), 0) " +
+        "FROM `sessions` LEFT JOIN `books` ON `books`.`id` = `sessions`.`book_id` " +
+        "GROUP BY `bucket` ORDER BY `bucket` DESC";
+  }
+
+  static final String BOOK_TOTALS_QUERY = "SELECT `books`.`id`, `books`.`title`, " +
+      "`book_stats`.`" + BookStats.Columns.SESSION_COUNT + "`, `book_stats`.`" + BookStats.Columns.SECONDS_SPENT + "` " +
+      "FROM `book_stats` JOIN `books` ON `books`.`id` = `book_stats`.`" + BookStats.Columns.BOOK_ID + "` " +
+      "WHERE `book_stats`.`" + BookStats.Columns.SESSION_COUNT + "` > 0 " +
+      "ORDER BY `book_stats`.`" + BookStats.Columns.SECONDS_SPENT + "` DESC";
+
+  /**
+   * Returns the SQL expression for the bucket of a session, as a key that sorts in time order:
+   * the date for days, the date of the Monday for weeks, "2014-03" for months and "2014" for years.
+   */
+  static String bucketKeyExpression(Period period) {
+    final String localTime = "`sessions`.`timestamp` / 1000, 'unixepoch', 'localtime'";
+    switch(period) {
+      case DAY:
+        return "date(" + localTime + ")";
+      case WEEK:
+        // Forward to the next Sunday, unless already on one, then back to the Monday before it
+        return "date(" + localTime + ", 'weekday 0', '-6 days')";
+      case MONTH:
+        return "strftime('%Y-%m', " + localTime + ")";
+      case YEAR:
+        return "strftime('%Y', " + localTime + ")";
+      default:
+        throw new IllegalArgumentException("Unknown period: " + period);
+    }
+  }
+
+  /** Reading done in one period. */
+  public static final class Bucket {
+    private final String mKey;
+    private final long mSecondsSpent;
+    private final int mSessionCount;
+    private final float mPositionRead;
+    private final float mPagesRead;
+
+    Bucket(String key, long secondsSpent, int sessionCount, float positionRead, float pagesRead) {
+      mKey = key;
+      mSecondsSpent = secondsSpent;
+      mSessionCount = sessionCount;
+      mPositionRead = positionRead;
+      mPagesRead = pagesRead;
+    }
+
+    /** Returns the period, as "2014-03-17" for days and weeks, "2014-03" for months and "2014" for years. */
+    public String getKey() { return mKey; }
+
+    public long getSecondsSpent() { return mSecondsSpent; }
+
+    public int getSessionCount() { return mSessionCount; }
+
+    /** Returns the sum of the progress of all sessions, where 1.0 is a whole book. */
+    public float getPositionRead() { return mPositionRead; }
+
+    /** Returns the number of pages read, counting only books with a page count. */
+    public float getPagesRead() { return mPagesRead; }
+
+    @Override public String toString() {
+      return String.format("Bucket(%s, %d s, %d sessions)", mKey, mSecondsSpent, mSessionCount);
+    }
+  }
+
+  /** Reading done in one book. */
+  public static final class BookTotal {
+    private final int mBookId;
+    private final String mTitle;
+    private final int mSessionCount;
+    private final long mSecondsSpent;
+
+    BookTotal(int bookId, String title, int sessionCount, long secondsSpent) {
+      mBookId = bookId;
+      mTitle = title;
+      mSessionCount = sessionCount;
+      mSecondsSpent = secondsSpent;
+    }
+
+    public int getBookId() { return mBookId; }
+
+    public String getTitle() { return mTitle == null ? "" : mTitle; }
+
+    public int getSessionCount() { return mSessionCount; }
+
+    public long getSecondsSpent() { return mSecondsSpent; }
+  }
+}
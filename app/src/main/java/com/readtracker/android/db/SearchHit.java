@@ -0,0 +1,56 @@
+package com.readtracker.android.db;
+
+/**
+ * A book or quote found by DatabaseManager.search().
+ */
+public final class SearchHit {
+  public enum Kind {BOOK, QUOTE}
+
+  /** Marks the start of a matching word in the snippet. */
+  public static final String MATCH_START = "\u0002";
+  /** Marks the end of a matching word in the snippet. */
+  public static final String MATCH_END = "\u0003";
+
+  private final Kind mKind;
+  private final int mBookId;
+  private final int mQuoteId;
+  private final String mTitle;
+  private final String mAuthor;
+  private final String mSnippet;
+  private final float mScore;
+
+  SearchHit(Kind kind, int bookId, int quoteId, String title, String author, String snippet, float score) {
+    mKind = kind;
+    mBookId = bookId;
+    mQuoteId = quoteId;
+    mTitle = title;
+    mAuthor = author;
+    mSnippet = snippet;
+    mScore = score;
+  }
+
+  public Kind getKind() { return mKind; }
+
+  /** Returns the id of the book, or of the book of the quote. */
+  public int getBookId() { return mBookId; }
+
+  /** Returns the id of the quote, or 0 for book hits. */
+  public int getQuoteId() { return mQuoteId; }
+
+  public String getTitle() { return mTitle == null ? "" : mTitle; }
+
+  public String getAuthor() { return mAuthor == null ? "" : mAuthor; }
+
+  /**
+   * Returns the part of the matching text around the matches, with each match wrapped in
+   * MATCH_START and MATCH_END.
+   */
+  public String getSnippet() { return mSnippet == null ? "" : mSnippet; }
+
+  /** Returns the relevance of the hit, higher is better. */
+  public float getScore() { return mScore; }
+
+  @Override public String toString() {
+    return String.format("SearchHit(%s, %d, %d, %.3f)", mKind, mBookId, mQuoteId, mScore);
+  }
+}
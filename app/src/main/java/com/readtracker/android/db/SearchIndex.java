@@ -0,0 +1,71 @@
+package com.readtracker.android.db;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Names and helpers for the full text search index. The FTS4 tables are created and kept in sync
+ * by DatabaseHelper, and queried by DatabaseManager.search().
+ */
+final class SearchIndex {
+  static final String BOOKS_TABLE = "books_fts";
+  static final String QUOTES_TABLE = "quotes_fts";
+
+  // Weight of a hit in each column of the index tables, in column order
+  static final float[] BOOK_COLUMN_WEIGHTS = {2.0f, 1.0f}; // title, author
+  static final float[] QUOTE_COLUMN_WEIGHTS = {1.0f}; // content
+
+  // Number of tokens around the matches in a snippet
+  static final int SNIPPET_TOKENS = 12;
+
+  private SearchIndex() { }
+
+  /**
+   * Turns free text typed by the user into an FTS MATCH expression, where every word has to match
+   * the start of a word in the index. Returns null if there is nothing to search for.
+   */
+  @Nullable static String toMatchExpression(String query) {
+    if(query == null) {
+      return null;
+    }
+
+    StringBuilder expression = new StringBuilder();
+    for(String word : query.trim().split("\\s+")) {
+      // Quotes are the only character with a meaning inside a phrase
+      final String term = word.replace("\"", "");
+      if(term.length() > 0) {
+        if(expression.length() > 0) expression.append(' ');
+        // FTS4 only takes the prefix marker inside the phrase, a * after the closing quote is dropped
+        expression.append('"').append(term).append("*\"");
+      }
+    }
+    return expression.length() == 0 ? null : expression.toString();
+  }
+
+  /**
+   * Scores a row from the result of matchinfo() with the 'pcx' format. Each hit in a column adds
+   * the column weight, divided by the number of hits for the phrase in that column across all
+   * rows, so that rare words count for more than common ones.
+   */
+  static float rank(byte[] matchInfo, float[] columnWeights) {
+    IntBuffer values = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+    final int phraseCount = values.get(0);
+    final int columnCount = values.get(1);
+
+    float score = 0;
+    for(int phrase = 0; phrase < phraseCount; phrase++) {
+      for(int column = 0; column < columnCount; column++) {
+        final int offset = 2 + 3 * (phrase * columnCount + column);
+        final int hitsInRow = values.get(offset);
+        final int hitsInAllRows = values.get(offset + 1);
+        if(hitsInRow > 0 && column < columnWeights.length) {
+          score += columnWeights[column] * hitsInRow / hitsInAllRows;
+        }
+      }
+    }
+    return score;
+  }
+}
@@ -4,8 +4,6 @@ import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 import com.readtracker.android.support.Utils;
 
-import java.util.Arrays;
-
 /**
  * Represents one reading session.
  */
@@ -30,7 +28,7 @@ public class Session extends Model {
       columnName = Columns.BOOK_ID,
       foreign = true,
       canBeNull = false,
-      columnDefinition = "integer references books (_id) on delete cascade")
+      columnDefinition = "integer not null references books (id) on delete cascade")
   private Book mBook;
 
   /* End database fields. */
@@ -46,6 +44,13 @@ public class Session extends Model {
     mTimestampMs = other.mTimestampMs;
   }
 
+  @Override Session copy() {
+    Session copy = new Session(this);
+    copy.mId = mId;
+    copy.mBook = mBook == null ? null : mBook.copy();
+    return copy;
+  }
+
   public float getStartPosition() { return mStartPosition; }
 
   public void setStartPosition(float startPosition) { mStartPosition = startPosition; }
@@ -93,15 +98,21 @@ public class Session extends Model {
     if(o instanceof Session) {
       final Session other = (Session) o;
       return Utils.equal(getBook(), other.getBook())
-          && Utils.equal(getStartPosition(), other.getStartPosition())
-          && Utils.equal(getEndPosition(), other.getEndPosition())
-          && Utils.equal(getDurationSeconds(), other.getDurationSeconds())
-          && Utils.equal(getTimestampMs(), other.getTimestampMs());
+          && Float.compare(mStartPosition, other.mStartPosition) == 0
+          && Float.compare(mEndPosition, other.mEndPosition) == 0
+          && mDurationSeconds == other.mDurationSeconds
+          && mTimestampMs == other.mTimestampMs;
     }
     return false;
   }
 
+  /** Hashes the same fields as equals(), without boxing the primitive ones. */
   @Override public int hashCode() {
-    return Arrays.hashCode(new Object[]{getBook(), getStartPosition(), getEndPosition(), getDurationSeconds(), getTimestampMs()});
+    int result = mBook == null ? 0 : mBook.hashCode();
+    result = 31 * result + Float.floatToIntBits(mStartPosition);
+    result = 31 * result + Float.floatToIntBits(mEndPosition);
+    result = 31 * result + (int) (mDurationSeconds ^ (mDurationSeconds >>> 32));
+    result = 31 * result + (int) (mTimestampMs ^ (mTimestampMs >>> 32));
+    return result;
   }
 }
@@ -0,0 +1,197 @@
+package com.readtracker.android.db.export;
+
+import com.readtracker.android.db.Book;
+import com.readtracker.android.db.Quote;
+import com.readtracker.android.db.Session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * One file of an incremental backup chain. Unlike exports, backups keep the ids of the rows, so
+ * that later backups in the chain can update and delete rows written by earlier ones.
+ * <p/>
+ * A file starts with the uncompressed magic header, followed by a gzip stream of the watermarks
+ * the backup covers and a list of records: written books, sessions and quotes, and tombstones of
+ * deleted rows. Fields are encoded as in format version 3, see BinaryFormat.
+ */
+final class BackupFile {
+  static final byte[] MAGIC = {'R', 'T', 'B', 'K'};
+  static final int VERSION = 1;
+
+  private static final int TAG_END = 0;
+  private static final int TAG_BOOK = 1;
+  private static final int TAG_SESSION = 2;
+  private static final int TAG_QUOTE = 3;
+  private static final int TAG_DELETED_BOOK = 4;
+  private static final int TAG_DELETED_SESSION = 5;
+  private static final int TAG_DELETED_QUOTE = 6;
+
+  private BackupFile() {
+  }
+
+  /** Receives the records of a backup file, in the order they were written. */
+  interface RecordHandler {
+    void onBook(int id, Book book);
+
+    void onSession(int id, int bookId, Session session);
+
+    void onQuote(int id, int bookId, Quote quote);
+
+    void onBookDeleted(int id);
+
+    void onSessionDeleted(int id);
+
+    void onQuoteDeleted(int id);
+  }
+
+  /** Writes the records of one backup file. */
+  static class Writer implements Closeable {
+    private final DataOutputStream mOut;
+
+    /** Writes the header, and the watermarks of the changes the backup covers. */
+    Writer(OutputStream out, long sinceWatermark, long watermark) throws IOException {
+      out.write(MAGIC);
+      out.write(VERSION);
+      mOut = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out)));
+      BinaryFormat.writeVarLong(mOut, sinceWatermark);
+      BinaryFormat.writeVarLong(mOut, watermark);
+    }
+
+    void writeBook(Book book) throws IOException {
+      mOut.writeByte(TAG_BOOK);
+      BinaryFormat.writeVarLong(mOut, book.getId());
+      BinaryFormat.writeBookFields(mOut, book);
+    }
+
+    void writeSession(Session session) throws IOException {
+      mOut.writeByte(TAG_SESSION);
+      BinaryFormat.writeVarLong(mOut, session.getId());
+      BinaryFormat.writeVarLong(mOut, session.getBook().getId());
+      BinaryFormat.writeVarLong(mOut, session.getTimestampMs());
+      mOut.writeFloat(session.getStartPosition());
+      mOut.writeFloat(session.getEndPosition());
+      BinaryFormat.writeVarLong(mOut, session.getDurationSeconds());
+    }
+
+    void writeQuote(Quote quote) throws IOException {
+      mOut.writeByte(TAG_QUOTE);
+      BinaryFormat.writeVarLong(mOut, quote.getId());
+      BinaryFormat.writeVarLong(mOut, quote.getBook().getId());
+      BinaryFormat.writeQuoteFields(mOut, quote);
+    }
+
+    void writeBookDeleted(int id) throws IOException {
+      writeTombstone(TAG_DELETED_BOOK, id);
+    }
+
+    void writeSessionDeleted(int id) throws IOException {
+      writeTombstone(TAG_DELETED_SESSION, id);
+    }
+
+    void writeQuoteDeleted(int id) throws IOException {
+      writeTombstone(TAG_DELETED_QUOTE, id);
+    }
+
+    private void writeTombstone(int tag, int id) throws IOException {
+      mOut.writeByte(tag);
+      BinaryFormat.writeVarLong(mOut, id);
+    }
+
+    /** Ends the records. Files closed without it are rejected when read. */
+    void finish() throws IOException {
+      mOut.writeByte(TAG_END);
+      mOut.flush();
+    }
+
+    @Override public void close() throws IOException {
+      mOut.close();
+    }
+  }
+
+  /**
+   * Reads all records of a backup file, passing them to the handler. Closes the stream when done.
+   *
+   * @throws IOException if the file could not be read, or is not a complete backup file
+   */
+  static void read(InputStream source, RecordHandler handler) throws IOException {
+    try {
+      final byte[] head = new byte[MAGIC.length + 1];
+      if(BinaryFileParser.readFully(source, head) < head.length || !hasMagic(head) || head[MAGIC.length] != VERSION) {
+        throw new IOException("Not a backup file");
+      }
+
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(source)));
+      BinaryFormat.readVarLong(in); // since watermark
+      BinaryFormat.readVarLong(in); // watermark
+
+      int tag;
+      while((tag = in.readUnsignedByte()) != TAG_END) {
+        final int id = readId(in);
+        switch(tag) {
+          case TAG_BOOK:
+            Book book = new Book();
+            BinaryFormat.readBookFields(in, book);
+            handler.onBook(id, book);
+            break;
+          case TAG_SESSION:
+            final int sessionBookId = readId(in);
+            Session session = new Session();
+            session.setTimestampMs(BinaryFormat.readVarLong(in));
+            session.setStartPosition(in.readFloat());
+            session.setEndPosition(in.readFloat());
+            session.setDurationSeconds(BinaryFormat.readVarLong(in));
+            handler.onSession(id, sessionBookId, session);
+            break;
+          case TAG_QUOTE:
+            final int quoteBookId = readId(in);
+            Quote quote = new Quote();
+            BinaryFormat.readQuoteFields(in, quote);
+            handler.onQuote(id, quoteBookId, quote);
+            break;
+          case TAG_DELETED_BOOK:
+            handler.onBookDeleted(id);
+            break;
+          case TAG_DELETED_SESSION:
+            handler.onSessionDeleted(id);
+            break;
+          case TAG_DELETED_QUOTE:
+            handler.onQuoteDeleted(id);
+            break;
+          default:
+            throw new IOException("Unexpected tag: " + tag);
+        }
+      }
+    } catch(IllegalArgumentException e) {
+      // Thrown for unknown book states
+      throw new IOException("Unexpected backup content: " + e.getMessage(), e);
+    } finally {
+      source.close();
+    }
+  }
+
+  private static boolean hasMagic(byte[] head) {
+    for(int i = 0; i < MAGIC.length; i++) {
+      if(head[i] != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int readId(DataInputStream in) throws IOException {
+    final long id = BinaryFormat.readVarLong(in);
+    if(id <= 0 || id > Integer.MAX_VALUE) {
+      throw new IOException("Unexpected id: " + id);
+    }
+    return (int) id;
+  }
+}
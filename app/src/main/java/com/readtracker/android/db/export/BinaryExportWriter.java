@@ -0,0 +1,78 @@
+package com.readtracker.android.db.export;
+
+import com.readtracker.android.db.Book;
+import com.readtracker.android.db.Quote;
+import com.readtracker.android.db.Session;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/** Writes books in format version 3, one at a time. See BinaryFormat for the layout. */
+class BinaryExportWriter implements Closeable {
+  private final DataOutputStream mOut;
+
+  /** Writes the header to out, and starts the compressed stream of books. */
+  BinaryExportWriter(OutputStream out) throws IOException {
+    out.write(BinaryFormat.MAGIC);
+    out.write(BinaryFormat.FORMAT_VERSION);
+    mOut = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out)));
+  }
+
+  void writeBook(Book book, List<Session> sessions, List<Quote> quotes) throws IOException {
+    mOut.writeByte(BinaryFormat.TAG_BOOK);
+
+    BinaryFormat.writeBookFields(mOut, book);
+
+    writeSessions(sessions);
+    writeQuotes(quotes);
+  }
+
+  /** Writes the sessions column by column, so that similar values end up next to each other. */
+  private void writeSessions(List<Session> sessions) throws IOException {
+    final int count = sessions.size();
+    BinaryFormat.writeVarLong(mOut, count);
+
+    // Sessions of a book are close in time, so the differences are much smaller than the values
+    long previousTimestamp = 0;
+    for(int i = 0; i < count; i++) {
+      final long timestamp = sessions.get(i).getTimestampMs();
+      BinaryFormat.writeVarLong(mOut, timestamp - previousTimestamp);
+      previousTimestamp = timestamp;
+    }
+    for(int i = 0; i < count; i++) {
+      mOut.writeFloat(sessions.get(i).getStartPosition());
+    }
+    for(int i = 0; i < count; i++) {
+      mOut.writeFloat(sessions.get(i).getEndPosition());
+    }
+    for(int i = 0; i < count; i++) {
+      BinaryFormat.writeVarLong(mOut, sessions.get(i).getDurationSeconds());
+    }
+  }
+
+  private void writeQuotes(List<Quote> quotes) throws IOException {
+    BinaryFormat.writeVarLong(mOut, quotes.size());
+    for(Quote quote : quotes) {
+      BinaryFormat.writeQuoteFields(mOut, quote);
+    }
+  }
+
+  /**
+   * Ends the list of books. Files closed without it are rejected when read, so an export that
+   * failed halfway is not mistaken for a complete one.
+   */
+  void finish() throws IOException {
+    mOut.writeByte(BinaryFormat.TAG_END);
+    mOut.flush();
+  }
+
+  /** Closes the underlying stream. */
+  @Override public void close() throws IOException {
+    mOut.close();
+  }
+}
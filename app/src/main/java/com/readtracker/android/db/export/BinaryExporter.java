@@ -0,0 +1,128 @@
+package com.readtracker.android.db.export;
+
+import android.util.Log;
+
+import com.readtracker.android.db.Book;
+import com.readtracker.android.db.DatabaseManager;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Exporter of model data in format version 3, the compact binary format. Like JSONExporter, the
+ * sessions and quotes of a book are read just before the book is written.
+ */
+public class BinaryExporter {
+  public static final int FORMAT_VERSION = BinaryFormat.FORMAT_VERSION;
+  public static final String FILE_EXTENSION = ".rtbx";
+
+  private static final String TAG = BinaryExporter.class.getSimpleName();
+
+  private final DatabaseManager mDatabaseMgr;
+
+  public static BinaryExporter withDatabaseManager(DatabaseManager databaseManager) {
+    return new BinaryExporter(databaseManager);
+  }
+
+  private BinaryExporter(DatabaseManager db) {
+    mDatabaseMgr = db;
+  }
+
+  /**
+   * Exports all books to a new file in outDir.
+   *
+   * @return the file, or null if the export failed.
+   */
+  public File exportAllBooksToDir(File outDir) {
+    try {
+      final File outputFile = File.createTempFile("readtracker-export", FILE_EXTENSION, outDir);
+      if(exportAllToFile(outputFile)) {
+        Log.d(TAG, "Saved export to " + outputFile.toString());
+        return outputFile;
+      }
+    } catch(IOException e) {
+      Log.e(TAG, "Failed to create temporary file", e);
+    }
+
+    return null;
+  }
+
+  /**
+   * Exports the books to a file.
+   *
+   * @return true if exported, false otherwise.
+   */
+  public boolean exportBooksToFile(List<Book> books, File outputFile) {
+    try {
+      BinaryExportWriter writer = new BinaryExportWriter(new BufferedOutputStream(new FileOutputStream(outputFile)));
+      try {
+        for(Book book : books) {
+          writeCompleteBook(writer, book);
+        }
+        writer.finish();
+      } finally {
+        writer.close();
+      }
+      return true;
+    } catch(IOException ex) {
+      Log.w(TAG, "Failed to export binary data", ex);
+    }
+
+    return false;
+  }
+
+  /**
+   * Exports all books in the database to a file, reading them one at a time.
+   *
+   * @return true if exported, false otherwise.
+   */
+  public boolean exportAllToFile(File outputFile) {
+    try {
+      BinaryExportWriter writer = new BinaryExportWriter(new BufferedOutputStream(new FileOutputStream(outputFile)));
+      try {
+        BookExportVisitor visitor = new BookExportVisitor(writer);
+        mDatabaseMgr.forEach(Book.class, visitor);
+        if(visitor.mFailure != null) {
+          throw visitor.mFailure;
+        }
+        writer.finish();
+      } finally {
+        writer.close();
+      }
+      return true;
+    } catch(IOException ex) {
+      Log.w(TAG, "Failed to export binary data", ex);
+    }
+
+    return false;
+  }
+
+  private void writeCompleteBook(BinaryExportWriter writer, Book book) throws IOException {
+    writer.writeBook(book, mDatabaseMgr.getSessionsForBook(book), mDatabaseMgr.getQuotesForBook(book));
+  }
+
+  /** Writes each visited book, stopping at the first book that fails to export. */
+  private class BookExportVisitor implements DatabaseManager.Visitor<Book> {
+    private final BinaryExportWriter mWriter;
+    private IOException mFailure;
+
+    BookExportVisitor(BinaryExportWriter writer) {
+      mWriter = writer;
+    }
+
+    @Override public void visit(Book book) {
+      if(mFailure != null) {
+        return;
+      }
+
+      try {
+        writeCompleteBook(mWriter, book);
+      } catch(IOException e) {
+        mFailure = e;
+      }
+    }
+  }
+}
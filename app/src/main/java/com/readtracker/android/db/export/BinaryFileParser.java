@@ -0,0 +1,112 @@
+package com.readtracker.android.db.export;
+
+import com.readtracker.android.db.Book;
+import com.readtracker.android.db.DatabaseManager;
+import com.readtracker.android.db.Quote;
+import com.readtracker.android.db.Session;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parser for version 3 of the Export file format, the compact binary format.
+ * Like ExportedFileParser, books are handed over one at a time as soon as they have been read.
+ */
+public class BinaryFileParser {
+
+  /**
+   * Reads all books of a version 3 export, passing each to the visitor once it has been read
+   * together with its sessions and quotes. Closes the stream when done.
+   *
+   * @throws IOException if the content could not be read, or is not a version 3 export
+   */
+  public void parse(InputStream source, DatabaseManager.Visitor<? super Book> visitor) throws IOException {
+    try {
+      final byte[] head = new byte[BinaryFormat.HEADER_LENGTH];
+      final int headLength = readFully(source, head);
+      if(BinaryFormat.getFormatVersion(head, headLength) != BinaryFormat.FORMAT_VERSION) {
+        throw new IOException("Not a version 3 export");
+      }
+
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(source)));
+      int tag;
+      while((tag = in.readUnsignedByte()) == BinaryFormat.TAG_BOOK) {
+        visitor.visit(readBook(in));
+      }
+      if(tag != BinaryFormat.TAG_END) {
+        throw new IOException("Unexpected tag: " + tag);
+      }
+    } catch(IllegalArgumentException e) {
+      // Thrown for unknown book states
+      throw new IOException("Unexpected export content: " + e.getMessage(), e);
+    } finally {
+      source.close();
+    }
+  }
+
+  private Book readBook(DataInputStream in) throws IOException {
+    Book book = new Book();
+
+    BinaryFormat.readBookFields(in, book);
+
+    readSessions(in, book);
+    readQuotes(in, book);
+
+    return book;
+  }
+
+  private void readSessions(DataInputStream in, Book book) throws IOException {
+    final int count = BinaryFormat.readCount(in);
+    // Grown while reading rather than sized by count, so a corrupt count cannot allocate up front
+    final List<Session> sessions = new ArrayList<>();
+
+    long timestamp = 0;
+    for(int i = 0; i < count; i++) {
+      timestamp += BinaryFormat.readVarLong(in);
+      Session session = new Session();
+      session.setBook(book);
+      session.setTimestampMs(timestamp);
+      sessions.add(session);
+    }
+    for(Session session : sessions) {
+      session.setStartPosition(in.readFloat());
+    }
+    for(Session session : sessions) {
+      session.setEndPosition(in.readFloat());
+    }
+    for(Session session : sessions) {
+      session.setDurationSeconds(BinaryFormat.readVarLong(in));
+    }
+
+    book.getSessions().addAll(sessions);
+  }
+
+  private void readQuotes(DataInputStream in, Book book) throws IOException {
+    final int count = BinaryFormat.readCount(in);
+    final List<Quote> quotesInBook = book.getQuotes();
+    for(int i = 0; i < count; i++) {
+      Quote quote = new Quote();
+      quote.setBook(book);
+      BinaryFormat.readQuoteFields(in, quote);
+      quotesInBook.add(quote);
+    }
+  }
+
+  /** Reads until buffer is full or the stream ends, and returns the number of bytes read. */
+  static int readFully(InputStream in, byte[] buffer) throws IOException {
+    int length = 0;
+    while(length < buffer.length) {
+      final int read = in.read(buffer, length, buffer.length - length);
+      if(read < 0) {
+        break;
+      }
+      length += read;
+    }
+    return length;
+  }
+}
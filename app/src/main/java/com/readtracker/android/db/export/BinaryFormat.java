@@ -0,0 +1,164 @@
+package com.readtracker.android.db.export;
+
+import com.readtracker.android.db.Book;
+import com.readtracker.android.db.Quote;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants and primitive encodings of format version 3, the compact binary export format.
+ * <p/>
+ * A file starts with the uncompressed magic header and format version, followed by a gzip stream
+ * of the books. Each book is written as its fields, then its sessions column by column (delta
+ * encoded timestamps, packed start and end positions, durations), then its quotes. Whole numbers
+ * are written as zigzag encoded variable length integers, so small values take a single byte.
+ */
+final class BinaryFormat {
+  static final byte[] MAGIC = {'R', 'T', 'B', 'X'};
+  static final int FORMAT_VERSION = 3;
+
+  // Number of bytes at the start of the file that identify it
+  static final int HEADER_LENGTH = MAGIC.length + 1;
+
+  static final int TAG_END = 0;
+  static final int TAG_BOOK = 1;
+
+  // Upper bound for lengths and counts read from a file, to fail fast on corrupt input
+  static final int MAX_COUNT = 1 << 24;
+
+  private BinaryFormat() {
+  }
+
+  /** Returns the format version of a file that starts with head, or -1 if it is not binary. */
+  static int getFormatVersion(byte[] head, int length) {
+    if(length < HEADER_LENGTH) {
+      return -1;
+    }
+    for(int i = 0; i < MAGIC.length; i++) {
+      if(head[i] != MAGIC[i]) {
+        return -1;
+      }
+    }
+    return head[MAGIC.length] & 0xff;
+  }
+
+  static void writeVarLong(DataOutput out, long value) throws IOException {
+    long zigzag = (value << 1) ^ (value >> 63);
+    while((zigzag & ~0x7fL) != 0) {
+      out.writeByte((int) ((zigzag & 0x7f) | 0x80));
+      zigzag >>>= 7;
+    }
+    out.writeByte((int) zigzag);
+  }
+
+  static long readVarLong(DataInput in) throws IOException {
+    long zigzag = 0;
+    for(int shift = 0; shift < 64; shift += 7) {
+      final int b = in.readUnsignedByte();
+      zigzag |= (long) (b & 0x7f) << shift;
+      if((b & 0x80) == 0) {
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+      }
+    }
+    throw new IOException("Malformed variable length integer");
+  }
+
+  /** Reads a count or length, written with writeVarLong(). */
+  static int readCount(DataInput in) throws IOException {
+    final long count = readVarLong(in);
+    if(count < 0 || count > MAX_COUNT) {
+      throw new IOException("Unexpected count: " + count);
+    }
+    return (int) count;
+  }
+
+  /** Writes a nullable string as its length plus one (zero for null) and its UTF-8 bytes. */
+  static void writeString(DataOutput out, String value) throws IOException {
+    if(value == null) {
+      writeVarLong(out, 0);
+      return;
+    }
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(out, bytes.length + 1);
+    out.write(bytes);
+  }
+
+  static String readString(DataInput in) throws IOException {
+    final int length = readCount(in);
+    if(length == 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length - 1];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  static void writeNullableLong(DataOutput out, Long value) throws IOException {
+    out.writeBoolean(value != null);
+    if(value != null) {
+      writeVarLong(out, value);
+    }
+  }
+
+  static Long readNullableLong(DataInput in) throws IOException {
+    return in.readBoolean() ? readVarLong(in) : null;
+  }
+
+  static void writeNullableFloat(DataOutput out, Float value) throws IOException {
+    out.writeBoolean(value != null);
+    if(value != null) {
+      out.writeFloat(value);
+    }
+  }
+
+  static Float readNullableFloat(DataInput in) throws IOException {
+    return in.readBoolean() ? in.readFloat() : null;
+  }
+
+  /** Writes the fields of the book itself, without its sessions and quotes. */
+  static void writeBookFields(DataOutput out, Book book) throws IOException {
+    writeString(out, book.getTitle());
+    writeString(out, book.getAuthor());
+    writeString(out, book.getCoverImageUrl());
+    writeNullableFloat(out, book.getPageCount());
+    out.writeFloat(book.getCurrentPosition());
+    writeNullableLong(out, book.getCurrentPositionTimestampMs());
+    writeNullableLong(out, book.getFirstPositionTimestampMs());
+    writeString(out, book.getClosingRemark());
+    writeString(out, book.getState() == null ? null : book.getState().toString());
+  }
+
+  /**
+   * Reads the fields written by writeBookFields() into book.
+   *
+   * @throws IllegalArgumentException for an unknown book state
+   */
+  static void readBookFields(DataInput in, Book book) throws IOException {
+    book.setTitle(readString(in));
+    book.setAuthor(readString(in));
+    book.setCoverImageUrl(readString(in));
+    book.setPageCount(readNullableFloat(in));
+    book.setCurrentPosition(in.readFloat());
+    book.setCurrentPositionTimestampMs(readNullableLong(in));
+    book.setFirstPositionTimestampMs(readNullableLong(in));
+    book.setClosingRemark(readString(in));
+
+    final String stateName = readString(in);
+    book.setState(stateName == null ? Book.State.Unknown : Book.State.valueOf(stateName));
+  }
+
+  static void writeQuoteFields(DataOutput out, Quote quote) throws IOException {
+    writeString(out, quote.getContent());
+    writeNullableLong(out, quote.getAddTimestampMs());
+    writeNullableFloat(out, quote.getPosition());
+  }
+
+  static void readQuoteFields(DataInput in, Quote quote) throws IOException {
+    quote.setContent(readString(in));
+    quote.setAddTimestampMs(readNullableLong(in));
+    quote.setPosition(readNullableFloat(in));
+  }
+}
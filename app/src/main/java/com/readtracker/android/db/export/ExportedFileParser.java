@@ -1,144 +1,287 @@
 package com.readtracker.android.db.export;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
+
 import com.readtracker.android.db.Book;
+import com.readtracker.android.db.DatabaseManager;
 import com.readtracker.android.db.Quote;
 import com.readtracker.android.db.Session;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
-/** Parser for version 2 of the Export file format. */
+/**
+ * Streaming parser for versions 1 and 2 of the Export file format.
+ * Books are handed over one at a time as soon as they have been read, so only the book being
+ * read is kept in memory, no matter how large the file is.
+ */
 public class ExportedFileParser {
 
   /** Returns a list of all books in the import JSON file. */
-  public List<Book> parse(String fileContent) throws JSONException {
-    JSONObject jsonRoot = new JSONObject(fileContent);
-    List<Book> books = new ArrayList<>();
-    JSONArray jsonBooks = jsonRoot.getJSONArray("books");
-
-    for(int index = 0; index < jsonBooks.length(); index++) {
-      JSONObject jsonBookObject = jsonBooks.getJSONObject(index);
-      Book importedBook = buildBookFromJSON(jsonBookObject);
-      books.add(importedBook);
-    }
-
+  public List<Book> parse(String fileContent) throws IOException {
+    final List<Book> books = new ArrayList<>();
+    parse(new StringReader(fileContent), new DatabaseManager.Visitor<Book>() {
+      @Override public void visit(Book book) {
+        books.add(book);
+      }
+    });
     return books;
   }
 
-  private Book buildBookFromJSON(JSONObject jsonObject) throws JSONException {
-    Book book = new Book();
-    JsonWrapper json = new JsonWrapper(jsonObject);
-
-    book.setTitle(json.getString("title"));
-    book.setAuthor(json.getString("author"));
-    book.setCurrentPosition(json.getFloatOrZero("current_position"));
-    book.setCurrentPositionTimestampMs(json.getLong("current_position_timestamp"));
-    book.setFirstPositionTimestampMs(json.getLong("first_position_timestamp"));
-    book.setPageCount(json.getFloat("page_count"));
-    book.setCoverImageUrl(json.getString("cover_image_url"));
-    book.setClosingRemark(json.getString("closing_remark"));
-
-    String stateName = json.getString("state");
-    book.setState(stateName == null ? Book.State.Unknown : Book.State.valueOf(stateName));
-
-    JSONArray quotes = json.getArray("quotes");
-    List<Quote> quotesInBook = book.getQuotes();
-    for(int i = 0; i < quotes.length(); i++) {
-      JSONObject jsonQuote = quotes.getJSONObject(i);
-      Quote quote = buildQuoteFromJSON(book, jsonQuote);
-      quotesInBook.add(quote);
-    }
+  /**
+   * Reads all books of a version 2 export, passing each to the visitor once it has been read
+   * together with its sessions and quotes. Closes the reader when done.
+   *
+   * @throws IOException if the content could not be read, or is not a version 2 export
+   */
+  public void parse(Reader source, DatabaseManager.Visitor<? super Book> visitor) throws IOException {
+    JsonReader reader = new JsonReader(source);
+    try {
+      boolean hasBooks = false;
+      reader.beginObject();
+      while(reader.hasNext()) {
+        final String name = reader.nextName();
+        if(name.equals("books")) {
+          hasBooks = true;
+          reader.beginArray();
+          while(reader.hasNext()) {
+            visitor.visit(readBook(reader));
+          }
+          reader.endArray();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
 
-    JSONArray sessions = json.getArray("sessions");
-    List<Session> sessionsInBook = book.getSessions();
-    for(int i = 0; i < sessions.length(); i++) {
-      JSONObject jsonSession = sessions.getJSONObject(i);
-      Session session = buildSessionFromJSON(book, jsonSession);
-      sessionsInBook.add(session);
+      if(!hasBooks) {
+        throw new IOException("No books in export");
+      }
+    } catch(IllegalStateException | IllegalArgumentException e) {
+      // Thrown by JsonReader on unexpected tokens, and for unknown book states
+      throw new IOException("Unexpected export content: " + e.getMessage(), e);
+    } finally {
+      reader.close();
     }
+  }
 
-    return book;
+  /**
+   * Reads all books of a version 1 export, which is a concatenation of book objects rather than a
+   * list of them. Each top level value is read as a book, and passed to the visitor. Closes the
+   * reader when done.
+   *
+   * @throws IOException if the content could not be read, or is not a version 1 export
+   */
+  public void parseConcatenated(Reader source, DatabaseManager.Visitor<? super Book> visitor) throws IOException {
+    JsonReader reader = new JsonReader(source);
+    // Multiple top level values are only accepted by a lenient reader
+    reader.setLenient(true);
+    try {
+      while(reader.peek() != JsonToken.END_DOCUMENT) {
+        final Book book = readBook(reader);
+        if(book.getTitle().isEmpty() && book.getAuthor().isEmpty()) {
+          throw new IOException("Not a book, without title and author");
+        }
+        visitor.visit(book);
+      }
+    } catch(IllegalStateException | IllegalArgumentException e) {
+      throw new IOException("Unexpected export content: " + e.getMessage(), e);
+    } finally {
+      reader.close();
+    }
   }
 
-  private Session buildSessionFromJSON(Book book, JSONObject jsonSession) {
-    Session session = new Session();
-    JsonWrapper wrapper = new JsonWrapper(jsonSession);
+  /** Reads one book object, with its sessions and quotes. */
+  Book readBook(JsonReader reader) throws IOException {
+    Book book = new Book();
+
+    // Fields that are missing in the file are set the same as fields that are null
+    book.setCurrentPosition(0f);
+    book.setState(Book.State.Unknown);
 
-    session.setBook(book);
-    session.setTimestampMs(wrapper.getLongOrZero("timestamp"));
-    session.setStartPosition(wrapper.getFloatOrZero("start_position"));
-    session.setEndPosition(wrapper.getFloatOrZero("end_position"));
-    session.setDurationSeconds(wrapper.getLongOrZero("duration_seconds"));
+    reader.beginObject();
+    while(reader.hasNext()) {
+      final String name = reader.nextName();
+      switch(name) {
+        case "title":
+          book.setTitle(nextString(reader));
+          break;
+        case "author":
+          book.setAuthor(nextString(reader));
+          break;
+        case "current_position":
+          book.setCurrentPosition(nextFloatOrZero(reader));
+          break;
+        case "current_position_timestamp":
+          book.setCurrentPositionTimestampMs(nextLong(reader));
+          break;
+        case "first_position_timestamp":
+          book.setFirstPositionTimestampMs(nextLong(reader));
+          break;
+        case "page_count":
+          book.setPageCount(nextFloat(reader));
+          break;
+        case "cover_image_url":
+          book.setCoverImageUrl(nextString(reader));
+          break;
+        case "closing_remark":
+          book.setClosingRemark(nextString(reader));
+          break;
+        case "state":
+          final String stateName = nextString(reader);
+          book.setState(stateName == null ? Book.State.Unknown : Book.State.valueOf(stateName));
+          break;
+        case "quotes":
+          readQuotes(reader, book);
+          break;
+        case "sessions":
+          readSessions(reader, book);
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
 
-    return session;
+    return book;
   }
 
-  private Quote buildQuoteFromJSON(Book book, JSONObject jsonQuote) {
-    Quote quote = new Quote();
-    JsonWrapper wrapper = new JsonWrapper(jsonQuote);
+  private void readQuotes(JsonReader reader, Book book) throws IOException {
+    if(skipNullOrNonArray(reader)) {
+      return;
+    }
 
-    quote.setBook(book);
-    quote.setContent(wrapper.getString("content"));
-    quote.setAddTimestampMs(wrapper.getLong("add_timestamp"));
-    quote.setPosition(wrapper.getFloat("position"));
+    final List<Quote> quotesInBook = book.getQuotes();
+    reader.beginArray();
+    while(reader.hasNext()) {
+      Quote quote = new Quote();
+      quote.setBook(book);
 
-    return quote;
-  }
+      reader.beginObject();
+      while(reader.hasNext()) {
+        final String name = reader.nextName();
+        switch(name) {
+          case "content":
+            quote.setContent(nextString(reader));
+            break;
+          case "add_timestamp":
+            quote.setAddTimestampMs(nextLong(reader));
+            break;
+          case "position":
+            quote.setPosition(nextFloat(reader));
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+      reader.endObject();
 
-  /** Provides some customized field handling we want for json parsing. */
-  private static class JsonWrapper {
-    private final JSONObject mJsonObj;
+      quotesInBook.add(quote);
+    }
+    reader.endArray();
+  }
 
-    public JsonWrapper(JSONObject jsonObject) {
-      mJsonObj = jsonObject;
+  private void readSessions(JsonReader reader, Book book) throws IOException {
+    if(skipNullOrNonArray(reader)) {
+      return;
     }
 
-    /** Returns null if the field is missing or null, otherwise the value */
-    private Long getLong(String key) {
-      if(mJsonObj.has(key) && !mJsonObj.isNull(key)) {
-        return mJsonObj.optLong(key);
-      } else {
-        return null;
+    final List<Session> sessionsInBook = book.getSessions();
+    reader.beginArray();
+    while(reader.hasNext()) {
+      Session session = new Session();
+      session.setBook(book);
+
+      reader.beginObject();
+      while(reader.hasNext()) {
+        final String name = reader.nextName();
+        switch(name) {
+          case "timestamp":
+            session.setTimestampMs(nextLongOrZero(reader));
+            break;
+          case "start_position":
+            session.setStartPosition(nextFloatOrZero(reader));
+            break;
+          case "end_position":
+            session.setEndPosition(nextFloatOrZero(reader));
+            break;
+          case "duration_seconds":
+            session.setDurationSeconds(nextLongOrZero(reader));
+            break;
+          default:
+            reader.skipValue();
+        }
       }
-    }
+      reader.endObject();
 
-    /** Returns null if the field is missing or null, otherwise the value */
-    private Long getLongOrZero(String key) {
-      return mJsonObj.optLong(key);
+      sessionsInBook.add(session);
     }
+    reader.endArray();
+  }
 
-    /** Get JSON null values correctly for String fields. */
-    private String getString( String key) {
-      String value = mJsonObj.optString(key, null);
-      return value == null || value.equals("null") ? null : value;
+  /** Skips values that are not an array, so that they are handled as an empty list. */
+  private static boolean skipNullOrNonArray(JsonReader reader) throws IOException {
+    if(reader.peek() != JsonToken.BEGIN_ARRAY) {
+      reader.skipValue();
+      return true;
     }
+    return false;
+  }
 
-    /** Return null for float as null, not NaN */
-    private Float getFloat(String key) {
-      double value = mJsonObj.optDouble(key);
-      if(Double.isNaN(value)) {
-        return null;
-      }
-      return (float) value;
+  /** Returns null for null values, and for the string "null". */
+  private static String nextString(JsonReader reader) throws IOException {
+    if(reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
     }
+    final String value = reader.nextString();
+    return value.equals("null") ? null : value;
+  }
 
-    /** Return 0 for float as null, not NaN */
-    private float getFloatOrZero(String key) {
-      double value = mJsonObj.optDouble(key);
-      if(Double.isNaN(value)) {
-        return 0f;
-      }
-      return (float) value;
-    }
+  /** Returns null for null and non-numeric values, otherwise the value truncated to a long. */
+  private static Long nextLong(JsonReader reader) throws IOException {
+    final Double value = nextNumber(reader);
+    return value == null ? null : value.longValue();
+  }
+
+  private static long nextLongOrZero(JsonReader reader) throws IOException {
+    final Long value = nextLong(reader);
+    return value == null ? 0 : value;
+  }
+
+  /** Returns null for null and non-numeric values. */
+  private static Float nextFloat(JsonReader reader) throws IOException {
+    final Double value = nextNumber(reader);
+    return value == null ? null : value.floatValue();
+  }
 
-    /** Non null fetching of arrays */
-    public JSONArray getArray(String key) {
-      JSONArray array = mJsonObj.optJSONArray(key);
-      return array == null ? new JSONArray() : array;
+  private static float nextFloatOrZero(JsonReader reader) throws IOException {
+    final Float value = nextFloat(reader);
+    return value == null ? 0f : value;
+  }
+
+  private static Double nextNumber(JsonReader reader) throws IOException {
+    final JsonToken token = reader.peek();
+    if(token == JsonToken.NUMBER) {
+      // Read as a string, as nextLong() rejects fractions and nextDouble() loses long precision
+      final String number = reader.nextString();
+      try {
+        return (double) Long.parseLong(number);
+      } catch(NumberFormatException e) {
+        return Double.parseDouble(number);
+      }
+    } else if(token == JsonToken.STRING) {
+      try {
+        return Double.parseDouble(reader.nextString());
+      } catch(NumberFormatException e) {
+        return null;
+      }
     }
+    reader.skipValue();
+    return null;
   }
 }
@@ -0,0 +1,183 @@
+package com.readtracker.android.db.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tells the format version of an export from its first bytes, without reading the rest of it.
+ * <p/>
+ * Version 3 files start with a magic header. Of the JSON formats, version 2 files have the format
+ * version or the list of books at the top level, while version 1 files start with the fields of
+ * the first book. The top level names of the first JSON object are scanned, skipping their values,
+ * until one of them tells the format. Content where none of them does within the peeked bytes is
+ * not an export.
+ */
+final class FormatDetector {
+  static final int UNKNOWN_FORMAT = -1;
+
+  // Number of bytes looked at, which leaves room for other top level names before the telling one
+  static final int PEEK_LENGTH = 8192;
+
+  private static final int MAX_VERSION_DIGITS = 4;
+
+  private final byte[] mHead;
+  private final int mLength;
+  private int mPosition = 0;
+
+  private FormatDetector(byte[] head, int length) {
+    mHead = head;
+    mLength = length;
+  }
+
+  /**
+   * Peeks at the start of the stream and returns its format version, or UNKNOWN_FORMAT. The stream
+   * must support mark() and is reset to where it was, so it can be passed on to a parser.
+   */
+  static int detectFormatVersion(InputStream input) throws IOException {
+    final byte[] head = new byte[PEEK_LENGTH];
+    input.mark(PEEK_LENGTH);
+    final int length;
+    try {
+      length = BinaryFileParser.readFully(input, head);
+    } finally {
+      input.reset();
+    }
+    return detectFormatVersion(head, length);
+  }
+
+  static int detectFormatVersion(byte[] head, int length) {
+    final int binaryVersion = BinaryFormat.getFormatVersion(head, length);
+    if(binaryVersion >= 0) {
+      return binaryVersion;
+    }
+    return new FormatDetector(head, length).detectJsonFormatVersion();
+  }
+
+  private int detectJsonFormatVersion() {
+    skipByteOrderMark();
+    if(!consume('{')) {
+      return UNKNOWN_FORMAT;
+    }
+
+    do {
+      final String name = readString();
+      if(name == null || !consume(':')) {
+        return UNKNOWN_FORMAT;
+      } else if(name.equals("format_version")) {
+        return readVersion();
+      } else if(name.equals("books")) {
+        return 2;
+      } else if(name.equals("title") || name.equals("author")) {
+        return 1;
+      } else if(!skipValue()) {
+        return UNKNOWN_FORMAT;
+      }
+    } while(consume(','));
+
+    // End of the object, or of the peeked bytes, without any name of an export
+    return UNKNOWN_FORMAT;
+  }
+
+  private void skipByteOrderMark() {
+    if(mLength >= 3 && (mHead[0] & 0xff) == 0xef && (mHead[1] & 0xff) == 0xbb && (mHead[2] & 0xff) == 0xbf) {
+      mPosition = 3;
+    }
+  }
+
+  /** Skips whitespace and consumes the expected character, if it is next. */
+  private boolean consume(char expected) {
+    skipWhitespace();
+    if(mPosition < mLength && mHead[mPosition] == expected) {
+      mPosition++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the next string, or null if there is no complete string next. Escapes are kept as they
+   * are, as none of the names that tell the formats apart have any.
+   */
+  private String readString() {
+    if(!consume('"')) {
+      return null;
+    }
+    final int start = mPosition;
+    while(mPosition < mLength && mHead[mPosition] != '"') {
+      mPosition += mHead[mPosition] == '\\' ? 2 : 1;
+    }
+    if(mPosition >= mLength) {
+      return null;
+    }
+    return new String(mHead, start, mPosition++ - start, StandardCharsets.UTF_8);
+  }
+
+  /** Skips the next value, and returns false if it does not end within the peeked bytes. */
+  private boolean skipValue() {
+    skipWhitespace();
+    if(mPosition == mLength) {
+      return false;
+    }
+
+    final byte first = mHead[mPosition];
+    if(first == '"') {
+      return readString() != null;
+    } else if(first != '{' && first != '[') {
+      // Number or literal, ending at the next separator
+      while(mPosition < mLength && !isSeparator(mHead[mPosition])) {
+        mPosition++;
+      }
+      return mPosition < mLength;
+    }
+
+    int depth = 0;
+    while(mPosition < mLength) {
+      final byte c = mHead[mPosition];
+      if(c == '"') {
+        if(readString() == null) {
+          return false;
+        }
+        continue;
+      }
+      if(c == '{' || c == '[') {
+        depth++;
+      } else if(c == '}' || c == ']') {
+        depth--;
+      }
+      mPosition++;
+      if(depth == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isSeparator(byte c) {
+    return c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+
+  private int readVersion() {
+    skipWhitespace();
+    int version = 0;
+    int digits = 0;
+    while(mPosition < mLength && mHead[mPosition] >= '0' && mHead[mPosition] <= '9') {
+      if(++digits > MAX_VERSION_DIGITS) {
+        return UNKNOWN_FORMAT;
+      }
+      version = version * 10 + (mHead[mPosition++] - '0');
+    }
+    // The number must be complete, not cut off at the end of the peeked bytes
+    return digits > 0 && mPosition < mLength ? version : UNKNOWN_FORMAT;
+  }
+
+  private void skipWhitespace() {
+    while(mPosition < mLength) {
+      final byte c = mHead[mPosition];
+      if(c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+        return;
+      }
+      mPosition++;
+    }
+  }
+}
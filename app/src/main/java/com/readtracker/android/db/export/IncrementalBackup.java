@@ -0,0 +1,526 @@
+package com.readtracker.android.db.export;
+
+import android.util.JsonReader;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.readtracker.android.db.Book;
+import com.readtracker.android.db.ChangeSet;
+import com.readtracker.android.db.DatabaseHelper;
+import com.readtracker.android.db.DatabaseManager;
+import com.readtracker.android.db.Model;
+import com.readtracker.android.db.Quote;
+import com.readtracker.android.db.Session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Backs up the database to a chain of backup files: a base backup with all books, followed by
+ * incremental backups with only the books, sessions and quotes written or deleted since the
+ * previous backup. The chain is listed in a manifest in the backup directory, together with the
+ * change watermark each backup was taken at.
+ * <p/>
+ * Restoring replays the base backup and every incremental backup after it, in order, and merges
+ * the books with the ones in the database the same way an import does.
+ */
+public class IncrementalBackup {
+  private static final String TAG = IncrementalBackup.class.getSimpleName();
+
+  /** Backups in a chain, including the base, before the next backup starts a new chain. */
+  static final int MAX_CHAIN_LENGTH = 30;
+
+  static final String MANIFEST_FILE_NAME = "manifest.json";
+
+  private final DatabaseManager mDatabaseManager;
+  private final File mBackupDir;
+
+  public IncrementalBackup(DatabaseManager databaseManager, File backupDir) {
+    mDatabaseManager = databaseManager;
+    mBackupDir = backupDir;
+  }
+
+  public static class RestoreReport {
+    public int backupCount = 0;
+    public int writtenRowCount = 0;
+    public int deletedRowCount = 0;
+
+    @Override public String toString() {
+      return String.format(Locale.getDefault(),
+          "backups: %d, written rows: %d, deleted rows: %d",
+          backupCount, writtenRowCount, deletedRowCount
+      );
+    }
+  }
+
+  /**
+   * Writes a backup of the changes since the previous backup, or a base backup if there is no
+   * previous backup, the chain is full, or the previous backup is older than the retention of
+   * deleted rows, so that deletes since then may have been pruned.
+   *
+   * @return the written backup file, or null if nothing changed since the previous backup
+   */
+  public File backup() throws IOException {
+    if(!mBackupDir.isDirectory() && !mBackupDir.mkdirs()) {
+      throw new IOException("Failed to create backup directory: " + mBackupDir);
+    }
+
+    final List<ManifestEntry> chain = readManifest();
+    final long oldestUsableWatermark = System.currentTimeMillis() - DatabaseHelper.DELETED_ROWS_RETENTION_MS;
+    final boolean startNewChain = chain.isEmpty() || chain.size() >= MAX_CHAIN_LENGTH ||
+        chain.get(chain.size() - 1).watermark < oldestUsableWatermark;
+    final File tempFile = new File(mBackupDir, "backup.partial");
+    final ManifestEntry entry;
+
+    try {
+      if(startNewChain) {
+        entry = writeBaseBackup(tempFile);
+      } else {
+        entry = writeIncrementalBackup(tempFile, chain.get(chain.size() - 1).watermark);
+        if(entry == null) {
+          Log.d(TAG, "No changes since the previous backup");
+          return null;
+        }
+      }
+
+      final File backupFile = new File(mBackupDir, entry.fileName);
+      if(!tempFile.renameTo(backupFile)) {
+        throw new IOException("Failed to move backup to " + backupFile);
+      }
+
+      final List<ManifestEntry> oldChain = new ArrayList<>(chain);
+      if(startNewChain) {
+        chain.clear();
+      }
+      chain.add(entry);
+      writeManifest(chain);
+
+      if(startNewChain) {
+        // Only dropped once the manifest no longer refers to them
+        for(ManifestEntry oldEntry : oldChain) {
+          if(!new File(mBackupDir, oldEntry.fileName).delete()) {
+            Log.w(TAG, "Failed to delete old backup " + oldEntry.fileName);
+          }
+        }
+      }
+
+      Log.i(TAG, String.format("Wrote %s backup %s", startNewChain ? "base" : "incremental", entry.fileName));
+      return backupFile;
+    } finally {
+      if(tempFile.exists() && !tempFile.delete()) {
+        Log.w(TAG, "Failed to delete " + tempFile);
+      }
+    }
+  }
+
+  /**
+   * Replays the base backup and the incremental backups of the chain into the database. Each
+   * backup is restored in its own transaction.
+   */
+  public RestoreReport restore() throws IOException {
+    final RestoreReport report = new RestoreReport();
+    final BackupReplay replay = new BackupReplay(mDatabaseManager, report);
+
+    for(ManifestEntry entry : readManifest()) {
+      final File backupFile = new File(mBackupDir, entry.fileName);
+      Log.d(TAG, "Restoring " + backupFile);
+      try {
+        mDatabaseManager.callInTransaction(new Callable<Void>() {
+          @Override public Void call() throws Exception {
+            BackupFile.read(new BufferedInputStream(new FileInputStream(backupFile)), replay);
+            return null;
+          }
+        });
+      } catch(RuntimeException e) {
+        throw new IOException("Failed to restore " + entry.fileName, e);
+      }
+      report.backupCount += 1;
+    }
+
+    Log.i(TAG, "Restored backups: " + report);
+    return report;
+  }
+
+  private ManifestEntry writeBaseBackup(File outputFile) throws IOException {
+    // Read before the data, so that changes made while writing end up in the next backup
+    final long watermark = mDatabaseManager.getChangeWatermark();
+    final BackupFile.Writer writer = openWriter(outputFile, 0, watermark);
+    try {
+      BaseBackupVisitor visitor = new BaseBackupVisitor(writer);
+      mDatabaseManager.forEach(Book.class, visitor);
+      if(visitor.mFailure != null) {
+        throw visitor.mFailure;
+      }
+      writer.finish();
+    } finally {
+      writer.close();
+    }
+
+    return new ManifestEntry(getBackupFileName("base", watermark), 0, watermark);
+  }
+
+  private ManifestEntry writeIncrementalBackup(File outputFile, long sinceWatermark) throws IOException {
+    final ChangeSet changes = mDatabaseManager.getChangedSince(sinceWatermark);
+    if(changes.getWatermark() == sinceWatermark) {
+      // Only rows that are already in the previous backup
+      return null;
+    }
+
+    final BackupFile.Writer writer = openWriter(outputFile, sinceWatermark, changes.getWatermark());
+    try {
+      // Books first, so that new sessions and quotes can be matched to them when restoring
+      for(Book book : changes.getBooks()) {
+        writer.writeBook(book);
+      }
+      for(Session session : changes.getSessions()) {
+        writer.writeSession(session);
+      }
+      for(Quote quote : changes.getQuotes()) {
+        writer.writeQuote(quote);
+      }
+      for(int id : changes.getDeletedSessionIds()) {
+        writer.writeSessionDeleted(id);
+      }
+      for(int id : changes.getDeletedQuoteIds()) {
+        writer.writeQuoteDeleted(id);
+      }
+      for(int id : changes.getDeletedBookIds()) {
+        writer.writeBookDeleted(id);
+      }
+      writer.finish();
+    } finally {
+      writer.close();
+    }
+
+    return new ManifestEntry(getBackupFileName("incremental", changes.getWatermark()), sinceWatermark, changes.getWatermark());
+  }
+
+  private static BackupFile.Writer openWriter(File outputFile, long sinceWatermark, long watermark) throws IOException {
+    return new BackupFile.Writer(new BufferedOutputStream(new FileOutputStream(outputFile)), sinceWatermark, watermark);
+  }
+
+  private static String getBackupFileName(String kind, long watermark) {
+    return String.format(Locale.ROOT, "backup-%s-%d.rtbk", kind, watermark);
+  }
+
+  /** Returns the backups of the current chain, oldest first. */
+  List<ManifestEntry> readManifest() throws IOException {
+    final List<ManifestEntry> entries = new ArrayList<>();
+    final File manifestFile = new File(mBackupDir, MANIFEST_FILE_NAME);
+    if(!manifestFile.exists()) {
+      return entries;
+    }
+
+    JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(manifestFile), StandardCharsets.UTF_8));
+    try {
+      reader.beginObject();
+      while(reader.hasNext()) {
+        if(reader.nextName().equals("backups")) {
+          reader.beginArray();
+          while(reader.hasNext()) {
+            entries.add(readManifestEntry(reader));
+          }
+          reader.endArray();
+        } else {
+          reader.skipValue();
+        }
+      }
+      reader.endObject();
+    } catch(IllegalStateException | NumberFormatException e) {
+      throw new IOException("Unexpected manifest content: " + e.getMessage(), e);
+    } finally {
+      reader.close();
+    }
+    return entries;
+  }
+
+  private static ManifestEntry readManifestEntry(JsonReader reader) throws IOException {
+    String fileName = null;
+    long since = 0;
+    long watermark = 0;
+
+    reader.beginObject();
+    while(reader.hasNext()) {
+      final String name = reader.nextName();
+      switch(name) {
+        case "file":
+          fileName = reader.nextString();
+          break;
+        case "since":
+          since = reader.nextLong();
+          break;
+        case "watermark":
+          watermark = reader.nextLong();
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if(fileName == null) {
+      throw new IOException("Manifest entry without a file");
+    }
+    return new ManifestEntry(fileName, since, watermark);
+  }
+
+  /** Replaces the manifest, through a temporary file so that a failed write keeps the old one. */
+  private void writeManifest(List<ManifestEntry> entries) throws IOException {
+    final File manifestFile = new File(mBackupDir, MANIFEST_FILE_NAME);
+    final File tempFile = new File(mBackupDir, MANIFEST_FILE_NAME + ".tmp");
+
+    JsonWriter writer = new JsonWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(tempFile)), StandardCharsets.UTF_8));
+    try {
+      writer.beginObject();
+      writer.name("backups").beginArray();
+      for(ManifestEntry entry : entries) {
+        writer.beginObject();
+        writer.name("file").value(entry.fileName);
+        writer.name("since").value(entry.since);
+        writer.name("watermark").value(entry.watermark);
+        writer.endObject();
+      }
+      writer.endArray();
+      writer.endObject();
+    } finally {
+      writer.close();
+    }
+
+    if(!tempFile.renameTo(manifestFile)) {
+      throw new IOException("Failed to replace " + manifestFile);
+    }
+  }
+
+  /** One backup in the manifest, with the watermarks of the changes it covers. */
+  static class ManifestEntry {
+    final String fileName;
+    final long since;
+    final long watermark;
+
+    ManifestEntry(String fileName, long since, long watermark) {
+      this.fileName = fileName;
+      this.since = since;
+      this.watermark = watermark;
+    }
+  }
+
+  /** Writes every book of the database with all its sessions and quotes. */
+  private class BaseBackupVisitor implements DatabaseManager.Visitor<Book> {
+    private final BackupFile.Writer mWriter;
+    private IOException mFailure;
+
+    BaseBackupVisitor(BackupFile.Writer writer) {
+      mWriter = writer;
+    }
+
+    @Override public void visit(Book book) {
+      if(mFailure != null) {
+        return;
+      }
+
+      try {
+        mWriter.writeBook(book);
+        for(Session session : mDatabaseManager.getSessionsForBook(book)) {
+          session.setBook(book);
+          mWriter.writeSession(session);
+        }
+        for(Quote quote : mDatabaseManager.getQuotesForBook(book)) {
+          quote.setBook(book);
+          mWriter.writeQuote(quote);
+        }
+      } catch(IOException e) {
+        mFailure = e;
+      }
+    }
+  }
+
+  /**
+   * Applies the records of a chain of backups to the database. Rows in the backups are mapped to
+   * local rows by their id in the backup, so that later backups update the rows restored from
+   * earlier ones. Rows seen for the first time are matched with existing rows by content, like
+   * an import.
+   */
+  private static class BackupReplay implements BackupFile.RecordHandler {
+    private final DatabaseManager mDatabaseManager;
+    private final RestoreReport mReport;
+
+    // Backup id to local id
+    private final Map<Integer, Integer> mBookIds = new HashMap<>();
+    private final Map<Integer, Integer> mSessionIds = new HashMap<>();
+    private final Map<Integer, Integer> mQuoteIds = new HashMap<>();
+
+    private Map<String, Book> mBooksByMatchKey;
+
+    // Loaded when a book first gets a session or quote that is not mapped yet, by local book id
+    private final Map<Integer, Map<Session, Session>> mSessionsByBook = new HashMap<>();
+    private final Map<Integer, Map<Quote, Quote>> mQuotesByBook = new HashMap<>();
+
+    BackupReplay(DatabaseManager databaseManager, RestoreReport report) {
+      mDatabaseManager = databaseManager;
+      mReport = report;
+    }
+
+    @Override public void onBook(int id, Book book) {
+      if(mBooksByMatchKey == null) {
+        mBooksByMatchKey = new HashMap<>();
+        for(Book existing : mDatabaseManager.getAll(Book.class)) {
+          mBooksByMatchKey.put(JSONImporter.getMatchKey(existing), existing);
+        }
+      }
+
+      Book local = getMappedLocal(Book.class, mBookIds, id);
+      if(local == null) {
+        local = mBooksByMatchKey.get(JSONImporter.getMatchKey(book));
+      }
+
+      if(local != null) {
+        mBooksByMatchKey.remove(JSONImporter.getMatchKey(local));
+        // Sessions and quotes hash with the title and author of their book
+        mSessionsByBook.remove(local.getId());
+        mQuotesByBook.remove(local.getId());
+        local.merge(book);
+      } else {
+        local = book;
+      }
+
+      mDatabaseManager.save(local);
+      mBooksByMatchKey.put(JSONImporter.getMatchKey(local), local);
+      mBookIds.put(id, local.getId());
+      mReport.writtenRowCount += 1;
+    }
+
+    @Override public void onSession(int id, int bookId, Session session) {
+      final Book book = getMappedLocal(Book.class, mBookIds, bookId);
+      if(book == null) {
+        Log.w(TAG, "Skipping session " + id + " of unknown book " + bookId);
+        return;
+      }
+      session.setBook(book);
+
+      final Map<Session, Session> sessionsOfBook = getSessionsOfBook(book);
+      Session local = getMappedLocal(Session.class, mSessionIds, id);
+      if(local == null) {
+        local = sessionsOfBook.get(session);
+      }
+
+      if(local != null) {
+        local.setBook(book);
+        sessionsOfBook.remove(local);
+        local.merge(session);
+      } else {
+        local = session;
+      }
+
+      mDatabaseManager.save(local);
+      sessionsOfBook.put(local, local);
+      mSessionIds.put(id, local.getId());
+      mReport.writtenRowCount += 1;
+    }
+
+    @Override public void onQuote(int id, int bookId, Quote quote) {
+      final Book book = getMappedLocal(Book.class, mBookIds, bookId);
+      if(book == null) {
+        Log.w(TAG, "Skipping quote " + id + " of unknown book " + bookId);
+        return;
+      }
+      quote.setBook(book);
+
+      final Map<Quote, Quote> quotesOfBook = getQuotesOfBook(book);
+      Quote local = getMappedLocal(Quote.class, mQuoteIds, id);
+      if(local == null) {
+        local = quotesOfBook.get(quote);
+      }
+
+      if(local != null) {
+        local.setBook(book);
+        quotesOfBook.remove(local);
+        local.merge(quote);
+      } else {
+        local = quote;
+      }
+
+      mDatabaseManager.save(local);
+      quotesOfBook.put(local, local);
+      mQuoteIds.put(id, local.getId());
+      mReport.writtenRowCount += 1;
+    }
+
+    @Override public void onBookDeleted(int id) {
+      final Book local = getMappedLocal(Book.class, mBookIds, id);
+      if(local != null) {
+        // Sessions and quotes of the book are deleted with it
+        mBooksByMatchKey.remove(JSONImporter.getMatchKey(local));
+        mSessionsByBook.remove(local.getId());
+        mQuotesByBook.remove(local.getId());
+        mDatabaseManager.delete(local);
+        mReport.deletedRowCount += 1;
+      }
+      mBookIds.remove(id);
+    }
+
+    @Override public void onSessionDeleted(int id) {
+      final Session local = getMappedLocal(Session.class, mSessionIds, id);
+      if(local != null) {
+        mSessionsByBook.remove(local.getBook().getId());
+        mDatabaseManager.delete(local);
+        mReport.deletedRowCount += 1;
+      }
+      mSessionIds.remove(id);
+    }
+
+    @Override public void onQuoteDeleted(int id) {
+      final Quote local = getMappedLocal(Quote.class, mQuoteIds, id);
+      if(local != null) {
+        mQuotesByBook.remove(local.getBook().getId());
+        mDatabaseManager.delete(local);
+        mReport.deletedRowCount += 1;
+      }
+      mQuoteIds.remove(id);
+    }
+
+    /** Returns the local row mapped to the backup id, or null if unmapped or since deleted. */
+    private <T extends Model> T getMappedLocal(Class<T> modelClass, Map<Integer, Integer> ids, int id) {
+      final Integer localId = ids.get(id);
+      return localId == null ? null : mDatabaseManager.get(modelClass, localId);
+    }
+
+    private Map<Session, Session> getSessionsOfBook(Book book) {
+      Map<Session, Session> sessions = mSessionsByBook.get(book.getId());
+      if(sessions == null) {
+        sessions = new HashMap<>();
+        for(Session session : mDatabaseManager.getSessionsForBook(book)) {
+          session.setBook(book);
+          sessions.put(session, session);
+        }
+        mSessionsByBook.put(book.getId(), sessions);
+      }
+      return sessions;
+    }
+
+    private Map<Quote, Quote> getQuotesOfBook(Book book) {
+      Map<Quote, Quote> quotes = mQuotesByBook.get(book.getId());
+      if(quotes == null) {
+        quotes = new HashMap<>();
+        for(Quote quote : mDatabaseManager.getQuotesForBook(book)) {
+          quote.setBook(book);
+          quotes.put(quote, quote);
+        }
+        mQuotesByBook.put(book.getId(), quotes);
+      }
+      return quotes;
+    }
+  }
+}
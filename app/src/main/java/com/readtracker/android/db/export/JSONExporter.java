@@ -1,6 +1,7 @@
 package com.readtracker.android.db.export;
 
 import android.app.Activity;
+import android.util.JsonWriter;
 import android.util.Log;
 
 import com.readtracker.android.ReadTrackerApp;
@@ -9,13 +10,17 @@ import com.readtracker.android.db.DatabaseManager;
 import com.readtracker.android.db.Quote;
 import com.readtracker.android.db.Session;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 /** Serializer and deserializer of model data to and from JSON. */
@@ -40,11 +45,9 @@ public class JSONExporter {
   }
 
   public File exportAllBooksToDir(File outDir) {
-    List<Book> books = mDatabaseMgr.getAll(Book.class);
-
     try {
       final File outputFile = File.createTempFile("readtracker-export", ".json", outDir);
-      if(exportBooksToFile(books, outputFile)) {
+      if(exportAllToFile(outputFile)) {
         Log.d(TAG, "Saved export to " + outputFile.toString());
         return outputFile;
       }
@@ -60,97 +63,205 @@ public class JSONExporter {
    *
    * @return true if exported, false otherwise.
    */
-  public boolean exportBooksToFile(List<Book> books, File outputFile) {
+  public boolean exportBooksToFile(final List<Book> books, File outputFile) {
+    return writeToFile(new ExportWriter() {
+      @Override public void write(JsonWriter writer) throws IOException {
+        writeExport(writer, books);
+      }
+    }, outputFile);
+  }
+
+  /**
+   * Exports all books in the database to a file, reading them one at a time.
+   *
+   * @return true if exported, false otherwise.
+   */
+  public boolean exportAllToFile(File outputFile) {
+    return writeToFile(new ExportWriter() {
+      @Override public void write(JsonWriter writer) throws IOException {
+        writeExportOfAll(writer);
+      }
+    }, outputFile);
+  }
+
+  private boolean writeToFile(ExportWriter exportWriter, File outputFile) {
     try {
-      final String jsonData = exportAll(books).toString();
-      FileOutputStream fos = new FileOutputStream(outputFile);
-      fos.write(jsonData.getBytes());
-      fos.close();
+      final OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile));
+      final JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+      try {
+        exportWriter.write(writer);
+      } finally {
+        writer.close();
+      }
       return true;
-    } catch(JSONException ex) {
-      Log.w(TAG, "Failed to export JSON data (failed to create JSON)", ex);
     } catch(IOException ex) {
       Log.w(TAG, "Failed to export JSON data", ex);
+    } catch(IllegalArgumentException ex) {
+      Log.w(TAG, "Failed to export JSON data (invalid number)", ex);
     }
 
     return false;
   }
 
   /** Exports all books as a JSON object. */
-  public JSONObject exportAll(List<Book> books) throws JSONException {
-    JSONObject export = new JSONObject();
+  public JSONObject exportAll(final List<Book> books) throws JSONException {
+    return writeToJson(new ExportWriter() {
+      @Override public void write(JsonWriter writer) throws IOException {
+        writeExport(writer, books);
+      }
+    });
+  }
+
+  /**
+   * Exports all books in the database as a JSON object. The books are streamed from the
+   * database, so only the sessions and quotes of one book are loaded at a time.
+   */
+  public JSONObject exportAll() throws JSONException {
+    return writeToJson(new ExportWriter() {
+      @Override public void write(JsonWriter writer) throws IOException {
+        writeExportOfAll(writer);
+      }
+    });
+  }
 
-    JSONArray exportedBooks = new JSONArray();
+  private JSONObject writeToJson(ExportWriter exportWriter) throws JSONException {
+    final StringWriter out = new StringWriter();
+    try {
+      final JsonWriter writer = new JsonWriter(out);
+      exportWriter.write(writer);
+      writer.close();
+    } catch(IOException | IllegalArgumentException e) {
+      throw new JSONException(e.getMessage());
+    }
+    return new JSONObject(out.toString());
+  }
 
+  private void writeExport(JsonWriter writer, List<Book> books) throws IOException {
+    writer.beginObject();
+    writer.name("books").beginArray();
     for(Book book : books) {
-      book.loadQuotes(mDatabaseMgr);
-      book.loadSessions(mDatabaseMgr);
-      JSONObject exportedBook = exportCompleteBook(book);
-      exportedBooks.put(exportedBook);
+      writeCompleteBook(writer, book);
     }
+    writer.endArray();
+    writer.name("format_version").value(FORMAT_VERSION);
+    writer.endObject();
+  }
 
-    export.put("books", exportedBooks);
-    export.put("format_version", FORMAT_VERSION);
+  private void writeExportOfAll(JsonWriter writer) throws IOException {
+    writer.beginObject();
+    writer.name("books").beginArray();
+    BookExportVisitor visitor = new BookExportVisitor(writer);
+    mDatabaseMgr.forEach(Book.class, visitor);
+    if(visitor.mFailure != null) {
+      throw visitor.mFailure;
+    }
+    writer.endArray();
+    writer.name("format_version").value(FORMAT_VERSION);
+    writer.endObject();
+  }
+
+  /**
+   * Writes the book with its sessions and quotes. These are read just before they are written,
+   * and are not attached to the book, so they can be collected as soon as the book is done.
+   */
+  private void writeCompleteBook(JsonWriter writer, Book book) throws IOException {
+    writer.beginObject();
+    writeBookFields(writer, book);
+
+    writer.name("sessions").beginArray();
+    for(Session session : mDatabaseMgr.getSessionsForBook(book)) {
+      writeSession(writer, session);
+    }
+    writer.endArray();
 
-    return export;
+    writer.name("quotes").beginArray();
+    for(Quote quote : mDatabaseMgr.getQuotesForBook(book)) {
+      writeQuote(writer, quote);
+    }
+    writer.endArray();
+
+    writer.endObject();
   }
 
-  private JSONObject exportCompleteBook(Book book) throws JSONException {
-    JSONObject json = createSingleBookJson(book);
+  // The fields are written in the order, and with the number formatting, that the JSONObject
+  // based exporter used, so that exports stay identical to earlier ones.
 
-    json.put("sessions", createSessionListJson(book.getSessions()));
-    json.put("quotes", createQuoteListJson(book.getQuotes()));
+  private void writeBookFields(JsonWriter writer, Book book) throws IOException {
+    writeString(writer, Book.Columns.TITLE, book.getTitle());
+    writeString(writer, Book.Columns.AUTHOR, book.getAuthor());
+    writeString(writer, Book.Columns.COVER_IMAGE_URL, book.getCoverImageUrl());
+    writeNumber(writer, Book.Columns.PAGE_COUNT, book.getPageCount());
+    writeNumber(writer, Book.Columns.CURRENT_POSITION, (double) book.getCurrentPosition());
+    writeNumber(writer, Book.Columns.CURRENT_POSITION_TIMESTAMP, book.getCurrentPositionTimestampMs());
+    writeNumber(writer, Book.Columns.FIRST_POSITION_TIMESTAMP, book.getFirstPositionTimestampMs());
+    writeString(writer, Book.Columns.CLOSING_REMARK, book.getClosingRemark());
 
-    return json;
+    String stateName = book.getState() == null ? null : book.getState().toString();
+    writeString(writer, Book.Columns.STATE, stateName);
   }
 
-  JSONArray createSessionListJson(List<Session> sessions) throws JSONException {
-    JSONArray sessionsJson = new JSONArray();
-    for(Session session : sessions) {
-      sessionsJson.put(createSingleSessionJson(session));
-    }
-    return sessionsJson;
+  private void writeSession(JsonWriter writer, Session session) throws IOException {
+    writer.beginObject();
+    writeNumber(writer, Session.Columns.START_POSITION, (double) session.getStartPosition());
+    writeNumber(writer, Session.Columns.END_POSITION, (double) session.getEndPosition());
+    writeNumber(writer, Session.Columns.DURATION_SECONDS, session.getDurationSeconds());
+    writeNumber(writer, Session.Columns.TIMESTAMP, session.getTimestampMs());
+    writer.endObject();
   }
 
-  JSONArray createQuoteListJson(List<Quote> quotes) throws JSONException {
-    JSONArray quotesJson = new JSONArray();
-    for(Quote quote : quotes) {
-      quotesJson.put(createSingleQuoteJson(quote));
-    }
-    return quotesJson;
+  private void writeQuote(JsonWriter writer, Quote quote) throws IOException {
+    writer.beginObject();
+    writeString(writer, Quote.Columns.CONTENT, quote.getContent());
+    writeNumber(writer, Quote.Columns.ADD_TIMESTAMP, quote.getAddTimestampMs());
+    writeNumber(writer, Quote.Columns.POSITION, quote.getPosition());
+    writer.endObject();
   }
 
-  JSONObject createSingleBookJson(Book book) throws JSONException {
-    JSONObject json = new JSONObject();
-    json.put(Book.Columns.TITLE, book.getTitle());
-    json.put(Book.Columns.AUTHOR, book.getAuthor());
-    json.put(Book.Columns.COVER_IMAGE_URL, book.getCoverImageUrl());
-    json.put(Book.Columns.PAGE_COUNT, book.getPageCount());
-    json.put(Book.Columns.CURRENT_POSITION, book.getCurrentPosition());
-    json.put(Book.Columns.CURRENT_POSITION_TIMESTAMP, book.getCurrentPositionTimestampMs());
-    json.put(Book.Columns.FIRST_POSITION_TIMESTAMP, book.getFirstPositionTimestampMs());
-    json.put(Book.Columns.CLOSING_REMARK, book.getClosingRemark());
+  /** Writes the field, leaving it out if it is null. */
+  private static void writeString(JsonWriter writer, String name, String value) throws IOException {
+    if(value != null) {
+      writer.name(name).value(value);
+    }
+  }
 
-    String stateName = book.getState() == null ? null : book.getState().toString();
-    json.put(Book.Columns.STATE, stateName);
+  /** Writes the field, leaving it out if it is null. Whole numbers are written without fraction. */
+  private static void writeNumber(JsonWriter writer, String name, Number value) throws IOException {
+    if(value == null) {
+      return;
+    }
 
-    return json;
+    final double doubleValue = value.doubleValue();
+    if(value instanceof Long || doubleValue == (long) doubleValue) {
+      writer.name(name).value(value.longValue());
+    } else {
+      writer.name(name).value(value);
+    }
   }
 
-  JSONObject createSingleSessionJson(Session session) throws JSONException {
-    JSONObject json = new JSONObject();
-    json.put(Session.Columns.START_POSITION, session.getStartPosition());
-    json.put(Session.Columns.END_POSITION, session.getEndPosition());
-    json.put(Session.Columns.DURATION_SECONDS, session.getDurationSeconds());
-    json.put(Session.Columns.TIMESTAMP, session.getTimestampMs());
-    return json;
+  /** Writes a complete export document. */
+  private interface ExportWriter {
+    void write(JsonWriter writer) throws IOException;
   }
 
-  JSONObject createSingleQuoteJson(Quote quote) throws JSONException {
-    JSONObject json = new JSONObject();
-    json.put(Quote.Columns.CONTENT, quote.getContent());
-    json.put(Quote.Columns.ADD_TIMESTAMP, quote.getAddTimestampMs());
-    json.put(Quote.Columns.POSITION, quote.getPosition());
-    return json;
+  /** Writes each visited book, stopping at the first book that fails to export. */
+  private class BookExportVisitor implements DatabaseManager.Visitor<Book> {
+    private final JsonWriter mWriter;
+    private IOException mFailure;
+
+    BookExportVisitor(JsonWriter writer) {
+      mWriter = writer;
+    }
+
+    @Override public void visit(Book book) {
+      if(mFailure != null) {
+        return;
+      }
+
+      try {
+        writeCompleteBook(mWriter, book);
+      } catch(IOException e) {
+        mFailure = e;
+      }
+    }
   }
 }
@@ -1,41 +1,95 @@
 package com.readtracker.android.db.export;
 
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.readtracker.android.db.Book;
 import com.readtracker.android.db.DatabaseManager;
+import com.readtracker.android.db.Model;
 import com.readtracker.android.db.Quote;
 import com.readtracker.android.db.Session;
-import com.readtracker.android.support.Utils;
-
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
 
 public class JSONImporter {
   private static final String TAG = JSONImporter.class.getSimpleName();
+
+  // Number of parsed books that may wait for the writer before the parser is held back
+  private static final int QUEUE_CAPACITY = 16;
+  // Largest number of books merged in one transaction
+  private static final int BOOKS_PER_TRANSACTION = 32;
+  // How long the writer waits for the parser before checking for cancellation again
+  private static final long POLL_INTERVAL_MS = 100;
+  private static final int PROGRESS_MAX = 1000;
+
   private final DatabaseManager mDatabaseManager;
   private final ProgressListener mProgressListener;
+  private final BatchWriter mBatchWriter;
+  private volatile boolean mCancelled = false;
+  private volatile Thread mParserThread;
 
   private static final ProgressListener DUMMY_LISTENER = new ProgressListener() {
-    @Override public void onProgressUpdate(int currentBook, int totalBooks) {}
+    @Override public void onProgressUpdate(int progress, int max, float booksPerSecond) {}
+  };
+
+  private static final BatchWriter CALLING_THREAD_WRITER = new BatchWriter() {
+    @Override public void write(Runnable batchTransaction) {
+      batchTransaction.run();
+    }
   };
 
+  /**
+   * Listener for import progress, called after each batch of books is written. The number of
+   * books in a file is not known until all of it has been read, so progress is reported as the
+   * part of the file read so far, together with the number of books written per second.
+   */
   public interface ProgressListener {
-    void onProgressUpdate(int currentBook, int totalBooks);
+    void onProgressUpdate(int progress, int max, float booksPerSecond);
   }
 
   public JSONImporter(DatabaseManager databaseManager) {
     this(databaseManager, DUMMY_LISTENER);
   }
 
+  /**
+   * Runs the transaction that writes one batch of books, and returns once it has run. Lets the
+   * caller pick the thread that the batches are written on, for example to write each batch as a
+   * separate job so that other writes can run in between.
+   */
+  public interface BatchWriter {
+    void write(Runnable batchTransaction) throws InterruptedException;
+  }
+
   public JSONImporter(DatabaseManager databaseManager, ProgressListener listener) {
+    this(databaseManager, listener, CALLING_THREAD_WRITER);
+  }
+
+  public JSONImporter(DatabaseManager databaseManager, ProgressListener listener, BatchWriter batchWriter) {
     mDatabaseManager = databaseManager;
     mProgressListener = listener;
+    mBatchWriter = batchWriter;
   }
 
   public static class ImportResultReport {
@@ -43,11 +97,12 @@ public class JSONImporter {
     public int createdBookCount = 0;
     public int createdQuotesCount = 0;
     public int createdSessionCount = 0;
+    public boolean wasCancelled = false;
 
     @Override public String toString() {
       return String.format(Locale.getDefault(),
-          "merged books: %d, created books: %d, created quotes: %d, created sessions: %d",
-          mergedBookCount, createdBookCount, createdQuotesCount, createdSessionCount
+          "merged books: %d, created books: %d, created quotes: %d, created sessions: %d, cancelled: %b",
+          mergedBookCount, createdBookCount, createdQuotesCount, createdSessionCount, wasCancelled
       );
     }
   }
@@ -55,17 +110,47 @@ public class JSONImporter {
   /**
    * Imports a previously a exported data file from any previous version of ReadTracker.
    * Returns a ImportResultsReport.
+   * <p/>
+   * Books are written in batches, each in its own transaction. An import that fails or is
+   * cancelled keeps the books written before that, and importing the same file again merges with
+   * them rather than creating duplicates.
    */
   public ImportResultReport importFile(File importFile) throws IOException, ImportException {
-    String fileContent = Utils.readInputFile(importFile);
-    int formatVersion = getFormatVersion(fileContent);
+    // The format is detected from the buffered start of the file, which the parser then reads again
+    final InputStream source = new BufferedInputStream(new FileInputStream(importFile));
+    final int formatVersion;
+    try {
+      formatVersion = FormatDetector.detectFormatVersion(source);
+    } catch(IOException e) {
+      source.close();
+      throw e;
+    }
 
+    final CountingInputStream input = new CountingInputStream(source);
     if(formatVersion == 1) {
-      return importFromVersion1(fileContent);
+      return importFromVersion1(input, importFile.length());
     } else if(formatVersion == 2) {
-      return importFromVersion2(fileContent);
-    } else {
-      throw new UnexpectedImportDataFormatException("Unknown format version");
+      return importFromVersion2(input, importFile.length());
+    } else if(formatVersion == BinaryFormat.FORMAT_VERSION) {
+      return importFromVersion3(input, importFile.length());
+    }
+
+    source.close();
+    if(formatVersion == FormatDetector.UNKNOWN_FORMAT) {
+      throw new UnexpectedImportDataFormatException("Failed to get format version from content");
+    }
+    throw new UnexpectedImportDataFormatException("Unknown format version");
+  }
+
+  /**
+   * Stops a running import. Can be called from any thread. The batch being written is finished,
+   * after which importFile() returns a report of the books written so far, with wasCancelled set.
+   */
+  public void cancel() {
+    mCancelled = true;
+    final Thread parserThread = mParserThread;
+    if(parserThread != null) {
+      parserThread.interrupt();
     }
   }
 
@@ -75,12 +160,15 @@ public class JSONImporter {
    * <code>
    * { "title": "Metamorphosis", ... }{ "title": "Game of Thrones", ... }
    * </code>
+   * The objects are streamed one after the other, the same as the books of version 2.
    */
-  private ImportResultReport importFromVersion1(String fileContent) throws ImportException {
-    // Convert version 1 to version 2 and use version 2 importer
-    fileContent = fileContent.replaceAll("[}][{]", "}, {");
-    fileContent = String.format("{ \"format_version\": 2, \"books\": [%s] }", fileContent);
-    return importFromVersion2(fileContent);
+  private ImportResultReport importFromVersion1(CountingInputStream input, long sourceSize) throws ImportException {
+    final Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8);
+    return importBooks(input, sourceSize, new BookParser() {
+      @Override void parseBooks(DatabaseManager.Visitor<Book> visitor) throws IOException {
+        new ExportedFileParser().parseConcatenated(reader, visitor);
+      }
+    });
   }
 
   /**
@@ -94,114 +182,305 @@ public class JSONImporter {
    * ]
    * }
    * </code>
+   * The file is streamed, so only the books waiting to be merged are kept in memory.
+   */
+  private ImportResultReport importFromVersion2(CountingInputStream input, long sourceSize) throws ImportException {
+    final Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8);
+    return importBooks(input, sourceSize, new BookParser() {
+      @Override void parseBooks(DatabaseManager.Visitor<Book> visitor) throws IOException {
+        new ExportedFileParser().parse(reader, visitor);
+      }
+    });
+  }
+
+  /**
+   * Version 3 is a gzip compressed binary format, with the sessions of each book stored column by
+   * column. See BinaryFormat for the layout.
+   */
+  private ImportResultReport importFromVersion3(final CountingInputStream input, long sourceSize) throws ImportException {
+    return importBooks(input, sourceSize, new BookParser() {
+      @Override void parseBooks(DatabaseManager.Visitor<Book> visitor) throws IOException {
+        new BinaryFileParser().parse(input, visitor);
+      }
+    });
+  }
+
+  /**
+   * Imports books in two stages. A parser thread reads the books and queues them, while the
+   * calling thread takes them in batches and has the batch writer merge each batch with the books
+   * in the database. The queue is bounded, so the parser waits whenever the writer falls behind.
    */
-  private ImportResultReport importFromVersion2(String fileContent) throws ImportException {
+  private ImportResultReport importBooks(CountingInputStream input, long sourceSize, BookParser parser) throws ImportException {
+    final Thread parserThread = new Thread(parser, "import-parser");
+    mParserThread = parserThread;
+    parserThread.start();
+
+    final ImportResultReport report = new ImportResultReport();
     try {
-      ExportedFileParser fileParser = new ExportedFileParser();
-      List<Book> booksToImport = fileParser.parse(fileContent);
-      return importAndMergeBooks(booksToImport);
-    } catch(JSONException e) {
-      final String message = String.format("Unknown import format error: %s", e.getMessage());
+      final Map<String, Book> existingBooks = indexBooks(mDatabaseManager.getAll(Book.class));
+      final List<Book> batch = new ArrayList<>(BOOKS_PER_TRANSACTION);
+      final long startedAt = SystemClock.elapsedRealtime();
+      int writtenBookCount = 0;
+      boolean hasMoreBooks = true;
+
+      while(hasMoreBooks && !mCancelled) {
+        hasMoreBooks = parser.takeBatch(batch, BOOKS_PER_TRANSACTION);
+        if(batch.isEmpty()) {
+          continue;
+        }
+
+        writeBatch(batch, existingBooks, report);
+        writtenBookCount += batch.size();
+        batch.clear();
+
+        final long elapsedMs = Math.max(1, SystemClock.elapsedRealtime() - startedAt);
+        final int progress = sourceSize <= 0 ? PROGRESS_MAX : (int) Math.min(PROGRESS_MAX, input.getBytesRead() * PROGRESS_MAX / sourceSize);
+        mProgressListener.onProgressUpdate(progress, PROGRESS_MAX, writtenBookCount * 1000f / elapsedMs);
+      }
+    } catch(InterruptedException e) {
+      Log.w(TAG, "Interrupted while waiting for books to import");
+      Thread.currentThread().interrupt();
+      mCancelled = true;
+    } finally {
+      // Stops the parser if the writer did not take all books
+      mParserThread = null;
+      parserThread.interrupt();
+    }
+
+    if(mCancelled) {
+      report.wasCancelled = true;
+      return report;
+    }
+
+    final Throwable failure = parser.mFailure;
+    if(failure instanceof IOException) {
+      final String message = String.format("Unknown import format error: %s", failure.getMessage());
       throw new UnexpectedImportDataFormatException(message);
+    } else if(failure instanceof Error) {
+      throw (Error) failure;
+    } else if(failure != null) {
+      throw (RuntimeException) failure;
     }
+
+    return report;
   }
 
-  /** Merges a list of books with the current books in the database. */
-  private ImportResultReport importAndMergeBooks(List<Book> booksToImport) {
-    List<Book> existingBooks = mDatabaseManager.getAll(Book.class);
-    ImportResultReport report = new ImportResultReport();
-    final int numBooksToImport = booksToImport.size();
-    for(int i = 0; i < numBooksToImport; i++) {
-      Book bookToImport = booksToImport.get(i);
-      Book bookToPersist;
-      mProgressListener.onProgressUpdate(i, numBooksToImport);
-
-      if(existingBooks.contains(bookToImport)) {
-        Book existingBook = existingBooks.get(existingBooks.indexOf(bookToImport));
-        existingBook.merge(bookToImport);
-        report.createdQuotesCount += importMissingQuotes(mDatabaseManager, existingBook, bookToImport.getQuotes());
-        report.createdSessionCount += importMissingSession(mDatabaseManager, existingBook, bookToImport.getSessions());
-        bookToPersist = existingBook;
-        report.mergedBookCount += 1;
-      } else {
-        bookToPersist = bookToImport;
-        report.createdQuotesCount += bookToPersist.getSessions().size();
-        report.createdSessionCount += bookToPersist.getQuotes().size();
-        report.createdBookCount += 1;
+  /** Merges a batch of books in one transaction, run by the batch writer. */
+  private void writeBatch(final List<Book> batch, final Map<String, Book> existingBooks, final ImportResultReport report)
+      throws InterruptedException {
+    mBatchWriter.write(new Runnable() {
+      @Override public void run() {
+        mDatabaseManager.callInTransaction(new Callable<Void>() {
+          @Override public Void call() {
+            for(Book bookToImport : batch) {
+              mergeBook(bookToImport, existingBooks, report);
+            }
+            return null;
+          }
+        });
       }
+    });
+  }
 
-      mDatabaseManager.save(bookToPersist);
-      mDatabaseManager.saveAll(bookToPersist.getSessions());
-      mDatabaseManager.saveAll(bookToPersist.getQuotes());
+  /** Returns the books by their match key. The first book wins if several have the same key. */
+  private static Map<String, Book> indexBooks(List<Book> books) {
+    final Map<String, Book> index = new HashMap<>(books.size() * 2);
+    for(Book book : books) {
+      final String key = getMatchKey(book);
+      if(!index.containsKey(key)) {
+        index.put(key, book);
+      }
     }
+    return index;
+  }
 
-    return report;
+  /**
+   * Returns the key that imported books are matched to existing books with: the title and author,
+   * ignoring case and surrounding whitespace.
+   */
+  static String getMatchKey(Book book) {
+    return normalize(book.getTitle()) + '\n' + normalize(book.getAuthor());
+  }
+
+  private static String normalize(String value) {
+    return value.trim().toLowerCase(Locale.ROOT);
   }
 
   /**
-   * Imports a list of Quotes into a Book, skipping existing entries.
-   * Returns the number of imported Quotes.
+   * Merges a book with the matching book in existingBooks, or creates it if there is none.
    */
-  private long importMissingQuotes(DatabaseManager dbManager, Book book, List<Quote> quotesToImport) {
-    book.loadQuotes(dbManager); // make sure the book has all it's quotes loaded
+  private void mergeBook(Book bookToImport, Map<String, Book> existingBooks, ImportResultReport report) {
+    List<Model> modelsToPersist = new ArrayList<>();
+
+    Book existingBook = existingBooks.get(getMatchKey(bookToImport));
+    if(existingBook != null) {
+      existingBook.merge(bookToImport);
+      List<Quote> missingQuotes = findMissingQuotes(existingBook, bookToImport.getQuotes());
+      List<Session> missingSessions = findMissingSessions(existingBook, bookToImport.getSessions());
+      report.createdQuotesCount += missingQuotes.size();
+      report.createdSessionCount += missingSessions.size();
+      modelsToPersist.add(existingBook);
+      modelsToPersist.addAll(missingQuotes);
+      modelsToPersist.addAll(missingSessions);
+      report.mergedBookCount += 1;
+    } else {
+      report.createdQuotesCount += bookToImport.getQuotes().size();
+      report.createdSessionCount += bookToImport.getSessions().size();
+      modelsToPersist.add(bookToImport);
+      modelsToPersist.addAll(bookToImport.getSessions());
+      modelsToPersist.addAll(bookToImport.getQuotes());
+      report.createdBookCount += 1;
+    }
+
+    // The book is always first in the batch, so it gets an id before its children are written
+    mDatabaseManager.saveAll(modelsToPersist);
+  }
+
+  /**
+   * Returns new, unsaved, Quotes for the entries in quotesToImport that the Book doesn't already
+   * have. The returned Quotes are also added to the Book.
+   */
+  private List<Quote> findMissingQuotes(Book book, List<Quote> quotesToImport) {
+    book.loadQuotes(mDatabaseManager); // make sure the book has all it's quotes loaded
     List<Quote> currentQuotes = book.getQuotes();
-    long importedQuotes = 0;
+    Set<Quote> currentQuotesSet = new HashSet<>(currentQuotes);
+    List<Quote> missingQuotes = new ArrayList<>();
     for(Quote candidate : quotesToImport) {
       candidate.setBook(book); // needed for equality check
-      if(!currentQuotes.contains(candidate)) {
+      if(!currentQuotesSet.contains(candidate)) {
         Quote spawn = new Quote();
         spawn.setBook(book);
         spawn.merge(candidate);
-        dbManager.save(spawn);
         currentQuotes.add(spawn);
-        importedQuotes += 1;
+        currentQuotesSet.add(spawn);
+        missingQuotes.add(spawn);
       } else {
-        Log.d(TAG, String.format("Skipping %s (duplicate)", quotesToImport));
+        Log.d(TAG, String.format("Skipping %s (duplicate)", candidate));
       }
     }
 
-    return importedQuotes;
+    return missingQuotes;
   }
 
-  /** Imports a list of Sessions into a Book, skipping existing entries. */
-  private long importMissingSession(DatabaseManager dbManager, Book book, List<Session> otherSessions) {
-    book.loadSessions(dbManager); // make sure the book has all it's quotes loaded
+  /**
+   * Returns new, unsaved, Sessions for the entries in otherSessions that the Book doesn't already
+   * have. The returned Sessions are also added to the Book.
+   */
+  private List<Session> findMissingSessions(Book book, List<Session> otherSessions) {
+    book.loadSessions(mDatabaseManager); // make sure the book has all it's sessions loaded
     List<Session> currentSessions = book.getSessions();
-    long importedSessionCount = 0;
+    Set<Session> currentSessionsSet = new HashSet<>(currentSessions);
+    List<Session> missingSessions = new ArrayList<>();
     for(Session candidate : otherSessions) {
       candidate.setBook(book); // needed for equality check
-      if(!currentSessions.contains(candidate)) {
+      if(!currentSessionsSet.contains(candidate)) {
         Session spawn = new Session();
         spawn.setBook(book);
         spawn.merge(candidate);
-        dbManager.save(spawn);
         currentSessions.add(spawn);
-        importedSessionCount += 1;
+        currentSessionsSet.add(spawn);
+        missingSessions.add(spawn);
       } else {
         Log.d(TAG, String.format("Skipping %s (duplicate)", candidate));
       }
     }
 
-    return importedSessionCount;
+    return missingSessions;
   }
 
-  private int getFormatVersion(String exportFileContent) throws UnexpectedImportDataFormatException {
-    try {
-      JSONObject data = new JSONObject(exportFileContent);
-      if(data.has("format_version")) {
-        return data.getInt("format_version");
+  /** Counts the bytes read through it, to report progress when the number of books is unknown. */
+  private static class CountingInputStream extends FilterInputStream {
+    private volatile long mBytesRead = 0;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override public int read() throws IOException {
+      final int result = super.read();
+      if(result >= 0) mBytesRead++;
+      return result;
+    }
+
+    @Override public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+      final int result = super.read(buffer, offset, count);
+      if(result > 0) mBytesRead += result;
+      return result;
+    }
+
+    @Override public long skip(long count) throws IOException {
+      final long skipped = super.skip(count);
+      mBytesRead += skipped;
+      return skipped;
+    }
+
+    long getBytesRead() {
+      return mBytesRead;
+    }
+  }
+
+  /** Parses books on its own thread, and hands them to the writer through a bounded queue. */
+  private static abstract class BookParser implements Runnable {
+    // Queued after the last book, as the queue cannot hold null
+    private static final Book END_OF_BOOKS = new Book();
+
+    private final BlockingQueue<Book> mQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    // Any failure, including errors such as running out of memory, ends the import
+    private volatile Throwable mFailure;
+
+    /** Parses all books of the import, passing each to the visitor. */
+    abstract void parseBooks(DatabaseManager.Visitor<Book> visitor) throws IOException;
+
+    @Override public void run() {
+      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+      try {
+        parseBooks(new DatabaseManager.Visitor<Book>() {
+          @Override public void visit(Book book) {
+            try {
+              mQueue.put(book);
+            } catch(InterruptedException e) {
+              throw new StoppedException();
+            }
+          }
+        });
+      } catch(StoppedException e) {
+        return; // The writer has stopped taking books
+      } catch(Throwable e) {
+        mFailure = e;
       }
 
-      // If the file is valid JSON (apparently version 1 JSON is, or at least the Android JSON lib
-      // thinks so, even though it's not really well formed), the assume it is version 1 if it has
-      // title and author in there.
-      if(data.has("title") && data.has("author")) {
-        return 1;
+      try {
+        mQueue.put(END_OF_BOOKS);
+      } catch(InterruptedException ignored) {
+        // The writer has stopped taking books
       }
-    } catch(JSONException e) {
-      // unknown file format
     }
 
-    throw new UnexpectedImportDataFormatException("Failed to get format version from content");
+    /**
+     * Moves the parsed books that are ready, but at most maxCount, to batch. Waits a short while
+     * for the first one, and returns with an empty batch if none arrived. Returns false when the
+     * last book has been taken.
+     */
+    boolean takeBatch(List<Book> batch, int maxCount) throws InterruptedException {
+      final Book first = mQueue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+      if(first == null) {
+        return true;
+      } else if(first == END_OF_BOOKS) {
+        return false;
+      }
+
+      batch.add(first);
+      mQueue.drainTo(batch, maxCount - 1);
+      final int lastIndex = batch.size() - 1;
+      if(batch.get(lastIndex) == END_OF_BOOKS) {
+        batch.remove(lastIndex);
+        return false;
+      }
+      return true;
+    }
+  }
+
+  /** Thrown out of the parser when the writer has stopped, to end parsing early. */
+  private static class StoppedException extends RuntimeException {
   }
 }
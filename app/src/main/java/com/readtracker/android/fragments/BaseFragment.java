@@ -7,6 +7,7 @@ import android.util.Log;
 import com.readtracker.BuildConfig;
 import com.readtracker.android.activities.BaseActivity;
 import com.readtracker.android.db.DatabaseManager;
+import com.readtracker.android.tasks.DatabaseScheduler;
 import com.squareup.otto.Bus;
 
 /**
@@ -15,12 +16,14 @@ import com.squareup.otto.Bus;
 public abstract class BaseFragment extends Fragment {
   private Bus mBus;
   private DatabaseManager mDatabaseManager;
+  private DatabaseScheduler mDatabaseScheduler;
 
   @Override
   public void onActivityCreated(Bundle savedInstanceState) {
     super.onActivityCreated(savedInstanceState);
     mBus = ((BaseActivity) getActivity()).getBus();
     mDatabaseManager = ((BaseActivity) getActivity()).getDatabaseManager();
+    mDatabaseScheduler = ((BaseActivity) getActivity()).getDatabaseScheduler();
   }
 
   @Override public void onResume() {
@@ -41,6 +44,13 @@ public abstract class BaseFragment extends Fragment {
     mBus.unregister(this);
   }
 
+  @Override public void onDestroy() {
+    super.onDestroy();
+    if(mDatabaseScheduler != null) {
+      mDatabaseScheduler.cancelAll(this);
+    }
+  }
+
   protected Bus getBus() {
     return mBus;
   }
@@ -48,4 +58,8 @@ public abstract class BaseFragment extends Fragment {
   protected DatabaseManager getDatabaseManager() {
     return mDatabaseManager;
   }
+
+  protected DatabaseScheduler getDatabaseScheduler() {
+    return mDatabaseScheduler;
+  }
 }
@@ -17,6 +17,7 @@ import com.readtracker.android.activities.BookSearchActivity;
 import com.readtracker.android.activities.HomeActivity;
 import com.readtracker.android.adapters.BookAdapter;
 import com.readtracker.android.db.Book;
+import com.readtracker.android.db.BookSummary;
 import com.readtracker.android.support.ReadTrackerDataImportHandler;
 import com.squareup.otto.Bus;
 
@@ -128,6 +129,9 @@ public class BookListFragment extends ListFragment {
 
   @Override public void onResume() {
     super.onResume();
+    // Catch up with changes to the catalogue that were made while paused
+    HomeActivity homeActivity = (HomeActivity) getActivity();
+    if(homeActivity != null && mBookAdapter != null) mBookAdapter.setBooks(homeActivity.getBooks());
     if(mBus != null) mBus.register(mBookAdapter);
   }
 
@@ -138,19 +142,19 @@ public class BookListFragment extends ListFragment {
 
   @Override
   public void onListItemClick(ListView listView, @NotNull View clickedView, int position, long id) {
-    Book book = (Book) listView.getItemAtPosition(position);
+    BookSummary book = (BookSummary) listView.getItemAtPosition(position);
     mBus.post(new BookClickedEvent(book));
   }
 
   /** Emitted when a book is clicked. */
   public static class BookClickedEvent {
-    private final Book mBook;
+    private final BookSummary mBook;
 
-    public BookClickedEvent(Book book) {
+    public BookClickedEvent(BookSummary book) {
       mBook = book;
     }
 
-    public Book getBook() {
+    public BookSummary getBook() {
       return mBook;
     }
   }
@@ -3,7 +3,6 @@ package com.readtracker.android.fragments;
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.drawable.ColorDrawable;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -21,11 +20,13 @@ import com.readtracker.android.activities.BookActivity;
 import com.readtracker.android.activities.BookBaseActivity;
 import com.readtracker.android.activities.BookSettingsActivity;
 import com.readtracker.android.activities.QuoteSettingsActivity;
+import com.readtracker.android.adapters.OnLoadMoreListener;
 import com.readtracker.android.adapters.QuoteAdapter;
 import com.readtracker.android.db.Book;
 import com.readtracker.android.db.DatabaseManager;
 import com.readtracker.android.db.Quote;
 import com.readtracker.android.support.ColorUtils;
+import com.readtracker.android.tasks.DatabaseScheduler;
 import com.readtracker.databinding.QuotesFragmentBinding;
 import com.squareup.otto.Subscribe;
 
@@ -63,6 +64,11 @@ public class QuotesFragment extends BaseFragment {
     super.onCreate(savedInstanceState);
     final boolean useFullDates = ReadTrackerApp.from(getContext()).getAppSettings().getUseFullDates();
     mQuoteAdapter = new QuoteAdapter(getActivity(), new ArrayList<Quote>(), useFullDates);
+    mQuoteAdapter.setOnLoadMoreListener(new OnLoadMoreListener() {
+      @Override public void onLoadMore() {
+        loadMoreQuotes();
+      }
+    });
   }
 
   // Called when the parent activity has completed loading the book
@@ -72,6 +78,7 @@ public class QuotesFragment extends BaseFragment {
 
     if(mBook != null) {
       List<Quote> quotesInBook = mBook.getQuotes();
+      if(mQuoteAdapter != null) mQuoteAdapter.onPageLoaded(quotesInBook.size() >= DatabaseManager.PAGE_SIZE);
 
       // If we are running this after the activity result, then
       if(mPendingNewQuote != null && !quotesInBook.contains(mPendingNewQuote)) {
@@ -176,7 +183,7 @@ public class QuotesFragment extends BaseFragment {
         final int quoteId = data.getIntExtra(QuoteSettingsActivity.KEY_QUOTE_ID, 0);
         Log.d(TAG, "Quote created: " + quoteId);
         if(resultCode == QuoteSettingsActivity.RESULT_DELETED) {
-          new DeleteTask(quoteId, this).execute();
+          getDatabaseScheduler().write(this, new DeleteTask(quoteId, this));
         } else {
           loadQuoteAndUpdateList(quoteId);
         }
@@ -227,6 +234,33 @@ public class QuotesFragment extends BaseFragment {
     return -1;
   }
 
+  private void loadMoreQuotes() {
+    if(mBook == null || mQuoteAdapter.getCount() == 0) {
+      return;
+    }
+
+    final Quote lastQuote = mQuoteAdapter.getItem(mQuoteAdapter.getCount() - 1);
+    Log.d(TAG, "Loading quotes before " + lastQuote);
+    getDatabaseScheduler().read(this, new LoadQuotePageTask(this, mBook, lastQuote));
+  }
+
+  private void onQuotePageLoaded(Book book, List<Quote> quotes) {
+    if(book != mBook) {
+      Log.d(TAG, "Book was reloaded while loading quotes, ignoring page");
+      return;
+    }
+
+    final List<Quote> quotesInBook = mBook.getQuotes();
+    for(Quote quote : quotes) {
+      quote.setBook(book);
+      if(findQuoteInLoadedBooks(quote) < 0) {
+        quotesInBook.add(quote);
+      }
+    }
+    repopulateAdapter();
+    mQuoteAdapter.onPageLoaded(quotes.size() >= DatabaseManager.PAGE_SIZE);
+  }
+
   private void refreshBlankState() {
     final boolean hasItems = mQuoteAdapter.getCount() > 0;
     mQuoteList.setVisibility(hasItems ? View.VISIBLE : View.GONE);
@@ -243,25 +277,47 @@ public class QuotesFragment extends BaseFragment {
     }
   }
 
-  private static class DeleteTask extends AsyncTask<Void, Void, Quote> {
+  /** Loads the page of quotes that follows the oldest loaded quote. */
+  private static class LoadQuotePageTask extends DatabaseScheduler.Job<List<Quote>> {
+    private final WeakReference<QuotesFragment> mFragment;
+    private final Book mBook;
+    private final Quote mBefore;
+
+    LoadQuotePageTask(QuotesFragment fragment, Book book, Quote before) {
+      mFragment = new WeakReference<>(fragment);
+      mBook = book;
+      mBefore = before;
+    }
+
+    @Override protected List<Quote> run(DatabaseManager databaseManager) {
+      return databaseManager.getQuotesForBook(mBook, mBefore, DatabaseManager.PAGE_SIZE);
+    }
+
+    @Override protected void onComplete(List<Quote> quotes) {
+      QuotesFragment fragment = mFragment.get();
+      if(fragment != null && fragment.getView() != null) {
+        fragment.onQuotePageLoaded(mBook, quotes);
+      }
+    }
+  }
+
+  private static class DeleteTask extends DatabaseScheduler.Job<Quote> {
     private final int mQuoteId;
     private final WeakReference<QuotesFragment> mFragment;
-    private final DatabaseManager mDatabaseManager;
 
     public DeleteTask(int quoteId, QuotesFragment fragment) {
       mQuoteId = quoteId;
       mFragment = new WeakReference<>(fragment);
-      mDatabaseManager = fragment.getDatabaseManager();
     }
 
     @Override
-    protected Quote doInBackground(Void... voids) {
-      Quote quote = mDatabaseManager.get(Quote.class, mQuoteId);
-      return mDatabaseManager.delete(quote) ? quote : null;
+    protected Quote run(DatabaseManager databaseManager) {
+      Quote quote = databaseManager.get(Quote.class, mQuoteId);
+      return databaseManager.delete(quote) ? quote : null;
     }
 
     @Override
-    protected void onPostExecute(Quote deletedQuote) {
+    protected void onComplete(Quote deletedQuote) {
       QuotesFragment fragment = mFragment.get();
       if(fragment != null) {
         fragment.onQuoteDeleted(deletedQuote);
@@ -14,14 +14,18 @@ import com.readtracker.android.activities.BookActivity;
 import com.readtracker.android.activities.BookBaseActivity;
 import com.readtracker.android.activities.FinishBookActivity;
 import com.readtracker.android.activities.SessionEditFragment;
+import com.readtracker.android.adapters.OnLoadMoreListener;
 import com.readtracker.android.adapters.ReadingSessionAdapter;
 import com.readtracker.android.custom_views.SessionHeaderViewHandler;
 import com.readtracker.android.db.Book;
+import com.readtracker.android.db.DatabaseManager;
 import com.readtracker.android.db.Session;
+import com.readtracker.android.tasks.DatabaseScheduler;
 import com.readtracker.databinding.FragmentSessionsBinding;
 import com.readtracker.databinding.SessionListHeaderBinding;
 import com.squareup.otto.Subscribe;
 
+import java.lang.ref.WeakReference;
 import java.util.List;
 
 import androidx.annotation.NonNull;
@@ -66,6 +70,11 @@ public class SummaryFragment extends BaseFragment implements SessionEditFragment
     mSessionList.addHeaderView(headerBinding.getRoot(), null, false);
 
     mSessionAdapter = new ReadingSessionAdapter(getContext());
+    mSessionAdapter.setOnLoadMoreListener(new OnLoadMoreListener() {
+      @Override public void onLoadMore() {
+        loadMoreSessions();
+      }
+    });
 
     mSessionList.setDividerHeight(0);
     mSessionList.setAdapter(mSessionAdapter);
@@ -107,7 +116,7 @@ public class SummaryFragment extends BaseFragment implements SessionEditFragment
       mBlankText.setVisibility(View.GONE);
       mSessionList.setVisibility(View.VISIBLE);
 
-      mSessionAdapter.setSessions(sessions);
+      mSessionAdapter.setSessions(sessions, sessions.size() >= DatabaseManager.PAGE_SIZE);
 
     } else {
       mBlankText.setVisibility(View.VISIBLE);
@@ -115,6 +124,27 @@ public class SummaryFragment extends BaseFragment implements SessionEditFragment
     }
   }
 
+  private void loadMoreSessions() {
+    if(mBook == null) {
+      return;
+    }
+
+    Log.d(TAG, "Loading sessions before " + mSessionAdapter.getLastSession());
+    getDatabaseScheduler().read(this, new LoadSessionPageTask(this, mBook, mSessionAdapter.getLastSession()));
+  }
+
+  private void onSessionPageLoaded(Book book, List<Session> sessions) {
+    if(book != mBook) {
+      Log.d(TAG, "Book was reloaded while loading sessions, ignoring page");
+      return;
+    }
+
+    for(Session session : sessions) {
+      session.setBook(book);
+    }
+    mSessionAdapter.appendSessions(sessions, sessions.size() >= DatabaseManager.PAGE_SIZE);
+  }
+
   @Override public void onSessionUpdated(Session session) {
     Log.d(TAG, "Got update in summary fragment, reloading book");
     BookActivity activity = (BookActivity) getActivity();
@@ -130,4 +160,28 @@ public class SummaryFragment extends BaseFragment implements SessionEditFragment
       activity.loadBookFromIntent();
     }
   }
+
+  /** Loads the page of sessions that follows the oldest loaded session. */
+  private static class LoadSessionPageTask extends DatabaseScheduler.Job<List<Session>> {
+    private final WeakReference<SummaryFragment> mFragment;
+    private final Book mBook;
+    private final Session mBefore;
+
+    LoadSessionPageTask(SummaryFragment fragment, Book book, Session before) {
+      mFragment = new WeakReference<>(fragment);
+      mBook = book;
+      mBefore = before;
+    }
+
+    @Override protected List<Session> run(DatabaseManager databaseManager) {
+      return databaseManager.getSessionsForBook(mBook, mBefore, DatabaseManager.PAGE_SIZE);
+    }
+
+    @Override protected void onComplete(List<Session> sessions) {
+      SummaryFragment fragment = mFragment.get();
+      if(fragment != null && fragment.getView() != null) {
+        fragment.onSessionPageLoaded(mBook, sessions);
+      }
+    }
+  }
 }
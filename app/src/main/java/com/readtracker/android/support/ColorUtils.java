@@ -8,6 +8,7 @@ import android.util.Log;
 import android.widget.NumberPicker;
 
 import com.readtracker.android.db.Book;
+import com.readtracker.android.db.BookSummary;
 
 import java.lang.reflect.Field;
 
@@ -53,12 +54,22 @@ public class ColorUtils {
    * Returns a color for the book instance.
    */
   public static int getColorForBook(Book book) {
-    Integer storedColor = book.getColor();
+    return getColorForBook(book.getColor(), book.getTitle(), book.getAuthor());
+  }
+
+  /**
+   * Returns a color for the book summary, the same as for the complete book.
+   */
+  public static int getColorForBook(BookSummary book) {
+    return getColorForBook(book.getColor(), book.getTitle(), book.getAuthor());
+  }
+
+  private static int getColorForBook(Integer storedColor, String title, String author) {
     if(storedColor != null) {
       return storedColor;
     }
     // Fall back to autogenerated, fixed seed random color
-    final String colorKey = book.getTitle() + book.getAuthor();
+    final String colorKey = title + author;
     float color = 360 * (Math.abs(colorKey.hashCode()) / (float) Integer.MAX_VALUE);
     return Color.HSVToColor(new float[]{color, 0.8f, 1.0f});
   }
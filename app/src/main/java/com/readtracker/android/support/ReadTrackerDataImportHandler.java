@@ -20,6 +20,7 @@ import com.nbsp.materialfilepicker.ui.FilePickerActivity;
 import com.readtracker.R;
 import com.readtracker.android.ReadTrackerApp;
 import com.readtracker.android.activities.ActivityCodes;
+import com.readtracker.android.db.export.BinaryExporter;
 import com.readtracker.android.db.export.JSONExporter;
 import com.readtracker.android.db.export.JSONImporter;
 import com.readtracker.android.tasks.ImportReadTrackerFileTask;
@@ -31,6 +32,9 @@ import java.io.File;
 public class ReadTrackerDataImportHandler {
   private static final String TAG = "RTDataImportHandler";
   private static ProgressDialog progressDialog;
+  private static ImportReadTrackerFileTask runningImport;
+  // Format picked in the export dialog, kept while asking for the storage permission
+  private static boolean exportCompact;
 
   public static void handleRequestPermissionResult(ImportReadTrackerFileTask.ResultListener resultListener, int requestCode, String[] permissions, int[] grantResults) {
     if (requestCode == ActivityCodes.IMPORT_PERMISSION_REQUEST_CODE) {
@@ -63,9 +67,9 @@ public class ReadTrackerDataImportHandler {
       }
 
       Log.i(TAG, "Attempting import from file " + importFile.getAbsolutePath());
-      ImportReadTrackerFileTask.importFile(
+      runningImport = ImportReadTrackerFileTask.importFile(
           importFile,
-          ReadTrackerApp.from(resultListener.getResultActivity()).getDatabaseManager(),
+          ReadTrackerApp.from(resultListener.getResultActivity()).getDatabaseScheduler(),
           resultListener
       );
     }
@@ -99,23 +103,30 @@ public class ReadTrackerDataImportHandler {
         return;
       }
 
-      final JSONExporter jsonExporter = JSONExporter.from(parentActivity);
       File exportToDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
 
-      final File exportedJsonFile = jsonExporter.exportAllBooksToDir(exportToDir);
-      if(exportedJsonFile == null || !exportedJsonFile.exists()) {
-        Log.e(TAG, String.format("Failed to write intermediary JSON export file. File was not created. exportedJSONFile: %s, exportToDir: %s", exportedJsonFile, exportToDir));
+      final File exportedFile;
+      if(exportCompact) {
+        final BinaryExporter binaryExporter = BinaryExporter.withDatabaseManager(ReadTrackerApp.from(parentActivity).getDatabaseManager());
+        exportedFile = binaryExporter.exportAllBooksToDir(exportToDir);
+      } else {
+        final JSONExporter jsonExporter = JSONExporter.from(parentActivity);
+        exportedFile = jsonExporter.exportAllBooksToDir(exportToDir);
+      }
+      if(exportedFile == null || !exportedFile.exists()) {
+        Log.e(TAG, String.format("Failed to write export file. File was not created. exportedFile: %s, exportToDir: %s, compact: %b", exportedFile, exportToDir, exportCompact));
         Toast.makeText(parentActivity, R.string.settings_export_failed, Toast.LENGTH_LONG).show();
         return;
       }
-      notifySuccessAndOfferSharingIntent(parentActivity, exportedJsonFile.getAbsolutePath());
+      // JSON is shared as text to offer more intent action handlers
+      notifySuccessAndOfferSharingIntent(parentActivity, exportedFile.getAbsolutePath(), exportCompact ? "application/octet-stream" : "text/*");
     } else {
       Log.d(TAG, "Doesn't have permission for writing external storage");
       ActivityCompat.requestPermissions(parentActivity, new String[]{requiredPermission}, ActivityCodes.EXPORT_PERMISSION_REQUEST_CODE);
     }
   }
 
-  private static void notifySuccessAndOfferSharingIntent(final Activity parentActivity, final String absoluteFilepath) {
+  private static void notifySuccessAndOfferSharingIntent(final Activity parentActivity, final String absoluteFilepath, final String mimeType) {
     final AlertDialog.Builder builder = new AlertDialog.Builder(parentActivity);
     builder
         .setTitle(R.string.settings_export_success)
@@ -125,7 +136,7 @@ public class ReadTrackerDataImportHandler {
           @Override public void onClick(DialogInterface dialogInterface, int i) {
             final Intent sendIntent = new Intent();
             sendIntent.setAction(Intent.ACTION_SEND);
-            sendIntent.setType("text/*"); // NOTE(christoffer) Use text to offer more intent action handlers
+            sendIntent.setType(mimeType);
             sendIntent.putExtra(Intent.EXTRA_STREAM, Uri.parse("file//" + absoluteFilepath));
             parentActivity.startActivity(Intent.createChooser(sendIntent, parentActivity.getString(R.string.settings_share_export)));
           }
@@ -166,6 +177,13 @@ public class ReadTrackerDataImportHandler {
         .setMessage(R.string.settings_export_confirmation)
         .setPositiveButton(R.string.settings_export_positive_button, new DialogInterface.OnClickListener() {
           @Override public void onClick(DialogInterface dialogInterface, int i) {
+            exportCompact = false;
+            exportFilesOrRequestPermission(parentActivity);
+          }
+        })
+        .setNeutralButton(R.string.settings_export_compact_button, new DialogInterface.OnClickListener() {
+          @Override public void onClick(DialogInterface dialogInterface, int i) {
+            exportCompact = true;
             exportFilesOrRequestPermission(parentActivity);
           }
         })
@@ -185,12 +203,24 @@ public class ReadTrackerDataImportHandler {
     progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
     progressDialog.setIndeterminate(true);
     progressDialog.setMessage(parentActivity.getString(R.string.settings_import_running));
+    progressDialog.setCancelable(false);
+    progressDialog.setButton(DialogInterface.BUTTON_NEGATIVE, parentActivity.getString(R.string.general_cancel), new DialogInterface.OnClickListener() {
+      @Override public void onClick(DialogInterface dialogInterface, int i) {
+        if(runningImport != null) {
+          Log.i(TAG, "Cancelling import");
+          runningImport.cancel();
+        }
+      }
+    });
     progressDialog.show();
   }
 
   public static void closeProgressDialog(Activity parentActivity, JSONImporter.ImportResultReport result) {
-    progressDialog.dismiss();
-    progressDialog = null;
+    if(progressDialog != null) {
+      progressDialog.dismiss();
+      progressDialog = null;
+    }
+    runningImport = null;
     final Resources res = parentActivity.getResources();
     if(result != null) {
       Log.d(TAG, result.toString());
@@ -201,19 +231,23 @@ public class ReadTrackerDataImportHandler {
       final String numMergedBook = res.getQuantityString(R.plurals.plural_merged, result.mergedBookCount, result.mergedBookCount);
       final String numQuotes = res.getQuantityString(R.plurals.plural_quote, result.createdQuotesCount, result.createdQuotesCount);
       final String numSessions = res.getQuantityString(R.plurals.plural_session, result.createdSessionCount, result.createdSessionCount);
-      final String message = res.getString(R.string.settings_import_book_report, numBooks, numNewBooks, numMergedBook, numQuotes, numSessions);
+      String message = res.getString(R.string.settings_import_book_report, numBooks, numNewBooks, numMergedBook, numQuotes, numSessions);
+      if(result.wasCancelled) {
+        message = res.getString(R.string.settings_import_cancelled, message);
+      }
       Toast.makeText(parentActivity, message, Toast.LENGTH_LONG).show();
     } else {
       Toast.makeText(parentActivity, R.string.settings_import_failed, Toast.LENGTH_LONG).show();
     }
   }
 
-  public static void showProgressUpdate(int currentBook, int totalBooks) {
-    Log.d(TAG, String.format("import progress: %d out of %d", currentBook, totalBooks));
+  public static void showProgressUpdate(int progress, int max, float booksPerSecond) {
+    Log.d(TAG, String.format("import progress: %d out of %d, %.1f books/s", progress, max, booksPerSecond));
     if(progressDialog != null) {
       progressDialog.setIndeterminate(false);
-      progressDialog.setMax(totalBooks);
-      progressDialog.setProgress(currentBook);
+      progressDialog.setMax(max);
+      progressDialog.setProgress(progress);
+      progressDialog.setMessage(progressDialog.getContext().getString(R.string.settings_import_running_rate, booksPerSecond));
     }
   }
 
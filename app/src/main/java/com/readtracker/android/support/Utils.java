@@ -11,8 +11,6 @@ import android.util.TypedValue;
 import com.readtracker.android.db.Session;
 
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -45,11 +43,6 @@ public class Utils {
     return Objects.equals(a, b);
   }
 
-  /** Returns the string content of a file. */
-  public static String readInputFile(File importFile) throws IOException {
-    return readInputStream(new FileInputStream(importFile));
-  }
-
   /**
    * Reads an InputStream and returns it as a String.
    */
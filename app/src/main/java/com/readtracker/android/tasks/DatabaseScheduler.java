@@ -0,0 +1,235 @@
+package com.readtracker.android.tasks;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.readtracker.android.db.DatabaseManager;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs database jobs off the main thread and delivers their results on the main thread.
+ * <p/>
+ * Writes are run one at a time on a single writer thread, in submission order for jobs of the same
+ * priority. Reads run in parallel on a small pool of reader threads. The database uses write-ahead
+ * logging, so reads are not blocked by a long write transaction, such as an import.
+ * <p/>
+ * Jobs are submitted for an owner, usually an Activity, and cancelAll() is called when the owner
+ * goes away. Cancelled reads that haven't started are dropped. Cancelled writes still run, so that
+ * no user changes are lost, but none of their callbacks are delivered.
+ */
+public class DatabaseScheduler {
+  private static final String TAG = DatabaseScheduler.class.getSimpleName();
+
+  private static final int READER_COUNT = 3;
+
+  public enum Priority {LOW, NORMAL, HIGH}
+
+  /** Unit of work run against the database. */
+  public static abstract class Job<R> {
+    private volatile ScheduledJob mScheduledJob;
+
+    /** Runs the job on a background thread. */
+    protected abstract R run(DatabaseManager databaseManager) throws Exception;
+
+    /** Called on the main thread with the result of run(), unless the job was cancelled. */
+    protected void onComplete(R result) { }
+
+    /** Called on the main thread if run() threw, unless the job was cancelled. */
+    protected void onFailure(Exception exception) { }
+
+    /** Called on the main thread for progress published by run(), unless the job was cancelled. */
+    protected void onProgress(int current, int total) { }
+
+    /** Publishes progress from run(), delivered to onProgress() on the main thread. */
+    protected final void publishProgress(final int current, final int total) {
+      final ScheduledJob scheduledJob = mScheduledJob;
+      if(scheduledJob != null) {
+        scheduledJob.deliver(new Runnable() {
+          @Override public void run() {
+            onProgress(current, total);
+          }
+        });
+      }
+    }
+
+    /** Returns true if the owner of the job has gone away. */
+    protected final boolean isCancelled() {
+      final ScheduledJob scheduledJob = mScheduledJob;
+      return scheduledJob != null && scheduledJob.mCancelled;
+    }
+  }
+
+  private final DatabaseManager mDatabaseManager;
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private final ThreadPoolExecutor mWriter;
+  private final ThreadPoolExecutor mReaders;
+  private final AtomicLong mSequence = new AtomicLong();
+
+  // Jobs that are queued or running, used for cancellation
+  private final Set<ScheduledJob> mActiveJobs = new HashSet<>();
+
+  public DatabaseScheduler(DatabaseManager databaseManager) {
+    mDatabaseManager = databaseManager;
+    mWriter = createExecutor("db-writer", 1);
+    mReaders = createExecutor("db-reader", READER_COUNT);
+  }
+
+  /** Schedules a read with normal priority. */
+  public void read(Object owner, Job<?> job) {
+    read(owner, Priority.NORMAL, job);
+  }
+
+  /** Schedules a read to run in parallel with other reads and writes. */
+  public void read(Object owner, Priority priority, Job<?> job) {
+    schedule(mReaders, false, owner, priority, job);
+  }
+
+  /** Schedules a write with normal priority. */
+  public void write(Object owner, Job<?> job) {
+    write(owner, Priority.NORMAL, job);
+  }
+
+  /** Schedules a write, to run after all writes with the same or higher priority before it. */
+  public void write(Object owner, Priority priority, Job<?> job) {
+    schedule(mWriter, true, owner, priority, job);
+  }
+
+  /** Cancels all jobs of an owner. */
+  public void cancelAll(Object owner) {
+    final List<ScheduledJob> cancelledJobs = new ArrayList<>();
+    synchronized(mActiveJobs) {
+      for(ScheduledJob scheduledJob : mActiveJobs) {
+        if(scheduledJob.mOwner.get() == owner) {
+          cancelledJobs.add(scheduledJob);
+        }
+      }
+    }
+
+    for(ScheduledJob scheduledJob : cancelledJobs) {
+      scheduledJob.mCancelled = true;
+      if(!scheduledJob.mIsWrite && mReaders.remove(scheduledJob)) {
+        onJobDone(scheduledJob);
+      }
+    }
+
+    if(!cancelledJobs.isEmpty()) {
+      Log.d(TAG, String.format("Cancelled %d jobs", cancelledJobs.size()));
+    }
+  }
+
+  private void schedule(ThreadPoolExecutor executor, boolean isWrite, Object owner, Priority priority, Job<?> job) {
+    final ScheduledJob scheduledJob = new ScheduledJob(job, owner, priority, isWrite, mSequence.getAndIncrement());
+    synchronized(mActiveJobs) {
+      mActiveJobs.add(scheduledJob);
+    }
+    executor.execute(scheduledJob);
+  }
+
+  private void onJobDone(ScheduledJob scheduledJob) {
+    synchronized(mActiveJobs) {
+      mActiveJobs.remove(scheduledJob);
+    }
+  }
+
+  private static ThreadPoolExecutor createExecutor(final String name, int threadCount) {
+    final ThreadFactory threadFactory = new ThreadFactory() {
+      private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+      @Override public Thread newThread(final Runnable runnable) {
+        return new Thread(new Runnable() {
+          @Override public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+          }
+        }, name + "-" + mThreadNumber.incrementAndGet());
+      }
+    };
+
+    // Core threads are allowed to time out, so an idle app doesn't keep them around
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        threadCount, threadCount, 30, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<Runnable>(), threadFactory
+    );
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /** A job as queued on one of the executors, ordered by priority and then submission order. */
+  private final class ScheduledJob implements Runnable, Comparable<ScheduledJob> {
+    private final Job<?> mJob;
+    private final WeakReference<Object> mOwner;
+    private final Priority mPriority;
+    private final boolean mIsWrite;
+    private final long mSequence;
+    private volatile boolean mCancelled = false;
+
+    ScheduledJob(Job<?> job, Object owner, Priority priority, boolean isWrite, long sequence) {
+      mJob = job;
+      mOwner = new WeakReference<>(owner);
+      mPriority = priority;
+      mIsWrite = isWrite;
+      mSequence = sequence;
+      job.mScheduledJob = this;
+    }
+
+    @Override public int compareTo(ScheduledJob other) {
+      if(mPriority != other.mPriority) {
+        return other.mPriority.ordinal() - mPriority.ordinal();
+      }
+      return mSequence < other.mSequence ? -1 : (mSequence > other.mSequence ? 1 : 0);
+    }
+
+    @Override public void run() {
+      try {
+        if(mCancelled && !mIsWrite) {
+          return;
+        }
+        runAndDeliver(mJob);
+      } finally {
+        onJobDone(this);
+      }
+    }
+
+    private <R> void runAndDeliver(final Job<R> job) {
+      try {
+        final R result = job.run(mDatabaseManager);
+        deliver(new Runnable() {
+          @Override public void run() {
+            job.onComplete(result);
+          }
+        });
+      } catch(final Exception e) {
+        Log.e(TAG, "Database job failed", e);
+        deliver(new Runnable() {
+          @Override public void run() {
+            job.onFailure(e);
+          }
+        });
+      }
+    }
+
+    /** Runs the callback on the main thread, unless the job has been cancelled by then. */
+    void deliver(final Runnable callback) {
+      mMainHandler.post(new Runnable() {
+        @Override public void run() {
+          if(!mCancelled) {
+            callback.run();
+          }
+        }
+      });
+    }
+  }
+}
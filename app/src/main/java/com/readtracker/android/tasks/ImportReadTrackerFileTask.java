@@ -1,7 +1,6 @@
 package com.readtracker.android.tasks;
 
 import android.app.Activity;
-import android.os.AsyncTask;
 import android.util.Log;
 
 import com.readtracker.android.db.DatabaseManager;
@@ -9,90 +8,139 @@ import com.readtracker.android.db.export.JSONImporter;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Task that imports a ReadTracker export file and notifies the caller of progress and completion.
+ * <p/>
+ * The task itself runs as a low priority read, which parses the file. Each batch of imported
+ * books is written by its own low priority write job, so user edits made during the import only
+ * wait for the batch being written, not for the whole import.
  */
-public class ImportReadTrackerFileTask extends AsyncTask<File, Integer, JSONImporter.ImportResultReport> {
+public class ImportReadTrackerFileTask extends DatabaseScheduler.Job<JSONImporter.ImportResultReport> {
   private final String TAG = ImportReadTrackerFileTask.class.getName();
-  private final WeakReference<DatabaseManager> dbManager;
+  private final File fileToImport;
   private final WeakReference<ResultListener> listener;
-  private Exception exception;
-
-  private ImportReadTrackerFileTask(DatabaseManager databaseManager, ResultListener listener) {
-    this.dbManager = new WeakReference<>(databaseManager);
+  private final DatabaseScheduler scheduler;
+  private volatile JSONImporter importer;
+  private volatile boolean cancelRequested = false;
+  private volatile float booksPerSecond = 0f;
+
+  private ImportReadTrackerFileTask(File fileToImport, DatabaseScheduler scheduler, ResultListener listener) {
+    this.fileToImport = fileToImport;
+    this.scheduler = scheduler;
     this.listener = new WeakReference<>(listener);
   }
 
-  public static void importFile(File fromFile, DatabaseManager toDatabaseManager, ResultListener listener) {
-    (new ImportReadTrackerFileTask(toDatabaseManager, listener)).execute(fromFile);
+  public static ImportReadTrackerFileTask importFile(File fromFile, DatabaseScheduler scheduler, ResultListener listener) {
+    final ImportReadTrackerFileTask task = new ImportReadTrackerFileTask(fromFile, scheduler, listener);
+    listener.onImportStart();
+    scheduler.read(listener.getResultActivity(), DatabaseScheduler.Priority.LOW, task);
+    return task;
   }
 
-  @Override protected void onPreExecute() {
-    final ResultListener listener = this.listener.get();
-    if (listener != null) {
-      listener.onImportStart();
+  /**
+   * Stops the import after the batch of books being written. The books imported until then are
+   * kept, and reported to the listener as a cancelled import.
+   */
+  public void cancel() {
+    cancelRequested = true;
+    final JSONImporter importer = this.importer;
+    if (importer != null) {
+      importer.cancel();
     }
   }
 
-  @Override protected JSONImporter.ImportResultReport doInBackground(File... args) {
-    final File fileToImport = args[0];
-    final DatabaseManager dbManager = this.dbManager.get();
+  @Override protected JSONImporter.ImportResultReport run(DatabaseManager dbManager) throws Exception {
     final JSONImporter.ProgressListener progressListener = new JSONImporter.ProgressListener() {
-      @Override public void onProgressUpdate(int currentBook, int totalBooks) {
-        publishProgress(currentBook, totalBooks);
+      @Override public void onProgressUpdate(int progress, int max, float booksPerSecond) {
+        ImportReadTrackerFileTask.this.booksPerSecond = booksPerSecond;
+        publishProgress(progress, max);
       }
     };
 
-    if(dbManager == null) {
-      Log.d(TAG, "Database manager went away before starting the task.");
-    } else {
-      try {
-        JSONImporter importer = new JSONImporter(dbManager, progressListener);
-        return importer.importFile(fileToImport);
-      } catch(Exception e) {
-        Log.e(TAG, "Error while importing file", exception);
-        exception = e;
+    final JSONImporter.BatchWriter batchWriter = new JSONImporter.BatchWriter() {
+      @Override public void write(Runnable batchTransaction) throws InterruptedException {
+        final BatchWriteJob job = new BatchWriteJob(batchTransaction);
+        // Owned by the task, so the batches are written even if the activity goes away
+        scheduler.write(ImportReadTrackerFileTask.this, DatabaseScheduler.Priority.LOW, job);
+        job.await();
       }
+    };
+
+    importer = new JSONImporter(dbManager, progressListener, batchWriter);
+    if (cancelRequested) {
+      importer.cancel();
     }
-    return null;
+    return importer.importFile(fileToImport);
   }
 
-  @Override protected void onProgressUpdate(Integer... values) {
-    super.onProgressUpdate(values[0], values[1]);
-    final ResultListener listener = ImportReadTrackerFileTask.this.listener.get();
+  @Override protected void onProgress(int progress, int max) {
+    final ResultListener listener = this.listener.get();
     if (listener != null) {
-      listener.onImportUpdate(values[0], values[1]);
+      listener.onImportUpdate(progress, max, booksPerSecond);
     }
   }
 
-  @Override protected void onPostExecute(JSONImporter.ImportResultReport report) {
+  @Override protected void onComplete(JSONImporter.ImportResultReport report) {
     final ResultListener listener = this.listener.get();
     if (listener == null) {
       Log.v(TAG, "ResultListener went away while importing");
       return;
     }
 
-    if(exception != null) {
-      Log.v(TAG, "Background returned with exception");
-      listener.onImportComplete(null);
-      return;
+    if (report == null) {
+      Log.v(TAG, "Background task did not return a report, so it probably failed");
     }
 
+    listener.onImportComplete(report);
+  }
 
-    if (report == null) {
-      Log.v(TAG, "Background task did not return a report, so it probably failed");
+  @Override protected void onFailure(Exception exception) {
+    Log.e(TAG, "Error while importing file", exception);
+    final ResultListener listener = this.listener.get();
+    if (listener != null) {
       listener.onImportComplete(null);
-      return;
     }
+  }
 
-    listener.onImportComplete(report);
+  /**
+   * Writes one batch of an import on the writer thread. Completion is signalled from run(), as the
+   * callbacks are not delivered once the owner has gone away.
+   */
+  private static class BatchWriteJob extends DatabaseScheduler.Job<Void> {
+    private final Runnable batchTransaction;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile RuntimeException failure;
+
+    BatchWriteJob(Runnable batchTransaction) {
+      this.batchTransaction = batchTransaction;
+    }
+
+    @Override protected Void run(DatabaseManager databaseManager) {
+      try {
+        batchTransaction.run();
+      } catch (RuntimeException e) {
+        failure = e;
+      } finally {
+        done.countDown();
+      }
+      return null;
+    }
+
+    /** Waits for the batch to be written, and rethrows its failure on the calling thread. */
+    void await() throws InterruptedException {
+      done.await();
+      if (failure != null) {
+        throw failure;
+      }
+    }
   }
 
   public interface ResultListener {
     void onImportStart();
-    void onImportUpdate(int currentBook, int totalBooks);
+    void onImportUpdate(int progress, int max, float booksPerSecond);
     void onImportComplete(JSONImporter.ImportResultReport importReport);
     Activity getResultActivity();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,27 @@
+package com.readtracker.android.db
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class BookStatsTest {
+
+    /**
+     * Assert that session stops, as concatenated by SQLite, are parsed and sorted.
+     */
+    @Test
+    fun bookStatsTest_ParseSessionStops_ReturnsSortedFloatArray() {
+        val stops = BookStats.parseSessionStops("0.5,0.100000001490116,1.0")
+
+        assertArrayEquals(floatArrayOf(0.1f, 0.5f, 1.0f), stops, 0.00001f)
+    }
+
+    /**
+     * Assert that a book without any sessions has no stops.
+     */
+    @Test
+    fun bookStatsTest_ParseMissingSessionStops_ReturnsEmptyArray() {
+        assertEquals(0, BookStats.parseSessionStops(null).size)
+        assertEquals(0, BookStats.parseSessionStops("").size)
+    }
+}
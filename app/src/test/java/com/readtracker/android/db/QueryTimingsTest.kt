@@ -0,0 +1,47 @@
+package com.readtracker.android.db
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class QueryTimingsTest {
+
+    /**
+     * Record latencies for two operations and assert that each gets its own histogram,
+     * with the count, mean and max of its own latencies.
+     */
+    @Test
+    fun queryTimingsTest_Record_KeepsHistogramPerOperation() {
+        val timings = QueryTimings()
+        timings.record("search", 100)
+        timings.record("search", 300)
+        timings.record("getAll(Book)", 5000)
+
+        val histograms = timings.histograms
+        assertEquals(listOf("getAll(Book)", "search"), histograms.map { it.name })
+        assertEquals(2, histograms[1].count)
+        assertEquals(200, histograms[1].meanMicros)
+        assertEquals(300, histograms[1].maxMicros)
+
+        timings.reset()
+        assertTrue(timings.histograms.isEmpty())
+    }
+
+    /**
+     * Record 100 latencies of which a few are slow, and assert that the percentiles land in
+     * the buckets of the fast and slow latencies, capped at the max latency.
+     */
+    @Test
+    fun queryTimingsTest_GetPercentile_ReturnsBoundOfBucket() {
+        val timings = QueryTimings()
+        for (i in 1..96) timings.record("get", 200)
+        for (i in 1..4) timings.record("get", 3000000)
+
+        val histogram = timings.histograms.single()
+        assertEquals(250, histogram.getPercentileMicros(50))
+        assertEquals(250, histogram.getPercentileMicros(95))
+        assertEquals(3000000, histogram.getPercentileMicros(99))
+        assertEquals(96, histogram.getCountInBucket(0))
+        assertEquals(4, histogram.getCountInBucket(histogram.bucketCount - 1))
+    }
+}
@@ -0,0 +1,55 @@
+package com.readtracker.android.db
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class SearchIndexTest {
+
+    /**
+     * Assert that every word of the query becomes a quoted prefix term, with quotes
+     * typed by the user removed.
+     */
+    @Test
+    fun searchIndexTest_ToMatchExpression_QuotesEachWordAsPrefix() {
+        assertEquals("\"gregor*\" \"sams*\"", SearchIndex.toMatchExpression("  gregor   sams "))
+        assertEquals("\"kafka*\"", SearchIndex.toMatchExpression("\"kafka\" \""))
+    }
+
+    /**
+     * Assert that a query without any words gives no expression.
+     */
+    @Test
+    fun searchIndexTest_ToMatchExpressionOfBlankQuery_ReturnsNull() {
+        assertNull(SearchIndex.toMatchExpression(""))
+        assertNull(SearchIndex.toMatchExpression("   "))
+        assertNull(SearchIndex.toMatchExpression(null))
+    }
+
+    /**
+     * Assert that a hit in the title outranks a hit in the author, and that a rare word
+     * outranks a common one.
+     */
+    @Test
+    fun searchIndexTest_Rank_WeighsColumnsAndRareWords() {
+        val weights = SearchIndex.BOOK_COLUMN_WEIGHTS
+        // One phrase, two columns, three values each: hits in row, hits in all rows, rows with hits
+        val titleHit = SearchIndex.rank(matchInfo(1, 2, 1, 4, 4, 0, 2, 2), weights)
+        val authorHit = SearchIndex.rank(matchInfo(1, 2, 0, 4, 4, 1, 2, 2), weights)
+        val rareTitleHit = SearchIndex.rank(matchInfo(1, 2, 1, 1, 1, 0, 0, 0), weights)
+
+        assertEquals(0.5f, titleHit, 0.00001f)
+        assertEquals(0.5f, authorHit, 0.00001f)
+        assertEquals(2.0f, rareTitleHit, 0.00001f)
+        assertTrue(rareTitleHit > titleHit)
+    }
+
+    private fun matchInfo(vararg values: Int): ByteArray {
+        val buffer = ByteBuffer.allocate(values.size * 4).order(ByteOrder.nativeOrder())
+        values.forEach { buffer.putInt(it) }
+        return buffer.array()
+    }
+}
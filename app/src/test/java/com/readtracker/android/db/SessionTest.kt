@@ -1,6 +1,7 @@
 package com.readtracker.android.db
 
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
 import org.junit.Test
 
 class SessionTest {
@@ -28,4 +29,26 @@ class SessionTest {
         assertEquals(0.75f, merged.endPosition)
     }
 
-}
\ No newline at end of file
+    /**
+     * Assert that sessions that are equal also hash equally, and that a change to any of the
+     * compared fields changes the hash.
+     */
+    @Test
+    fun sessionTest_HashCode_FollowsEquals() {
+        val book = Book().apply { title = "Metamorphosis"; author = "Franz Kafka" }
+        fun build() = Session().apply {
+            this.book = book
+            durationSeconds = 123
+            timestampMs = 123456789L
+            startPosition = 0.25f
+            endPosition = 0.75f
+        }
+
+        assertEquals(build(), build())
+        assertEquals(build().hashCode(), build().hashCode())
+
+        val other = build().apply { timestampMs = 123456790L }
+        assertNotEquals(build(), other)
+        assertNotEquals(build().hashCode(), other.hashCode())
+    }
+}
@@ -0,0 +1,117 @@
+package com.readtracker.android.db.export
+
+import com.readtracker.android.db.Book
+import com.readtracker.android.db.DatabaseManager
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import src.buildBook
+import src.buildQuote
+import src.buildSession
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+class BinaryFormatTest {
+
+    /**
+     * Write a book with sessions and quotes in the binary format, read it back and assert that
+     * all fields survive the round trip.
+     */
+    @Test
+    fun binaryFormatTest_WriteAndParseBook_RoundTripsAllFields() {
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f).apply {
+            state = Book.State.Finished
+            currentPosition = 0.75f
+            currentPositionTimestampMs = 1400000002000L
+            closingRemark = "Strange"
+        }
+        val sessions = listOf(
+                buildSession(book, 0.1f, 0.2f, 123, 1400000001000L),
+                buildSession(book, 0.2f, 0.75f, 456, 1400000000000L)
+        )
+        val quotes = listOf(buildQuote(book, "Gregor", 0.5f, 1400000001500L))
+
+        val books = parse(write { it.writeBook(book, sessions, quotes) })
+
+        assertEquals(1, books.size)
+        val parsed = books[0]
+        assertEquals("Metamorphosis", parsed.title)
+        assertEquals("Franz Kafka", parsed.author)
+        assertEquals(200f, parsed.pageCount)
+        assertEquals(Book.State.Finished, parsed.state)
+        assertEquals(0.75f, parsed.currentPosition)
+        assertEquals(1400000002000L, parsed.currentPositionTimestampMs)
+        assertNull(parsed.firstPositionTimestampMs)
+        assertNull(parsed.coverImageUrl)
+        assertEquals("Strange", parsed.closingRemark)
+
+        assertEquals(listOf(1400000001000L, 1400000000000L), parsed.sessions.map { it.timestampMs })
+        assertEquals(listOf(0.1f, 0.2f), parsed.sessions.map { it.startPosition })
+        assertEquals(listOf(0.2f, 0.75f), parsed.sessions.map { it.endPosition })
+        assertEquals(listOf(123L, 456L), parsed.sessions.map { it.durationSeconds })
+
+        assertEquals(1, parsed.quotes.size)
+        assertEquals("Gregor", parsed.quotes[0].content)
+        assertEquals(1400000001500L, parsed.quotes[0].addTimestampMs)
+        assertEquals(0.5f, parsed.quotes[0].position)
+    }
+
+    /**
+     * Assert that the format version is read from the magic header, and that JSON is not
+     * mistaken for it.
+     */
+    @Test
+    fun binaryFormatTest_GetFormatVersion_DetectsMagicHeader() {
+        val binary = write { }
+        assertEquals(3, BinaryFormat.getFormatVersion(binary, binary.size))
+
+        val json = "{ \"books\": [] }".toByteArray()
+        assertEquals(-1, BinaryFormat.getFormatVersion(json, json.size))
+        assertEquals(-1, BinaryFormat.getFormatVersion(binary, 2))
+    }
+
+    /**
+     * Assert that variable length integers round trip at the edges of their ranges.
+     */
+    @Test
+    fun binaryFormatTest_VarLong_RoundTrips() {
+        val values = listOf(0L, 1L, -1L, 63L, -64L, 64L, 1400000000000L, Long.MAX_VALUE, Long.MIN_VALUE)
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { out -> values.forEach { BinaryFormat.writeVarLong(out, it) } }
+
+        val input = DataInputStream(ByteArrayInputStream(bytes.toByteArray()))
+        assertEquals(values, values.map { BinaryFormat.readVarLong(input) })
+    }
+
+    /**
+     * Assert that an export that was never finished, as when it failed halfway, is rejected.
+     */
+    @Test(expected = IOException::class)
+    fun binaryFormatTest_ParseUnfinishedExport_Throws() {
+        val book = buildBook("Metamorphosis", "Franz Kafka", 200f)
+        val bytes = ByteArrayOutputStream()
+        BinaryExportWriter(bytes).run {
+            writeBook(book, emptyList(), emptyList())
+            close()
+        }
+        parse(bytes.toByteArray())
+    }
+
+    private fun write(block: (BinaryExportWriter) -> Unit): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        BinaryExportWriter(bytes).use { writer ->
+            block(writer)
+            writer.finish()
+        }
+        return bytes.toByteArray()
+    }
+
+    private fun parse(content: ByteArray): List<Book> {
+        val books = ArrayList<Book>()
+        BinaryFileParser().parse(ByteArrayInputStream(content), DatabaseManager.Visitor<Book> { books.add(it) })
+        return books
+    }
+}
@@ -0,0 +1,51 @@
+package com.readtracker.android.db.export
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.BufferedInputStream
+import java.io.ByteArrayInputStream
+
+class FormatDetectorTest {
+
+    /** Assert that each format is told from the start of its content. */
+    @Test
+    fun formatDetectorTest_DetectFormatVersion_TellsFormatsApart() {
+        assertEquals(1, detect("{ \"title\": \"Metamorphosis\", \"author\": \"Franz Kafka\" }{ \"title\": \"The Trial\" }"))
+        assertEquals(2, detect("{\n  \"format_version\": 2,\n  \"books\": []\n}"))
+        assertEquals(2, detect("{\"books\":[],\"format_version\":2}"))
+        assertEquals(7, detect("{ \"format_version\" : 7 }"))
+        assertEquals(2, detect("\uFEFF{ \"books\": [] }"))
+        assertEquals(2, detect("{\"x\":0,\"format_version\":2,\"books\":[]}"))
+        assertEquals(2, detect("{ \"exported_at\": \"a \\\"quoted\\\" value\", \"extra\": { \"list\": [1, {}] }, \"format_version\": 2 }"))
+        assertEquals(1, detect("{ \"state\": \"Reading\", \"title\": \"Metamorphosis\" }"))
+        assertEquals(BinaryFormat.FORMAT_VERSION, detect(BinaryFormat.MAGIC + BinaryFormat.FORMAT_VERSION.toByte()))
+    }
+
+    /** Assert that content that is not an export, or is cut off early, is not given a version. */
+    @Test
+    fun formatDetectorTest_DetectFormatVersion_RejectsOtherContent() {
+        assertEquals(FormatDetector.UNKNOWN_FORMAT, detect(""))
+        assertEquals(FormatDetector.UNKNOWN_FORMAT, detect("[]"))
+        assertEquals(FormatDetector.UNKNOWN_FORMAT, detect("{}"))
+        assertEquals(FormatDetector.UNKNOWN_FORMAT, detect("{\"foo\":1}"))
+        assertEquals(FormatDetector.UNKNOWN_FORMAT, detect("{ \"foo\": [1, 2], \"bar\": null }"))
+        assertEquals(FormatDetector.UNKNOWN_FORMAT, detect("{ \"format_version\": \"two\" }"))
+        assertEquals(FormatDetector.UNKNOWN_FORMAT, detect("{ \"format_version\": 2"))
+        assertEquals(FormatDetector.UNKNOWN_FORMAT, detect("{ \"tit"))
+    }
+
+    /** Assert that the stream is left at the start, so the parser reads the content from there. */
+    @Test
+    fun formatDetectorTest_DetectFormatVersion_ResetsStream() {
+        val content = "{ \"books\": [] }"
+        val input = BufferedInputStream(ByteArrayInputStream(content.toByteArray()))
+
+        assertEquals(2, FormatDetector.detectFormatVersion(input))
+        assertEquals(content, String(input.readBytes()))
+    }
+
+    private fun detect(content: String) = detect(content.toByteArray())
+
+    private fun detect(content: ByteArray) =
+            FormatDetector.detectFormatVersion(BufferedInputStream(ByteArrayInputStream(content)))
+}